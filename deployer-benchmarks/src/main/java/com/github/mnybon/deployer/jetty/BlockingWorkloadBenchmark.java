@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import com.github.mnybon.deployer.rest.BenchmarkSupport;
+import com.github.mnybon.deployer.rest.RestDeployer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+/**
+ * Compares the throughput of an engine running requests on a pool of platform
+ * threads with one running them on virtual threads, when every request blocks
+ * for a while as if waiting on a database. The pool is sized well below the
+ * number of concurrent clients.
+ * <p>
+ * The heap used and the peak number of live threads are printed after every
+ * iteration. Run with {@code -prof gc} for allocation rates. Virtual threads
+ * need Java 21. On older JVMs the virtual mode falls back to the thread pool.
+ *
+ * @author mnn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dhttp.maxConnections=256")
+@Threads(128)
+@State(Scope.Benchmark)
+public class BlockingWorkloadBenchmark {
+
+    private static final int POOLED_MAX_THREADS = 32;
+
+    @Param({"pooled", "virtual"})
+    public String mode;
+
+    @Param({"10"})
+    public int blockMillis;
+
+    private BundleContext context;
+    private JettyConfigurator configurator;
+    private RestDeployer deployer;
+    private int port;
+    private URL url;
+
+    @Path("/blocking")
+    public interface BlockingResource {
+
+        @GET
+        String get();
+    }
+
+    public static class SleepingResource implements BlockingResource {
+
+        private final int millis;
+
+        public SleepingResource(int millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public String get() {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = BenchmarkSupport.newBundleContext();
+        configurator = new JettyConfigurator();
+        configurator.activate(context, new HashMap<String, Object>());
+        deployer = new RestDeployer();
+        deployer.activate(context, new HashMap<String, Object>());
+
+        EngineTuning tuning = new EngineTuning();
+        if ("virtual".equals(mode)) {
+            tuning.setVirtualThreads(true);
+        } else {
+            tuning.setMaxThreads(POOLED_MAX_THREADS);
+        }
+        port = BenchmarkSupport.freePort();
+        String address = "http://127.0.0.1:" + port + "/benchmark";
+        configurator.reconfigureServer(port, null, tuning);
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new BenchmarkSupport.StubServiceReference(1,
+                BlockingResource.class.getName(), address, new SleepingResource(blockMillis))));
+        deployer.getDeployment(address).get();
+        url = new URL(address + "/blocking");
+    }
+
+    @TearDown(Level.Iteration)
+    public void printFootprint() {
+        System.gc();
+        System.out.println();
+        System.out.println(mode + ": heap used " + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024 + " KiB, peak threads "
+                + ManagementFactory.getThreadMXBean().getPeakThreadCount() + ", engine " + configurator.getEngine(port).getServer().getThreadPool());
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deployer.deactivate(context);
+        configurator.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Benchmark
+    public int blockingRequest() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int read = 0;
+        try (InputStream in = connection.getInputStream()) {
+            while (in.read() >= 0) {
+                read++;
+            }
+        }
+        return read;
+    }
+
+}
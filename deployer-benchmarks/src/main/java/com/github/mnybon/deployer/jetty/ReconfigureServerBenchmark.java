@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.rest.BenchmarkResources;
+import com.github.mnybon.deployer.rest.BenchmarkSupport;
+import com.github.mnybon.deployer.rest.RestDeployer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+/**
+ * Measures how long reconfiguring the engine on a loopback port takes, alone
+ * and followed by rebuilding the endpoint deployed on the port. The latter is
+ * the time the port is unavailable to clients.
+ *
+ * @author mnn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReconfigureServerBenchmark {
+
+    private BundleContext context;
+    private JettyConfigurator configurator;
+    private RestDeployer deployer;
+    private int port;
+    private String address;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = BenchmarkSupport.newBundleContext();
+        configurator = new JettyConfigurator();
+        configurator.activate(context, new HashMap<String, Object>());
+        deployer = new RestDeployer();
+        deployer.activate(context, new HashMap<String, Object>());
+
+        port = BenchmarkSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/benchmark";
+        configurator.reconfigureServer(port, null);
+        Class<?> resource = BenchmarkResources.ALL[0];
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED,
+                new BenchmarkSupport.StubServiceReference(1, resource.getName(), address, BenchmarkResources.implement(resource))));
+        deployer.getDeployment(address).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deployer.deactivate(context);
+        configurator.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Benchmark
+    public void reconfigureServer() {
+        configurator.reconfigureServer(port, null);
+    }
+
+    @Benchmark
+    public void reconfigureServerAndRebuild() throws Exception {
+        configurator.reconfigureServer(port, null);
+        deployer.rebuildServers(port).get();
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+/**
+ * Distinct root resources for benchmarks that need several resources on one
+ * address.
+ *
+ * @author mnn
+ */
+public final class BenchmarkResources {
+
+    public static final Class<?>[] ALL = {
+        Resource00.class, Resource01.class, Resource02.class, Resource03.class, Resource04.class,
+        Resource05.class, Resource06.class, Resource07.class, Resource08.class, Resource09.class,
+        Resource10.class, Resource11.class, Resource12.class, Resource13.class, Resource14.class,
+        Resource15.class, Resource16.class, Resource17.class, Resource18.class, Resource19.class,
+        Resource20.class, Resource21.class, Resource22.class, Resource23.class, Resource24.class,
+        Resource25.class, Resource26.class, Resource27.class, Resource28.class, Resource29.class,
+        Resource30.class, Resource31.class
+    };
+
+    private BenchmarkResources() {
+    }
+
+    /**
+     * @return an implementation of the resource interface answering every
+     * call with its simple name
+     */
+    public static Object implement(final Class<?> resource) {
+        return Proxy.newProxyInstance(resource.getClassLoader(), new Class<?>[]{resource}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return resource.getSimpleName();
+                }
+            }
+        });
+    }
+
+    @Path("/resource00")
+    public interface Resource00 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource01")
+    public interface Resource01 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource02")
+    public interface Resource02 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource03")
+    public interface Resource03 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource04")
+    public interface Resource04 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource05")
+    public interface Resource05 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource06")
+    public interface Resource06 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource07")
+    public interface Resource07 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource08")
+    public interface Resource08 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource09")
+    public interface Resource09 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource10")
+    public interface Resource10 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource11")
+    public interface Resource11 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource12")
+    public interface Resource12 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource13")
+    public interface Resource13 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource14")
+    public interface Resource14 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource15")
+    public interface Resource15 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource16")
+    public interface Resource16 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource17")
+    public interface Resource17 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource18")
+    public interface Resource18 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource19")
+    public interface Resource19 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource20")
+    public interface Resource20 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource21")
+    public interface Resource21 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource22")
+    public interface Resource22 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource23")
+    public interface Resource23 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource24")
+    public interface Resource24 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource25")
+    public interface Resource25 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource26")
+    public interface Resource26 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource27")
+    public interface Resource27 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource28")
+    public interface Resource28 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource29")
+    public interface Resource29 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource30")
+    public interface Resource30 {
+
+        @GET
+        String get();
+    }
+
+    @Path("/resource31")
+    public interface Resource31 {
+
+        @GET
+        String get();
+    }
+
+}
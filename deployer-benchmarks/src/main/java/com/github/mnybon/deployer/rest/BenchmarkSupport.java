@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.transport.Destination;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Stand-ins for the framework and CXF objects the deployer talks to, so the
+ * deployer can be benchmarked outside of an OSGi container.
+ *
+ * @author mnn
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return a bundle context that has no services registered. It hands out
+     * the service of a {@link StubServiceReference} if it has one, and the
+     * same plain object for every other reference.
+     */
+    public static BundleContext newBundleContext() {
+        final Object service = new Object();
+        return (BundleContext) Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(),
+                new Class<?>[]{BundleContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getService":
+                        if (args[0] instanceof StubServiceReference && ((StubServiceReference) args[0]).service != null) {
+                            return ((StubServiceReference) args[0]).service;
+                        }
+                        return service;
+                    case "ungetService":
+                        return Boolean.TRUE;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a port on the loopback interface that was free when asked
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    /**
+     * A deployer that builds stub servers instead of CXF endpoints.
+     */
+    static class StubbedDeployer extends RestDeployer {
+
+        @Override
+        protected Server createServer(String address, List<ResourcePath> resources) {
+            return new StubServer();
+        }
+    }
+
+    static class StubServer implements Server {
+
+        private volatile boolean started = true;
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+        }
+
+        @Override
+        public void destroy() {
+            started = false;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return started;
+        }
+
+        @Override
+        public Destination getDestination() {
+            return null;
+        }
+
+        @Override
+        public Endpoint getEndpoint() {
+            return null;
+        }
+    }
+
+    public static class StubServiceReference implements ServiceReference<Object> {
+
+        private final Map<String, Object> properties = new HashMap<>();
+        private final Object service;
+
+        public StubServiceReference(long id, String objectClass, String address) {
+            this(id, objectClass, address, null);
+        }
+
+        public StubServiceReference(long id, String objectClass, String address, Object service) {
+            this.service = service;
+            properties.put(Constants.SERVICE_ID, id);
+            properties.put(Constants.OBJECTCLASS, new String[]{objectClass});
+            if (address != null) {
+                properties.put(com.github.mnybon.deployer.rest.Constants.TARGET_SERVER, address);
+            }
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys() {
+            return properties.keySet().toArray(new String[properties.size()]);
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return null;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles() {
+            return new Bundle[0];
+        }
+
+        @Override
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        @Override
+        public int compareTo(Object reference) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "StubServiceReference" + properties.get(Constants.SERVICE_ID);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of deciding whether an object class is a Service Endpoint
+ * Interface, with and without the classification cache.
+ *
+ * @author mnn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassificationBenchmark {
+
+    public interface PlainService {
+    }
+
+    private final String seiName = BenchmarkResources.ALL[0].getName();
+    private final String objectClassList = PlainService.class.getName() + ", " + BenchmarkResources.ALL[0].getName();
+    private SEIClassifier classifier;
+    private RestDeployer deployer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        classifier = new SEIClassifier();
+        classifier.classify(seiName, null);
+        deployer = new RestDeployer();
+        deployer.isSEI(objectClassList);
+    }
+
+    @Benchmark
+    public SEIClassifier.Classification classifyCached() throws ClassNotFoundException {
+        return classifier.classify(seiName, null);
+    }
+
+    @Benchmark
+    public SEIClassifier.Classification classifyUncached() throws ClassNotFoundException {
+        return new SEIClassifier.Classification(Class.forName(seiName));
+    }
+
+    @Benchmark
+    public boolean isSEIObjectClassList() throws ClassNotFoundException {
+        return deployer.isSEI(objectClassList);
+    }
+
+}
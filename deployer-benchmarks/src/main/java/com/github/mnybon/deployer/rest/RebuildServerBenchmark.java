@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Measures how long it takes to rebuild a CXF endpoint on a loopback port, as
+ * a function of the number of resources deployed on its address.
+ *
+ * @author mnn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RebuildServerBenchmark {
+
+    @Param({"1", "8", "32"})
+    public int resources;
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private int port;
+    private String address;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = BenchmarkSupport.newBundleContext();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.REBUILD_QUIET_WINDOW, TimeUnit.HOURS.toMillis(1));
+        properties.put(DeployerConfiguration.REBUILD_MAX_DELAY, TimeUnit.HOURS.toMillis(1));
+        deployer = new RestDeployer();
+        deployer.activate(context, properties);
+
+        port = BenchmarkSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/benchmark";
+        for (int i = 0; i < resources; i++) {
+            Class<?> resource = BenchmarkResources.ALL[i];
+            deployer.registerIfSEI(new BenchmarkSupport.StubServiceReference(i + 1, resource.getName(), address,
+                    BenchmarkResources.implement(resource)));
+        }
+        deployer.rebuildServer(address);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deployer.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Benchmark
+    public void rebuildServer() {
+        deployer.rebuildServer(address);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures the cost of a service event on the thread delivering it, for
+ * services that are deployed and for services the deployer ignores. Rebuilds
+ * are held back by a long quiet window, so the numbers exclude building
+ * servers.
+ * <p>
+ * Run with {@code -prof gc} to see the allocation rate per event.
+ *
+ * @author mnn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServiceChangedBenchmark {
+
+    @Path("/benchmark")
+    public interface BenchmarkResource {
+    }
+
+    public interface PlainService {
+    }
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private ServiceEvent seiRegistered;
+    private ServiceEvent seiUnregistering;
+    private ServiceEvent plainRegistered;
+    private ServiceEvent plainUnregistering;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = BenchmarkSupport.newBundleContext();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.REBUILD_QUIET_WINDOW, TimeUnit.HOURS.toMillis(1));
+        properties.put(DeployerConfiguration.REBUILD_MAX_DELAY, TimeUnit.HOURS.toMillis(1));
+        deployer = new BenchmarkSupport.StubbedDeployer();
+        deployer.activate(context, properties);
+
+        ServiceReference<?> sei = new BenchmarkSupport.StubServiceReference(1, BenchmarkResource.class.getName(), "http://localhost:9000/benchmark");
+        ServiceReference<?> plain = new BenchmarkSupport.StubServiceReference(2, PlainService.class.getName(), null);
+        seiRegistered = new ServiceEvent(ServiceEvent.REGISTERED, sei);
+        seiUnregistering = new ServiceEvent(ServiceEvent.UNREGISTERING, sei);
+        plainRegistered = new ServiceEvent(ServiceEvent.REGISTERED, plain);
+        plainUnregistering = new ServiceEvent(ServiceEvent.UNREGISTERING, plain);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deployer.deactivate(context);
+    }
+
+    @Benchmark
+    public void registerAndUnregisterSEI() {
+        deployer.serviceChanged(seiRegistered);
+        deployer.serviceChanged(seiUnregistering);
+    }
+
+    @Benchmark
+    public void registerAndUnregisterNonSEI() {
+        deployer.serviceChanged(plainRegistered);
+        deployer.serviceChanged(plainUnregistering);
+    }
+
+    @Benchmark
+    public void unregisterUntracked() {
+        deployer.serviceChanged(plainUnregistering);
+    }
+
+}
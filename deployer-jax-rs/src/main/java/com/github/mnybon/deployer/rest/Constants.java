@@ -22,6 +22,91 @@ package com.github.mnybon.deployer.rest;
 public abstract class Constants {
     public static final String TARGET_SERVER = "target_server";
     
+    /**
+     * Marker property identifying a service as a REST resource when the
+     * deployer is configured to discover by marker.
+     */
+    public static final String JAXRS_RESOURCE = "osgi.jaxrs.resource";
+
+    /**
+     * Service property asking for the responses of the service to be
+     * compressed when the client accepts it, whatever the address is
+     * configured to do.
+     */
+    public static final String RESPONSE_COMPRESSION = "response_compression";
+
+    /**
+     * Service property asking for the GET responses of the service to carry a
+     * strong ETag, and for conditional requests to be answered with 304 Not
+     * Modified, whatever the address is configured to do.
+     */
+    public static final String RESPONSE_ETAG = "response_etag";
+
+    /**
+     * Service property limiting the requests per second admitted to the
+     * resources of the service.
+     */
+    public static final String RATE_LIMIT = "rate_limit";
+
+    /**
+     * Service property limiting the number of requests running at the same
+     * time on the resources of the service.
+     */
+    public static final String CONCURRENCY_LIMIT = "concurrency_limit";
+
+    /**
+     * Service property limiting the requests per second admitted to the whole
+     * address of the service. The lowest limit set on an address applies.
+     */
+    public static final String ADDRESS_RATE_LIMIT = "address_rate_limit";
+
+    /**
+     * Service property limiting the number of requests running at the same
+     * time on the whole address of the service. The lowest limit set on an
+     * address applies.
+     */
+    public static final String ADDRESS_CONCURRENCY_LIMIT = "address_concurrency_limit";
+
+    /**
+     * Property of an entity provider service holding an LDAP filter. The
+     * provider is added to every address hosting a resource whose service
+     * matches the filter, in addition to the addresses listed in its
+     * {@link #TARGET_SERVER} property.
+     */
+    public static final String PROVIDER_TARGET = "provider_target";
+
+    /**
+     * Service property choosing how instances of the service serve requests:
+     * {@link #SCOPE_SINGLETON}, {@link #SCOPE_PROTOTYPE} or
+     * {@link #SCOPE_POOLED}. Defaults to prototype for services registered
+     * with prototype scope and to singleton for the others.
+     */
+    public static final String RESOURCE_SCOPE = "resource_scope";
+
+    /**
+     * The service object of the deployer serves every request.
+     */
+    public static final String SCOPE_SINGLETON = "singleton";
+
+    /**
+     * A new instance of a prototype scoped service serves each request.
+     */
+    public static final String SCOPE_PROTOTYPE = "prototype";
+
+    /**
+     * Instances of a prototype scoped service serve one request at a time and
+     * are kept in a pool of {@link #RESOURCE_POOL_SIZE} instances between
+     * requests.
+     */
+    public static final String SCOPE_POOLED = "pooled";
+
+    /**
+     * Service property setting the number of instances pooled for a service
+     * with {@link #SCOPE_POOLED} scope. Defaults to twice the number of
+     * processors.
+     */
+    public static final String RESOURCE_POOL_SIZE = "resource_pool_size";
+    
     
     
     
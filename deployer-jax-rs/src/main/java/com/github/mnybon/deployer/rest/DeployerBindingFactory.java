@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.transport.ChainInitiationObserver;
+import org.apache.cxf.transport.Destination;
+import org.apache.cxf.transport.MessageObserver;
+
+/**
+ * The JAX-RS binding factory of the deployer, registered once on its bus.
+ * Besides letting hot swapped endpoints take over the running ones, it hands
+ * endpoints started behind the placeholder of a lazy address to the
+ * placeholder.
+ *
+ * @author mnn
+ */
+class DeployerBindingFactory extends HotSwapBindingFactory {
+
+    DeployerBindingFactory(Bus bus) {
+        super(bus);
+    }
+
+    @Override
+    protected void attachListener(Destination d, Endpoint e, MessageObserver observer) {
+        if (observer instanceof LazyEndpoint) {
+            ((LazyEndpoint) observer).attach(new ChainInitiationObserver(e, getBus()));
+        } else {
+            super.attachListener(d, e, observer);
+        }
+    }
+
+}
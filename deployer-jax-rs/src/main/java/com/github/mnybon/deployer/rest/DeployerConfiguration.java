@@ -0,0 +1,404 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed view of the component configuration of {@link RestDeployer}. The
+ * values are supplied through Configuration Admin using the component name
+ * as PID.
+ *
+ * @author mnn
+ */
+public class DeployerConfiguration {
+
+    /**
+     * Swap rebuilt endpoints in behind the running address instead of stopping
+     * the old endpoint first.
+     */
+    public static final String HOT_SWAP = "hotswap";
+
+    /**
+     * Milliseconds to wait for further service events before rebuilding a
+     * changed address. 0 rebuilds on every event.
+     */
+    public static final String REBUILD_QUIET_WINDOW = "rebuild.quietwindow";
+
+    /**
+     * Upper bound in milliseconds on how long a rebuild may be held back by
+     * the quiet window.
+     */
+    public static final String REBUILD_MAX_DELAY = "rebuild.maxdelay";
+
+    /**
+     * Maximum number of addresses rebuilt in parallel.
+     */
+    public static final String REBUILD_THREADS = "rebuild.threads";
+
+    /**
+     * LDAP filter a service must match to be considered for deployment.
+     */
+    public static final String DISCOVERY_FILTER = "discovery.filter";
+
+    /**
+     * Only consider services carrying the {@link Constants#JAXRS_RESOURCE}
+     * marker property set to true.
+     */
+    public static final String DISCOVERY_MARKER = "discovery.marker";
+
+    /**
+     * Comma separated list of object classes a service must be registered
+     * under, one of, to be considered for deployment.
+     */
+    public static final String DISCOVERY_OBJECTCLASSES = "discovery.objectclasses";
+
+    /**
+     * Record request counts and latencies for every deployed resource and
+     * publish them as MBeans.
+     */
+    public static final String METRICS_ENABLED = "metrics.enabled";
+
+    /**
+     * Comma separated list of addresses whose responses are compressed, or *
+     * for every address. Services can also ask for compression themselves
+     * through {@link Constants#RESPONSE_COMPRESSION}.
+     */
+    public static final String COMPRESSION_ADDRESSES = "compression.addresses";
+
+    /**
+     * Smallest response body in bytes worth compressing.
+     */
+    public static final String COMPRESSION_THRESHOLD = "compression.threshold";
+
+    /**
+     * Comma separated list of the media types that are compressed. A subtype
+     * of * matches every subtype of the type.
+     */
+    public static final String COMPRESSION_TYPES = "compression.types";
+
+    /**
+     * Comma separated list of addresses whose GET responses are given a strong
+     * ETag and answered with 304 Not Modified when the client already has the
+     * representation, or * for every address. Services can also ask for this
+     * themselves through {@link Constants#RESPONSE_ETAG}.
+     */
+    public static final String ETAG_ADDRESSES = "etag.addresses";
+
+    /**
+     * Memory in bytes the response cache may hold for the methods annotated
+     * with {@link com.github.mnybon.deployer.rest.annotation.CachedResponse}.
+     * Defaults to 0, which disables the cache.
+     */
+    public static final String CACHE_MAX_BYTES = "cache.maxbytes";
+
+    /**
+     * Maximum number of responses held by the response cache.
+     */
+    public static final String CACHE_MAX_ENTRIES = "cache.maxentries";
+
+    /**
+     * Comma separated list of address=requests per second entries limiting
+     * the rate of requests admitted to an address. An address of * applies
+     * to every address.
+     */
+    public static final String LIMITS_RATE = "limits.rate";
+
+    /**
+     * Comma separated list of address=requests entries limiting the number of
+     * requests running at the same time on an address. An address of *
+     * applies to every address.
+     */
+    public static final String LIMITS_CONCURRENCY = "limits.concurrency";
+
+    /**
+     * Add the MessageBodyReader, MessageBodyWriter and ContextResolver
+     * services in the framework to the endpoints they target. Defaults to
+     * false.
+     */
+    public static final String PROVIDERS_DISCOVERY = "providers.discovery";
+
+    /**
+     * Comma separated list of addresses, or * for every address, that are
+     * only reserved when their first resource registers. Their endpoints are
+     * built when the first request arrives.
+     */
+    public static final String LAZY_ADDRESSES = "lazy.addresses";
+
+    /**
+     * Milliseconds without requests after which the endpoint of a lazy
+     * address is released, to be built again on the next request. 0 keeps
+     * built endpoints.
+     */
+    public static final String LAZY_IDLE_TIMEOUT = "lazy.idletimeout";
+
+    /**
+     * Deploy the endpoints on a CXF bus of their own, created when the
+     * deployer is activated and shut down with it, rather than on the default
+     * bus shared with every other CXF user. Defaults to false.
+     */
+    public static final String BUS_DEDICATED = "bus.dedicated";
+
+    /**
+     * Save the deployed addresses and the classified service classes to the
+     * data area of the bundle on deactivation, and use them to plan the
+     * endpoints on the next activation. Defaults to false.
+     */
+    public static final String SNAPSHOT_ENABLED = "snapshot.enabled";
+
+    /**
+     * Milliseconds after activation that the build of an address is held back
+     * while resources it had when the snapshot was saved are still missing.
+     */
+    public static final String SNAPSHOT_WARMUP = "snapshot.warmup";
+
+    static final String ALL_ADDRESSES = "*";
+
+    private final Map<String, ?> properties;
+
+    public DeployerConfiguration(Map<String, ?> properties) {
+        this.properties = properties == null ? Collections.<String, Object>emptyMap() : properties;
+    }
+
+    public boolean isDedicatedBus() {
+        return getBoolean(BUS_DEDICATED, false);
+    }
+
+    public boolean isHotSwap() {
+        return getBoolean(HOT_SWAP, false);
+    }
+
+    public long getRebuildQuietWindow() {
+        return getLong(REBUILD_QUIET_WINDOW, 0);
+    }
+
+    public long getRebuildMaxDelay() {
+        return getLong(REBUILD_MAX_DELAY, 2000);
+    }
+
+    public int getRebuildThreads() {
+        return getInt(REBUILD_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public boolean isMetricsEnabled() {
+        return getBoolean(METRICS_ENABLED, false);
+    }
+
+    public boolean isCompressed(String address) {
+        return matchesAddress(COMPRESSION_ADDRESSES, address);
+    }
+
+    public int getCompressionThreshold() {
+        return getInt(COMPRESSION_THRESHOLD, 1024);
+    }
+
+    public List<String> getCompressionTypes() {
+        List<String> types = getStrings(COMPRESSION_TYPES);
+        if (types.isEmpty()) {
+            return Arrays.asList("application/json", "application/xml", "text/*");
+        }
+        return types;
+    }
+
+    public boolean isETagged(String address) {
+        return matchesAddress(ETAG_ADDRESSES, address);
+    }
+
+    public boolean isProvidersDiscovery() {
+        return getBoolean(PROVIDERS_DISCOVERY, false);
+    }
+
+    public boolean isLazy(String address) {
+        return matchesAddress(LAZY_ADDRESSES, address);
+    }
+
+    public long getLazyIdleTimeout() {
+        return getLong(LAZY_IDLE_TIMEOUT, 0);
+    }
+
+    public boolean isSnapshotEnabled() {
+        return getBoolean(SNAPSHOT_ENABLED, false);
+    }
+
+    public long getSnapshotWarmup() {
+        return getLong(SNAPSHOT_WARMUP, 5000);
+    }
+
+    public long getCacheMaxBytes() {
+        return getLong(CACHE_MAX_BYTES, 0);
+    }
+
+    public int getCacheMaxEntries() {
+        return getInt(CACHE_MAX_ENTRIES, 10000);
+    }
+
+    /**
+     * @return the rate limit of the address, 0 if not limited
+     */
+    public double getRateLimit(String address) {
+        return getAddressValue(LIMITS_RATE, address);
+    }
+
+    /**
+     * @return the concurrency limit of the address, 0 if not limited
+     */
+    public int getConcurrencyLimit(String address) {
+        return (int) getAddressValue(LIMITS_CONCURRENCY, address);
+    }
+
+    /**
+     * Looks up the value of the address in a list of address=value entries.
+     * An entry for the address itself wins over one for *.
+     */
+    private double getAddressValue(String key, String address) {
+        double result = 0;
+        for (String entry : getStrings(key)) {
+            int separator = entry.lastIndexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String entryAddress = entry.substring(0, separator).trim();
+            if (!entryAddress.equals(address) && !entryAddress.equals(ALL_ADDRESSES)) {
+                continue;
+            }
+            try {
+                double value = Double.parseDouble(entry.substring(separator + 1).trim());
+                if (entryAddress.equals(address)) {
+                    return value;
+                }
+                result = value;
+            } catch (NumberFormatException ex) {
+                //Ignore the malformed entry
+            }
+        }
+        return result;
+    }
+
+    private boolean matchesAddress(String key, String address) {
+        List<String> addresses = getStrings(key);
+        return addresses.contains(ALL_ADDRESSES) || addresses.contains(address);
+    }
+
+    /**
+     * Combines the discovery settings into the LDAP filter used when looking
+     * up and listening for services.
+     *
+     * @return the filter, or null if every service in the framework should be
+     * considered
+     */
+    public String getDiscoveryFilter() {
+        List<String> parts = new ArrayList<>();
+        String filter = getString(DISCOVERY_FILTER, null);
+        if (filter != null) {
+            parts.add(filter.startsWith("(") ? filter : "(" + filter + ")");
+        }
+        if (getBoolean(DISCOVERY_MARKER, false)) {
+            parts.add("(" + Constants.JAXRS_RESOURCE + "=true)");
+        }
+        List<String> objectClasses = getStrings(DISCOVERY_OBJECTCLASSES);
+        if (!objectClasses.isEmpty()) {
+            StringBuilder builder = new StringBuilder("(|");
+            for (String objectClass : objectClasses) {
+                builder.append("(").append(org.osgi.framework.Constants.OBJECTCLASS).append("=").append(objectClass).append(")");
+            }
+            parts.add(builder.append(")").toString());
+        }
+        if (parts.isEmpty()) {
+            return null;
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        StringBuilder builder = new StringBuilder("(&");
+        for (String part : parts) {
+            builder.append(part);
+        }
+        return builder.append(")").toString();
+    }
+
+    protected boolean getBoolean(String key, boolean defaultValue) {
+        Object value = properties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    protected long getLong(String key, long defaultValue) {
+        Object value = properties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    protected int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    protected String getString(String key, String defaultValue) {
+        Object value = properties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        String result = value.toString().trim();
+        return result.isEmpty() ? defaultValue : result;
+    }
+
+    protected List<String> getStrings(String key) {
+        Object value = properties.get(key);
+        List<String> result = new ArrayList<>();
+        if (value == null) {
+            return result;
+        }
+        Collection<?> values;
+        if (value instanceof String[]) {
+            values = Arrays.asList((String[]) value);
+        } else if (value instanceof Collection) {
+            values = (Collection<?>) value;
+        } else {
+            values = Arrays.asList(value.toString().split(","));
+        }
+        for (Object item : values) {
+            String trimmed = item == null ? "" : item.toString().trim();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DeployerConfiguration{" + "properties=" + properties + '}';
+    }
+
+}
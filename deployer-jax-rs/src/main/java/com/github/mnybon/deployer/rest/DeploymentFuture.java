@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future completed by the deployer once a scheduled server build has
+ * finished.
+ *
+ * @author mnn
+ */
+class DeploymentFuture implements Future<Void> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+
+    static DeploymentFuture completed() {
+        DeploymentFuture future = new DeploymentFuture();
+        future.complete();
+        return future;
+    }
+
+    /**
+     * @return a future that completes when all the given futures have
+     * completed
+     */
+    static Future<Void> allOf(Collection<? extends Future<Void>> futures) {
+        if (futures.size() == 1) {
+            return futures.iterator().next();
+        }
+        final List<Future<Void>> all = new ArrayList<>(futures);
+        return new Future<Void>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return false;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public boolean isDone() {
+                for (Future<Void> future : all) {
+                    if (!future.isDone()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Void get() throws InterruptedException, ExecutionException {
+                for (Future<Void> future : all) {
+                    future.get();
+                }
+                return null;
+            }
+
+            @Override
+            public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                long deadline = System.nanoTime() + unit.toNanos(timeout);
+                for (Future<Void> future : all) {
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+                return null;
+            }
+        };
+    }
+
+    void complete() {
+        done.countDown();
+    }
+
+    void fail(Throwable cause) {
+        failure = cause;
+        done.countDown();
+    }
+
+    /**
+     * Server builds cannot be cancelled once scheduled.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException("Deployment did not complete within " + timeout + " " + unit);
+        }
+        return result();
+    }
+
+    private Void result() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.osgi.framework.Bundle;
+
+/**
+ * The deployment state saved between activations of the deployer: the
+ * resources deployed on every address, and the service classes of every
+ * bundle that turned out not to be Service Endpoint Interfaces.
+ * <p>
+ * Resources are identified by the symbolic name of the bundle providing them
+ * and the name of their SEI, since service ids and bundle ids do not survive
+ * a restart. Classifications are only reused for the exact bundle they were
+ * made for, identified by its symbolic name, version and last modification.
+ * Like the classifications of the {@link SEIClassifier}, they are tied to the
+ * bundle providing the service rather than the one exporting the class.
+ *
+ * @author mnn
+ */
+class DeploymentSnapshot {
+
+    static final String FILE_NAME = "deployment.snapshot";
+
+    private static final int VERSION = 1;
+
+    private final Map<String, Set<String>> addresses;
+    private final Map<String, Set<String>> plainClasses;
+
+    DeploymentSnapshot(Map<String, Set<String>> addresses, Map<String, Set<String>> plainClasses) {
+        this.addresses = addresses;
+        this.plainClasses = plainClasses;
+    }
+
+    /**
+     * @return the resource keys deployed on each address
+     */
+    Map<String, Set<String>> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return the classes of the bundle that are not Service Endpoint
+     * Interfaces
+     */
+    Set<String> getPlainClasses(Bundle bundle) {
+        Set<String> classes = plainClasses.get(bundleKey(bundle));
+        return classes == null ? Collections.<String>emptySet() : classes;
+    }
+
+    static String resourceKey(RestDeployer.ResourcePath resource) {
+        Bundle bundle = resource.getReference() == null ? null : resource.getReference().getBundle();
+        String symbolicName = bundle == null ? null : bundle.getSymbolicName();
+        return (symbolicName == null ? "" : symbolicName) + ":" + resource.getSei().getName();
+    }
+
+    static String bundleKey(Bundle bundle) {
+        return bundle.getSymbolicName() + ";" + bundle.getVersion() + ";" + bundle.getLastModified();
+    }
+
+    /**
+     * @throws IOException if the file could not be read or is not a snapshot
+     */
+    static DeploymentSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            return new DeploymentSnapshot(readGroups(in), readGroups(in));
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, which then replaces the file,
+     * so an interrupted write leaves the previous snapshot in place.
+     */
+    void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(VERSION);
+            writeGroups(out, addresses);
+            writeGroups(out, plainClasses);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Map<String, Set<String>> readGroups(DataInputStream in) throws IOException {
+        int groups = in.readInt();
+        Map<String, Set<String>> result = new HashMap<>();
+        for (int i = 0; i < groups; i++) {
+            String key = in.readUTF();
+            int size = in.readInt();
+            Set<String> values = new HashSet<>();
+            for (int j = 0; j < size; j++) {
+                values.add(in.readUTF());
+            }
+            result.put(key, values);
+        }
+        return result;
+    }
+
+    private static void writeGroups(DataOutputStream out, Map<String, Set<String>> groups) throws IOException {
+        out.writeInt(groups.size());
+        for (Map.Entry<String, Set<String>> group : groups.entrySet()) {
+            out.writeUTF(group.getKey());
+            out.writeInt(group.getValue().size());
+            for (String value : group.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeploymentSnapshot{" + "addresses=" + addresses.size() + ", bundles=" + plainClasses.size() + '}';
+    }
+
+}
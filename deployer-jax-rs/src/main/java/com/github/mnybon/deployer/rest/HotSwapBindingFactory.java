@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.apache.cxf.Bus;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.jaxrs.JAXRSBindingFactory;
+import org.apache.cxf.transport.ChainInitiationObserver;
+import org.apache.cxf.transport.Destination;
+import org.apache.cxf.transport.MessageObserver;
+
+/**
+ * A JAX-RS binding factory letting a hot swapped endpoint replace the running
+ * one on its address.
+ * <p>
+ * The JAX-RS binding refuses to start an endpoint on a destination that is
+ * already observed, failing with ALREADY_RUNNING. This factory instead lets an
+ * endpoint take over the destination of an endpoint built through it earlier,
+ * by replacing the observer of the destination in one step, so the
+ * destination is never detached. Destinations observed by endpoints built
+ * elsewhere are still refused.
+ *
+ * @author mnn
+ */
+class HotSwapBindingFactory extends JAXRSBindingFactory {
+
+    private final Set<Endpoint> endpoints = Collections.newSetFromMap(new WeakHashMap<Endpoint, Boolean>());
+
+    HotSwapBindingFactory(Bus bus) {
+        setBus(bus);
+    }
+
+    @Override
+    public void addListener(Destination d, Endpoint e) {
+        synchronized (d) {
+            MessageObserver observer = d.getMessageObserver();
+            if (observer instanceof ChainInitiationObserver && isBuilt(((ChainInitiationObserver) observer).getEndpoint())) {
+                d.setMessageObserver(new ChainInitiationObserver(e, getBus()));
+            } else {
+                attachListener(d, e, observer);
+            }
+        }
+        synchronized (endpoints) {
+            endpoints.add(e);
+        }
+    }
+
+    /**
+     * Attaches the endpoint to a destination that is not observed by an
+     * endpoint built through this factory.
+     *
+     * @param observer the current observer of the destination, or null
+     */
+    protected void attachListener(Destination d, Endpoint e, MessageObserver observer) {
+        super.addListener(d, e);
+    }
+
+    private boolean isBuilt(Endpoint endpoint) {
+        synchronized (endpoints) {
+            return endpoints.contains(endpoint);
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.QName;
+import org.apache.cxf.Bus;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.Conduit;
+import org.apache.cxf.transport.Destination;
+import org.apache.cxf.transport.DestinationFactory;
+import org.apache.cxf.transport.DestinationFactoryManager;
+import org.apache.cxf.transport.MessageObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reserves an address with a placeholder that builds the endpoint of the
+ * address when the first request arrives.
+ * <p>
+ * The placeholder observes the destination of the address, which is the same
+ * destination the endpoint gets when it is built. Once built, the placeholder
+ * hands requests on to the endpoint and notes when the last one arrived, so an
+ * idle endpoint can be released again. Like a hot swapped endpoint, a
+ * replaced endpoint is released rather than stopped, as stopping it would
+ * detach the placeholder from the destination. The endpoints built behind the
+ * placeholder are handed to it by the {@link DeployerBindingFactory}.
+ *
+ * @author mnn
+ */
+class LazyEndpoint implements MessageObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyEndpoint.class);
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    interface Materializer {
+
+        /**
+         * @return a started endpoint serving the resources of the address, or
+         * null if it has none
+         */
+        Server materialize();
+
+        /**
+         * Retires an endpoint that no longer serves the address.
+         */
+        void release(Server server);
+    }
+
+    private final String address;
+    private final Destination destination;
+    private final Materializer materializer;
+    private volatile MessageObserver target;
+    private volatile long lastRequest = System.nanoTime();
+    private volatile Server server;
+    private MessageObserver attached;
+    private boolean closed;
+
+    private LazyEndpoint(String address, Destination destination, Materializer materializer) {
+        this.address = address;
+        this.destination = destination;
+        this.materializer = materializer;
+    }
+
+    /**
+     * Reserves the address on its transport.
+     *
+     * @throws IOException if no transport serves the address
+     */
+    static LazyEndpoint open(Bus bus, String address, Materializer materializer) throws IOException {
+        DestinationFactoryManager manager = bus.getExtension(DestinationFactoryManager.class);
+        DestinationFactory factory;
+        try {
+            factory = manager == null ? null : manager.getDestinationFactoryForUri(address);
+        } catch (RuntimeException ex) {
+            throw new IOException("No transport serves " + address, ex);
+        }
+        if (factory == null) {
+            throw new IOException("No transport serves " + address);
+        }
+        EndpointInfo endpointInfo = new EndpointInfo();
+        endpointInfo.setName(new QName(LazyEndpoint.class.getPackage().getName(), "LazyEndpoint"));
+        endpointInfo.setAddress(address);
+        LazyEndpoint endpoint = new LazyEndpoint(address, factory.getDestination(endpointInfo, bus), materializer);
+        endpoint.destination.setMessageObserver(endpoint);
+        LOGGER.info("Reserved {} until its first request", address);
+        return endpoint;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        lastRequest = System.nanoTime();
+        MessageObserver observer = target;
+        if (observer == null) {
+            try {
+                observer = materialize();
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Failed to build {} for its first request", address, ex);
+            }
+        }
+        if (observer == null) {
+            reject(message);
+            return;
+        }
+        observer.onMessage(message);
+    }
+
+    private synchronized MessageObserver materialize() {
+        if (target == null && !closed) {
+            build();
+        }
+        return target;
+    }
+
+    /**
+     * Builds the endpoint and puts the placeholder back in front of it.
+     * Guarded by this.
+     */
+    private void build() {
+        long start = System.nanoTime();
+        attached = null;
+        Server built = materializer.materialize();
+        if (built == null) {
+            return;
+        }
+        MessageObserver observer = attached;
+        if (observer == null) {
+            //Another destination serves the address, so requests no longer reach the placeholder
+            LOGGER.warn("{} was built on another destination than its placeholder", address);
+            observer = built.getDestination().getMessageObserver();
+        }
+        attached = null;
+        server = built;
+        target = observer;
+        LOGGER.info("Built {} in {} ms", address, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Takes the observer of an endpoint started on the destination, see
+     * {@link DeployerBindingFactory}.
+     */
+    synchronized void attach(MessageObserver observer) {
+        attached = observer;
+    }
+
+    /**
+     * Answers 503 Service Unavailable on the back channel of the request.
+     */
+    private void reject(Message message) {
+        Exchange exchange = message.getExchange();
+        if (exchange == null) {
+            exchange = new ExchangeImpl();
+            exchange.setInMessage(message);
+            message.setExchange(exchange);
+        }
+        Message response = new MessageImpl();
+        response.setExchange(exchange);
+        exchange.setOutMessage(response);
+        response.put(Message.RESPONSE_CODE, SERVICE_UNAVAILABLE);
+        try {
+            Conduit backChannel = destination.getBackChannel(message);
+            backChannel.prepare(response);
+            backChannel.close(response);
+        } catch (IOException ex) {
+            LOGGER.debug("Failed to reject a request to {}", address, ex);
+        }
+    }
+
+    /**
+     * Rebuilds the endpoint from the current resources if it has been built.
+     * Otherwise it is built from them on the first request.
+     */
+    synchronized void rebuild() {
+        if (server == null || closed) {
+            return;
+        }
+        Server old = server;
+        server = null;
+        target = null;
+        build();
+        materializer.release(old);
+    }
+
+    /**
+     * Releases the endpoint if no request has arrived for the given time. The
+     * placeholder builds it again on the next request.
+     *
+     * @return true if the endpoint was released
+     */
+    synchronized boolean evictIfIdle(long idleNanos) {
+        if (server == null || System.nanoTime() - lastRequest < idleNanos) {
+            return false;
+        }
+        target = null;
+        materializer.release(server);
+        server = null;
+        LOGGER.info("Released {} after {} ms without requests", address, TimeUnit.NANOSECONDS.toMillis(idleNanos));
+        return true;
+    }
+
+    /**
+     * Stops the endpoint and frees the address.
+     */
+    synchronized void close() {
+        closed = true;
+        target = null;
+        if (server != null) {
+            server.destroy();
+            server = null;
+        }
+        destination.setMessageObserver(null);
+    }
+
+    /**
+     * @return the endpoint, or null if it has not been built
+     */
+    Server getServer() {
+        return server;
+    }
+
+    @Override
+    public String toString() {
+        return "LazyEndpoint{" + "address=" + address + ", built=" + (target != null) + '}';
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the JAX-RS entity providers registered as OSGi services, so they can
+ * be added to the endpoints they target.
+ * <p>
+ * A provider targets the addresses listed in its {@link Constants#TARGET_SERVER}
+ * property, and the addresses hosting a resource whose service matches the
+ * LDAP filter in its {@link Constants#PROVIDER_TARGET} property. A provider
+ * with neither targets every address. Providers are ordered by service
+ * ranking, highest first.
+ *
+ * @author mnn
+ */
+class ProviderTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProviderTracker.class);
+
+    static final String[] PROVIDER_CLASSES = {
+        MessageBodyReader.class.getName(),
+        MessageBodyWriter.class.getName(),
+        ContextResolver.class.getName()
+    };
+
+    interface Listener {
+
+        /**
+         * Called when a provider is added or removed, or its targets changed.
+         */
+        void providersChanged(Collection<TrackedProvider> changed);
+    }
+
+    private static final Comparator<TrackedProvider> BY_RANKING = new Comparator<TrackedProvider>() {
+        @Override
+        public int compare(TrackedProvider o1, TrackedProvider o2) {
+            return o2.reference.compareTo(o1.reference);
+        }
+    };
+
+    private final ServiceTracker<Object, TrackedProvider> tracker;
+    /**
+     * The tracked providers. The service tracker only records a provider after
+     * addingService returns, so rebuilds triggered from there read this map.
+     */
+    private final ConcurrentMap<ServiceReference<Object>, TrackedProvider> providers = new ConcurrentHashMap<>();
+
+    ProviderTracker(BundleContext context, final Listener listener) throws InvalidSyntaxException {
+        StringBuilder filter = new StringBuilder("(|");
+        for (String providerClass : PROVIDER_CLASSES) {
+            filter.append('(').append(org.osgi.framework.Constants.OBJECTCLASS).append('=').append(providerClass).append(')');
+        }
+        filter.append(')');
+        tracker = new ServiceTracker<Object, TrackedProvider>(context, FrameworkUtil.createFilter(filter.toString()), null) {
+            @Override
+            public TrackedProvider addingService(ServiceReference<Object> reference) {
+                Object service = context.getService(reference);
+                if (service == null) {
+                    return null;
+                }
+                TrackedProvider provider = new TrackedProvider(reference, service);
+                LOGGER.info("Tracking provider {}", provider);
+                providers.put(reference, provider);
+                listener.providersChanged(Collections.singleton(provider));
+                return provider;
+            }
+
+            @Override
+            public void modifiedService(ServiceReference<Object> reference, TrackedProvider provider) {
+                TrackedProvider previous = new TrackedProvider(provider);
+                provider.update(new TrackedProvider(reference, provider.service));
+                listener.providersChanged(Arrays.asList(previous, provider));
+            }
+
+            @Override
+            public void removedService(ServiceReference<Object> reference, TrackedProvider provider) {
+                LOGGER.info("Provider {} is gone", provider);
+                providers.remove(reference);
+                listener.providersChanged(Collections.singleton(provider));
+                context.ungetService(reference);
+            }
+        };
+    }
+
+    void open() {
+        tracker.open();
+    }
+
+    void close() {
+        tracker.close();
+        providers.clear();
+    }
+
+    /**
+     * @return the providers targeting the address with the given resources,
+     * highest ranking first
+     */
+    List<Object> getProviders(String address, List<RestDeployer.ResourcePath> resources) {
+        List<TrackedProvider> matching = new ArrayList<>();
+        for (TrackedProvider provider : providers.values()) {
+            if (provider.targets(address, resources)) {
+                matching.add(provider);
+            }
+        }
+        Collections.sort(matching, BY_RANKING);
+        List<Object> result = new ArrayList<>(matching.size());
+        for (TrackedProvider provider : matching) {
+            result.add(provider.service);
+        }
+        return result;
+    }
+
+    /**
+     * A provider service and its targets, read when it was added or last
+     * modified.
+     */
+    static class TrackedProvider {
+
+        private final ServiceReference<?> reference;
+        private final Object service;
+        private volatile List<String> addresses;
+        private volatile Filter filter;
+
+        TrackedProvider(ServiceReference<?> reference, Object service) {
+            this.reference = reference;
+            this.service = service;
+            this.addresses = toAddresses(reference.getProperty(Constants.TARGET_SERVER));
+            this.filter = toFilter(reference);
+        }
+
+        private TrackedProvider(TrackedProvider provider) {
+            this.reference = provider.reference;
+            this.service = provider.service;
+            this.addresses = provider.addresses;
+            this.filter = provider.filter;
+        }
+
+        private void update(TrackedProvider modified) {
+            addresses = modified.addresses;
+            filter = modified.filter;
+        }
+
+        /**
+         * @return true if the provider targets the address with the given
+         * resources
+         */
+        boolean targets(String address, List<RestDeployer.ResourcePath> resources) {
+            if (addresses.isEmpty() && filter == null) {
+                return true;
+            }
+            if (addresses.contains(address)) {
+                return true;
+            }
+            if (filter != null) {
+                for (RestDeployer.ResourcePath resource : resources) {
+                    if (resource.getReference() != null && filter.match(resource.getReference())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static List<String> toAddresses(Object property) {
+            List<String> result = new ArrayList<>();
+            if (property instanceof String[]) {
+                for (String address : (String[]) property) {
+                    result.add(address.trim());
+                }
+            } else if (property instanceof Collection) {
+                for (Object address : (Collection<?>) property) {
+                    result.add(address.toString().trim());
+                }
+            } else if (property != null) {
+                for (String address : property.toString().split(",")) {
+                    result.add(address.trim());
+                }
+            }
+            result.removeAll(Collections.singleton(""));
+            return result;
+        }
+
+        private static Filter toFilter(ServiceReference<?> reference) {
+            Object property = reference.getProperty(Constants.PROVIDER_TARGET);
+            if (property == null || property.toString().trim().isEmpty()) {
+                return null;
+            }
+            try {
+                return FrameworkUtil.createFilter(property.toString().trim());
+            } catch (InvalidSyntaxException | RuntimeException ex) {
+                LOGGER.warn("Ignoring invalid {} {} of provider service {}", Constants.PROVIDER_TARGET, property,
+                        reference.getProperty(org.osgi.framework.Constants.SERVICE_ID), ex);
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "TrackedProvider{" + "service=" + service + ", addresses=" + addresses + ", filter=" + filter + '}';
+        }
+    }
+
+}
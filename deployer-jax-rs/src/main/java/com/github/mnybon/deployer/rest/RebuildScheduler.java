@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules server rebuilds on a bounded pool of worker threads, away from
+ * the thread delivering the service events.
+ * <p>
+ * Rebuilds of the same address are run one at a time and in the order they
+ * were requested, while different addresses are rebuilt in parallel. A
+ * rebuild always builds the current state of an address, so a request for an
+ * address that already has a rebuild waiting is merged into the waiting one.
+ * With a quiet window configured, requests are additionally held back until
+ * no new request has arrived for the quiet window, or until the oldest held
+ * request has waited for the maximum delay.
+ *
+ * @author mnn
+ */
+class RebuildScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RebuildScheduler.class);
+
+    interface Rebuilder {
+
+        void rebuild(String address);
+    }
+
+    private final Rebuilder rebuilder;
+    private final long quietWindow;
+    private final long maxDelay;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService timer;
+
+    private final ConcurrentMap<String, AddressState> states = new ConcurrentHashMap<>();
+    private final Set<String> held = new LinkedHashSet<>();
+    private ScheduledFuture<?> pendingFlush;
+    private long firstHeldTime;
+
+    private final AtomicLong requestedRebuilds = new AtomicLong();
+    private final AtomicLong performedRebuilds = new AtomicLong();
+    private final AtomicLong savedRebuilds = new AtomicLong();
+
+    /**
+     * @param rebuilder performs the actual rebuild of an address
+     * @param threads maximum number of addresses rebuilt in parallel
+     * @param quietWindow milliseconds without new requests before held
+     * requests are released. A value of 0 or less releases requests
+     * immediately.
+     * @param maxDelay maximum number of milliseconds a request may be held back
+     */
+    RebuildScheduler(Rebuilder rebuilder, int threads, long quietWindow, long maxDelay) {
+        this.rebuilder = rebuilder;
+        this.quietWindow = quietWindow;
+        this.maxDelay = Math.max(maxDelay, quietWindow);
+        int poolSize = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("rest-deployer-build"));
+        this.workers.allowCoreThreadTimeOut(true);
+        this.timer = quietWindow > 0 ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rest-deployer-rebuild")) : null;
+    }
+
+    /**
+     * Requests a rebuild of the given addresses, honouring the quiet window.
+     *
+     * @return a future completing when all the addresses have been rebuilt
+     */
+    Future<Void> schedule(Collection<String> addresses) {
+        return schedule(addresses, false);
+    }
+
+    /**
+     * Requests a rebuild of the given addresses, bypassing the quiet window.
+     *
+     * @return a future completing when all the addresses have been rebuilt
+     */
+    Future<Void> scheduleNow(Collection<String> addresses) {
+        return schedule(addresses, true);
+    }
+
+    /**
+     * Requests a rebuild of the given addresses without releasing it. The
+     * rebuild runs when the addresses are scheduled again.
+     *
+     * @return a future completing when all the addresses have been rebuilt
+     */
+    Future<Void> park(Collection<String> addresses) {
+        List<Future<Void>> futures = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            futures.add(request(address));
+        }
+        return DeploymentFuture.allOf(futures);
+    }
+
+    private Future<Void> schedule(Collection<String> addresses, boolean immediate) {
+        List<Future<Void>> futures = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            futures.add(request(address));
+        }
+        if (immediate || timer == null) {
+            for (String address : addresses) {
+                release(address);
+            }
+        } else {
+            hold(addresses);
+        }
+        return DeploymentFuture.allOf(futures);
+    }
+
+    /**
+     * @return a future completing when the latest requested rebuild of the
+     * address has finished
+     */
+    Future<Void> getDeployment(String address) {
+        AddressState state = states.get(address);
+        if (state == null) {
+            return DeploymentFuture.completed();
+        }
+        synchronized (state) {
+            if (state.next != null) {
+                return state.next;
+            }
+            return state.last == null ? DeploymentFuture.completed() : state.last;
+        }
+    }
+
+    private DeploymentFuture request(String address) {
+        requestedRebuilds.incrementAndGet();
+        AddressState state = getState(address);
+        synchronized (state) {
+            if (state.next != null) {
+                savedRebuilds.incrementAndGet();
+                return state.next;
+            }
+            state.next = new DeploymentFuture();
+            state.released = false;
+            return state.next;
+        }
+    }
+
+    private void hold(Collection<String> addresses) {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (held.isEmpty()) {
+                firstHeldTime = now;
+            }
+            held.addAll(addresses);
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+            }
+            long delay = Math.max(0, Math.min(quietWindow, firstHeldTime + maxDelay - now));
+            try {
+                pendingFlush = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.debug("Scheduler is shut down. Dropping rebuild of {}", addresses);
+            }
+        }
+    }
+
+    /**
+     * Releases all held requests for rebuilding without waiting for the quiet
+     * window to pass.
+     */
+    void flush() {
+        Set<String> batch;
+        synchronized (this) {
+            batch = new LinkedHashSet<>(held);
+            held.clear();
+            pendingFlush = null;
+        }
+        for (String address : batch) {
+            release(address);
+        }
+    }
+
+    private void release(final String address) {
+        final AddressState state = getState(address);
+        synchronized (state) {
+            if (state.next == null) {
+                return;
+            }
+            state.released = true;
+            if (state.running) {
+                return; //The running worker picks up the released request when done
+            }
+            state.running = true;
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(address, state);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            synchronized (state) {
+                state.running = false;
+            }
+            LOGGER.debug("Scheduler is shut down. Dropping rebuild of {}", address);
+        }
+    }
+
+    private void drain(String address, AddressState state) {
+        while (true) {
+            DeploymentFuture future;
+            synchronized (state) {
+                if (state.next == null || !state.released) {
+                    state.running = false;
+                    return;
+                }
+                future = state.next;
+                state.next = null;
+                state.last = future;
+            }
+            performedRebuilds.incrementAndGet();
+            try {
+                rebuilder.rebuild(address);
+                future.complete();
+            } catch (Throwable ex) {
+                LOGGER.error("Failed to rebuild server {}", address, ex);
+                future.fail(ex);
+            }
+        }
+    }
+
+    private AddressState getState(String address) {
+        AddressState state = states.get(address);
+        if (state == null) {
+            AddressState created = new AddressState();
+            state = states.putIfAbsent(address, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("Server builds did not finish within 30 seconds of shutdown");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            held.clear();
+            pendingFlush = null;
+        }
+        for (AddressState state : states.values()) {
+            synchronized (state) {
+                if (state.next != null) {
+                    state.next.fail(new RejectedExecutionException("Deployer was shut down"));
+                    state.next = null;
+                }
+            }
+        }
+    }
+
+    long getRequestedRebuilds() {
+        return requestedRebuilds.get();
+    }
+
+    long getPerformedRebuilds() {
+        return performedRebuilds.get();
+    }
+
+    long getSavedRebuilds() {
+        return savedRebuilds.get();
+    }
+
+    private static class AddressState {
+
+        private DeploymentFuture next;
+        private DeploymentFuture last;
+        private boolean released;
+        private boolean running;
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The service properties the deployer needs from a service reference, read
+ * once when the service is first seen. Tracked services keep their metadata,
+ * so they are undeployed from the addresses they were deployed to even if
+ * their properties changed in the meantime.
+ *
+ * @author mnn
+ */
+class ReferenceMetadata {
+
+    private static final String[] NO_CLASSES = new String[0];
+    //Service scope properties arrived in OSGi core 6
+    private static final String SERVICE_SCOPE = "service.scope";
+
+    private final long serviceId;
+    private final String[] objectClasses;
+    private final String targetServer;
+    private final boolean compressed;
+    private final boolean etagged;
+    private final double rateLimit;
+    private final int concurrencyLimit;
+    private final double addressRateLimit;
+    private final int addressConcurrencyLimit;
+    private final boolean prototypeScoped;
+    private final String resourceScope;
+    private final int resourcePoolSize;
+
+    ReferenceMetadata(ServiceReference<?> reference) {
+        this.serviceId = toLong(reference.getProperty(org.osgi.framework.Constants.SERVICE_ID));
+        this.objectClasses = toObjectClasses(reference.getProperty(org.osgi.framework.Constants.OBJECTCLASS));
+        this.targetServer = toFirstString(reference.getProperty(Constants.TARGET_SERVER));
+        this.compressed = toBoolean(reference.getProperty(Constants.RESPONSE_COMPRESSION));
+        this.etagged = toBoolean(reference.getProperty(Constants.RESPONSE_ETAG));
+        this.rateLimit = toDouble(reference.getProperty(Constants.RATE_LIMIT));
+        this.concurrencyLimit = (int) toDouble(reference.getProperty(Constants.CONCURRENCY_LIMIT));
+        this.addressRateLimit = toDouble(reference.getProperty(Constants.ADDRESS_RATE_LIMIT));
+        this.addressConcurrencyLimit = (int) toDouble(reference.getProperty(Constants.ADDRESS_CONCURRENCY_LIMIT));
+        this.prototypeScoped = Constants.SCOPE_PROTOTYPE.equals(reference.getProperty(SERVICE_SCOPE));
+        this.resourceScope = toResourceScope(reference, prototypeScoped);
+        this.resourcePoolSize = (int) toDouble(reference.getProperty(Constants.RESOURCE_POOL_SIZE));
+    }
+
+    public long getServiceId() {
+        return serviceId;
+    }
+
+    /**
+     * @return the object classes of the service. The array is shared and must
+     * not be modified.
+     */
+    public String[] getObjectClasses() {
+        return objectClasses;
+    }
+
+    /**
+     * @return the {@link Constants#TARGET_SERVER} property, or null if not set
+     */
+    public String getTargetServer() {
+        return targetServer;
+    }
+
+    /**
+     * @return the {@link Constants#RESPONSE_COMPRESSION} property, false if not
+     * set
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the {@link Constants#RESPONSE_ETAG} property, false if not set
+     */
+    public boolean isETagged() {
+        return etagged;
+    }
+
+    /**
+     * @return the {@link Constants#RATE_LIMIT} property, 0 if not set
+     */
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @return the {@link Constants#CONCURRENCY_LIMIT} property, 0 if not set
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return the {@link Constants#ADDRESS_RATE_LIMIT} property, 0 if not set
+     */
+    public double getAddressRateLimit() {
+        return addressRateLimit;
+    }
+
+    /**
+     * @return the {@link Constants#ADDRESS_CONCURRENCY_LIMIT} property, 0 if
+     * not set
+     */
+    public int getAddressConcurrencyLimit() {
+        return addressConcurrencyLimit;
+    }
+
+    /**
+     * @return true if the service is registered with prototype scope
+     */
+    public boolean isPrototypeScoped() {
+        return prototypeScoped;
+    }
+
+    /**
+     * @return the {@link Constants#RESOURCE_SCOPE} property, or the scope
+     * matching the service scope if not set
+     */
+    public String getResourceScope() {
+        return resourceScope;
+    }
+
+    /**
+     * @return the {@link Constants#RESOURCE_POOL_SIZE} property, 0 if not set
+     */
+    public int getResourcePoolSize() {
+        return resourcePoolSize;
+    }
+
+    /**
+     * Splits a comma separated list of class names, trimming whitespace and
+     * skipping empty entries.
+     */
+    static String[] parseObjectClasses(String objectClassNames) {
+        List<String> result = new ArrayList<>(2);
+        int start = 0;
+        int length = objectClassNames.length();
+        while (start <= length) {
+            int end = objectClassNames.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            String name = objectClassNames.substring(start, end).trim();
+            if (!name.isEmpty()) {
+                result.add(name);
+            }
+            start = end + 1;
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static String[] toObjectClasses(Object property) {
+        if (property instanceof String[]) {
+            return (String[]) property;
+        }
+        if (property instanceof String) {
+            return parseObjectClasses((String) property);
+        }
+        return NO_CLASSES;
+    }
+
+    private static String toResourceScope(ServiceReference<?> reference, boolean prototypeScoped) {
+        String scope = toFirstString(reference.getProperty(Constants.RESOURCE_SCOPE));
+        if (scope != null) {
+            return scope.trim().toLowerCase(Locale.ROOT);
+        }
+        return prototypeScoped ? Constants.SCOPE_PROTOTYPE : Constants.SCOPE_SINGLETON;
+    }
+
+    private static String toFirstString(Object property) {
+        if (property instanceof String) {
+            String value = (String) property;
+            return value.isEmpty() ? null : value;
+        }
+        if (property instanceof String[]) {
+            String[] values = (String[]) property;
+            return values.length > 0 && !values[0].isEmpty() ? values[0] : null;
+        }
+        if (property != null) {
+            return property.toString();
+        }
+        return null;
+    }
+
+    private static boolean toBoolean(Object property) {
+        if (property instanceof Boolean) {
+            return (Boolean) property;
+        }
+        String value = toFirstString(property);
+        return value != null && Boolean.parseBoolean(value.trim());
+    }
+
+    private static double toDouble(Object property) {
+        if (property instanceof Number) {
+            return Math.max(0, ((Number) property).doubleValue());
+        }
+        String value = toFirstString(property);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Double.parseDouble(value.trim()));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static long toLong(Object property) {
+        if (property instanceof Number) {
+            return ((Number) property).longValue();
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceMetadata{" + "serviceId=" + serviceId + ", objectClasses=" + Arrays.toString(objectClasses) + ", targetServer=" + targetServer + '}';
+    }
+
+}
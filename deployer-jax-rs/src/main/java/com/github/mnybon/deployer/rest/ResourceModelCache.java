@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.cxf.Bus;
+import org.apache.cxf.jaxrs.JAXRSServiceFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.ResourceProvider;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.utils.ResourceUtils;
+import org.apache.cxf.message.Message;
+import org.osgi.framework.Bundle;
+
+/**
+ * Caches the resource model CXF builds by reflecting over a Service Endpoint
+ * Interface, so rebuilding an endpoint only reflects over the resources that
+ * were not deployed on it before. Entries are kept per providing bundle and
+ * dropped when that bundle is unresolved, like the {@link SEIClassifier}.
+ * <p>
+ * CXF sets the resource provider of an endpoint on the model itself, so a
+ * model is only shared by the endpoints built for the same address, never
+ * across addresses, and is given the provider of the endpoint being built
+ * every time it is reused. While an endpoint is hot swapped, the endpoint
+ * being replaced serves with the provider of the new one. CXF looks the
+ * provider up on the model again to release an instance, so the model of a
+ * resource not served by a singleton holds a {@link SwappableResourceProvider}
+ * returning every instance to the provider it came from. Releasing the replaced endpoint does not touch the models.
+ *
+ * @author mnn
+ */
+class ResourceModelCache {
+
+    private static final Long NO_BUNDLE = -1L;
+
+    private final ConcurrentMap<Long, ConcurrentMap<ModelKey, ClassResourceInfo>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @return a service factory building the models of the resources from the
+     * cache
+     */
+    JAXRSServiceFactoryBean newServiceFactory(String address, List<RestDeployer.ResourcePath> resources, Bus bus) {
+        Map<Class<?>, RestDeployer.ResourcePath> deployed = new HashMap<>();
+        for (RestDeployer.ResourcePath resource : resources) {
+            deployed.put(resource.getSei(), resource);
+        }
+        return new CachingServiceFactoryBean(address, deployed, bus);
+    }
+
+    /**
+     * @return the model of the class on the address, built if it is not
+     * cached, or null if the class is not a resource
+     */
+    ClassResourceInfo get(String address, Class<?> sei, boolean root, Bundle bundle, Bus bus) {
+        ConcurrentMap<ModelKey, ClassResourceInfo> bundleCache = getBundleCache(bundle);
+        ModelKey key = new ModelKey(address, sei, root);
+        ClassResourceInfo model = bundleCache.get(key);
+        if (model == null) {
+            model = ResourceUtils.createClassResourceInfo(sei, sei, root, false, bus);
+            if (model == null) {
+                return null;
+            }
+            ClassResourceInfo existing = bundleCache.putIfAbsent(key, model);
+            if (existing != null) {
+                model = existing;
+            }
+        }
+        return model;
+    }
+
+    void invalidate(Bundle bundle) {
+        cache.remove(bundle.getBundleId());
+    }
+
+    /**
+     * Drops the models of the classes no longer deployed on the address. The
+     * models hold on to the resource providers they were last built with.
+     */
+    void retain(String address, Set<Class<?>> deployed) {
+        for (ConcurrentMap<ModelKey, ClassResourceInfo> bundleCache : cache.values()) {
+            for (ModelKey key : bundleCache.keySet()) {
+                if (key.address.equals(address) && !deployed.contains(key.sei)) {
+                    bundleCache.remove(key);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    private ConcurrentMap<ModelKey, ClassResourceInfo> getBundleCache(Bundle bundle) {
+        Long key = bundle == null ? NO_BUNDLE : bundle.getBundleId();
+        ConcurrentMap<ModelKey, ClassResourceInfo> bundleCache = cache.get(key);
+        if (bundleCache == null) {
+            ConcurrentMap<ModelKey, ClassResourceInfo> created = new ConcurrentHashMap<>();
+            bundleCache = cache.putIfAbsent(key, created);
+            if (bundleCache == null) {
+                bundleCache = created;
+            }
+        }
+        return bundleCache;
+    }
+
+    private class CachingServiceFactoryBean extends JAXRSServiceFactoryBean {
+
+        private final String address;
+        private final Map<Class<?>, RestDeployer.ResourcePath> resources;
+        private final Bus bus;
+
+        CachingServiceFactoryBean(String address, Map<Class<?>, RestDeployer.ResourcePath> resources, Bus bus) {
+            this.address = address;
+            this.resources = resources;
+            this.bus = bus;
+        }
+
+        @Override
+        protected ClassResourceInfo createResourceInfo(Class<?> cls, boolean isRoot) {
+            RestDeployer.ResourcePath resource = resources.get(cls);
+            Bundle bundle = resource == null || resource.getReference() == null ? null : resource.getReference().getBundle();
+            ClassResourceInfo model = get(address, cls, isRoot, bundle, bus);
+            if (model != null) {
+                //CXF keeps a provider already set on the model. Replacing it here also leaves no
+                //moment without a provider for the endpoint being hot swapped
+                setResourceProvider(model, resource == null ? null : resource.getProvider());
+                classResourceInfos.add(model);
+            }
+            return model;
+        }
+    }
+
+    private static void setResourceProvider(ClassResourceInfo model, ResourceProvider provider) {
+        ResourceProvider current = model.getResourceProvider();
+        if (provider == null || provider.isSingleton()) {
+            //CXF tells singletons by their type, and needs no instance of them back
+            model.setResourceProvider(provider);
+        } else if (current instanceof SwappableResourceProvider) {
+            ((SwappableResourceProvider) current).target = provider;
+        } else {
+            model.setResourceProvider(new SwappableResourceProvider(provider));
+        }
+    }
+
+    /**
+     * The provider of a cached model of a resource not served by a
+     * singleton, serving from the provider of the endpoint last built with
+     * the model. An instance handed out for a request is returned to the
+     * provider it came from, even if the model has been given another provider
+     * in the meantime.
+     */
+    static class SwappableResourceProvider implements ResourceProvider {
+
+        private static final String ORIGIN = SwappableResourceProvider.class.getName() + ".origin";
+
+        private volatile ResourceProvider target;
+
+        SwappableResourceProvider(ResourceProvider target) {
+            this.target = target;
+        }
+
+        ResourceProvider getTarget() {
+            return target;
+        }
+
+        @Override
+        public Object getInstance(Message m) {
+            ResourceProvider provider = target;
+            Object instance = provider.getInstance(m);
+            if (m != null && m.getExchange() != null) {
+                m.getExchange().put(ORIGIN, provider);
+            }
+            return instance;
+        }
+
+        @Override
+        public void releaseInstance(Message m, Object o) {
+            ResourceProvider provider = null;
+            if (m != null && m.getExchange() != null) {
+                provider = (ResourceProvider) m.getExchange().remove(ORIGIN);
+            }
+            (provider == null ? target : provider).releaseInstance(m, o);
+        }
+
+        @Override
+        public Class<?> getResourceClass() {
+            return target.getResourceClass();
+        }
+
+        @Override
+        public boolean isSingleton() {
+            return target.isSingleton();
+        }
+    }
+
+    private static class ModelKey {
+
+        private final String address;
+        private final Class<?> sei;
+        private final boolean root;
+
+        ModelKey(String address, Class<?> sei, boolean root) {
+            this.address = address;
+            this.sei = sei;
+            this.root = root;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * address.hashCode() + sei.hashCode()) + (root ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ModelKey)) {
+                return false;
+            }
+            ModelKey other = (ModelKey) obj;
+            return root == other.root && sei == other.sei && address.equals(other.address);
+        }
+    }
+
+}
@@ -15,10 +15,27 @@
  */
 package com.github.mnybon.deployer.rest;
 
+import com.github.mnybon.deployer.rest.admission.AdmissionInInterceptor;
+import com.github.mnybon.deployer.rest.admission.AdmissionLimiter;
+import com.github.mnybon.deployer.rest.admission.AdmissionOutInterceptor;
+import com.github.mnybon.deployer.rest.admission.AdmissionRegistry;
+import com.github.mnybon.deployer.rest.annotation.AdmissionLimit;
 import com.github.mnybon.deployer.rest.annotation.TargetServer;
+import com.github.mnybon.deployer.rest.cache.ResponseCache;
+import com.github.mnybon.deployer.rest.cache.ResponseCacheFilter;
+import com.github.mnybon.deployer.rest.encoding.ResponseEncodingInterceptor;
+import com.github.mnybon.deployer.rest.encoding.ResponseEncodingPolicy;
+import com.github.mnybon.deployer.rest.metrics.MetricsInInterceptor;
+import com.github.mnybon.deployer.rest.metrics.MetricsOutInterceptor;
+import com.github.mnybon.deployer.rest.metrics.MetricsRegistry;
+import com.github.mnybon.deployer.rest.service.DeploymentStatistics;
 import com.github.mnybon.deployer.rest.service.RestServiceDeployment;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,14 +43,31 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.logging.Level;
-import javax.ws.rs.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
 import org.apache.cxf.binding.BindingFactoryManager;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.endpoint.EndpointImpl;
 import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.endpoint.ServerLifeCycleManager;
+import org.apache.cxf.endpoint.ServerRegistry;
 import org.apache.cxf.jaxrs.JAXRSBindingFactory;
 import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.ResourceProvider;
 import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -49,224 +83,1025 @@ import org.slf4j.LoggerFactory;
  * @author mnn
  */
 @Component(immediate = true)
-public class RestDeployer implements ServiceListener, RestServiceDeployment {
+public class RestDeployer implements ServiceListener, RestServiceDeployment, DeploymentStatistics {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RestDeployer.class);
 
-    private final Map<String, ServerPath> servers = Collections.synchronizedMap(new HashMap<String, ServerPath>());
+    private final ConcurrentMap<String, ServerPath> servers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ServiceReference<?>, ReferenceMetadata> trackedReferences = new ConcurrentHashMap<>();
     private BundleContext context;
+    private DeployerConfiguration configuration = new DeployerConfiguration(null);
+    private RebuildScheduler scheduler;
+    private volatile long startupScanMillis;
+    private volatile int startupScanAddresses;
+    private final SEIClassifier classifier = new SEIClassifier();
+    private final ResourceModelCache models = new ResourceModelCache();
+    private final MetricsInInterceptor metricsInInterceptor = new MetricsInInterceptor();
+    private volatile MetricsRegistry metrics;
+    private volatile ResponseCache responseCache;
+    private final AdmissionOutInterceptor admissionOutInterceptor = new AdmissionOutInterceptor();
+    private volatile AdmissionRegistry admission;
+    private ProviderTracker providers;
+    private ScheduledExecutorService evictor;
+    private volatile Bus bus;
+    private volatile WarmStartPlan warmStart;
+    private volatile ScheduledExecutorService warmStartTimer;
+    private final BundleListener bundleListener = new BundleListener() {
+        @Override
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.UNRESOLVED || event.getType() == BundleEvent.UNINSTALLED) {
+                classifier.invalidate(event.getBundle());
+                models.invalidate(event.getBundle());
+            }
+        }
+    };
 
     @Activate
-    public void activate(BundleContext context) throws InvalidSyntaxException, ClassNotFoundException {
+    public void activate(BundleContext context, Map<String, ?> properties) throws InvalidSyntaxException, ClassNotFoundException {
         this.context = context;
+        this.configuration = new DeployerConfiguration(properties);
+        LOGGER.info("Activating with {}", configuration);
+        this.bus = createBus();
+        this.scheduler = createScheduler();
+        if (configuration.isMetricsEnabled()) {
+            MetricsRegistry registry = new MetricsRegistry();
+            registry.open(context);
+            this.metrics = registry;
+        }
+        AdmissionRegistry admissionRegistry = new AdmissionRegistry();
+        admissionRegistry.open(context);
+        this.admission = admissionRegistry;
+        if (configuration.getCacheMaxBytes() > 0) {
+            ResponseCache cache = new ResponseCache(configuration.getCacheMaxBytes(), configuration.getCacheMaxEntries());
+            cache.open(context);
+            this.responseCache = cache;
+        }
+        if (configuration.isProvidersDiscovery()) {
+            providers = new ProviderTracker(context, new ProviderTracker.Listener() {
+                @Override
+                public void providersChanged(Collection<ProviderTracker.TrackedProvider> changed) {
+                    rebuildTargetedAddresses(changed);
+                }
+            });
+            providers.open();
+        }
+        final long idleTimeout = configuration.getLazyIdleTimeout();
+        if (idleTimeout > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new RebuildScheduler.NamedThreadFactory("rest-deployer-evict"));
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdleEndpoints(TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+                }
+            }, Math.max(1, idleTimeout / 2), Math.max(1, idleTimeout / 2), TimeUnit.MILLISECONDS);
+        }
+        context.addBundleListener(bundleListener);
+        if (configuration.isSnapshotEnabled()) {
+            applySnapshot(readSnapshot());
+        }
+        String filter = configuration.getDiscoveryFilter();
+        if (filter != null) {
+            LOGGER.info("Discovering services matching {}", filter);
+        }
+        context.addServiceListener(this, filter);
         inspectRunningServicesForSEI();
-        context.addServiceListener(this);
     }
 
     @Deactivate
     public void deactivate(BundleContext context) {
         context.removeServiceListener(this);
+        context.removeBundleListener(bundleListener);
+        if (providers != null) {
+            providers.close();
+            providers = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        if (warmStartTimer != null) {
+            warmStartTimer.shutdownNow();
+            warmStartTimer = null;
+        }
+        warmStart = null;
+        if (configuration.isSnapshotEnabled()) {
+            writeSnapshot();
+        }
+        LOGGER.info("Deactivating. {} of {} requested rebuilds were coalesced", getSavedRebuilds(), getRequestedRebuilds());
         for (ServerPath service : servers.values()) {
-            service.getServer().stop();
+            if (service.getLazy() != null) {
+                service.getLazy().close();
+            } else if (service.getServer() != null) {
+                service.getServer().destroy();
+            }
+            synchronized (service) {
+                for (ResourcePath resource : service.getResources()) {
+                    resource.close();
+                }
+            }
         }
         servers.clear();
+        if (configuration.isDedicatedBus()) {
+            bus.shutdown(true);
+        }
+        trackedReferences.clear();
+        classifier.clear();
+        models.clear();
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+        if (responseCache != null) {
+            responseCache.close();
+            responseCache = null;
+        }
+        if (admission != null) {
+            admission.close();
+            admission = null;
+        }
         this.context = null;
     }
 
     @Override
     public void serviceChanged(ServiceEvent event) {
-        if (event.getType() == ServiceEvent.REGISTERED) {
-            LOGGER.debug("Caught registered event on " + getObjectClass(event.getServiceReference()) + " and ServiceID " + getServiceID(event.getServiceReference()));
+        ServiceReference<?> reference = event.getServiceReference();
+        int type = event.getType();
+        if (type == ServiceEvent.REGISTERED || (type == ServiceEvent.MODIFIED
+                && configuration.getDiscoveryFilter() != null && !isTracked(reference))) {
+            //A service modified to match the discovery filter is treated as newly registered
+            ReferenceMetadata metadata = new ReferenceMetadata(reference);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Caught {} event on {} and ServiceID {}",
+                        type == ServiceEvent.REGISTERED ? "registered" : "modified", metadata.getObjectClasses(), metadata.getServiceId());
+            }
             try {
-                deployIfSEI(event.getServiceReference());
+                deployIfSEI(reference, metadata);
             } catch (ClassNotFoundException ex) {
-                LOGGER.warn("Failed to deploy " + getObjectClass(event.getServiceReference()) + " from service ID " + getServiceID(event.getServiceReference()), ex);
+                LOGGER.warn("Failed to deploy {} from service ID {}", Arrays.toString(metadata.getObjectClasses()), metadata.getServiceId(), ex);
+            }
+        } else if (type == ServiceEvent.UNREGISTERING || type == ServiceEvent.MODIFIED_ENDMATCH) {
+            ReferenceMetadata metadata = trackedReferences.get(reference);
+            if (metadata == null) {
+                return; //Not a tracked service
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Deregistering event on {} and ServiceID {}", metadata.getObjectClasses(), metadata.getServiceId());
             }
-        } else if (event.getType() == ServiceEvent.UNREGISTERING) {
             try {
-                if (!isSEI(getObjectClass(event.getServiceReference()))) {
-                    return; //Not a tracked service
-                }
-                LOGGER.debug("Deregistering event on " + getObjectClass(event.getServiceReference()) + " and ServiceID " + getServiceID(event.getServiceReference()));
-
-                deregisterService(event.getServiceReference());
-                context.ungetService(event.getServiceReference());
+                deregisterService(reference);
             } catch (ClassNotFoundException ex) {
-                LOGGER.warn("Caught deregistering event on " + getObjectClass(event.getServiceReference()) + " from service ID " + getServiceID(event.getServiceReference()), ex);
+                LOGGER.warn("Caught deregistering event on {} from service ID {}", Arrays.toString(metadata.getObjectClasses()), metadata.getServiceId(), ex);
+            } finally {
+                context.ungetService(reference);
             }
-
         }
     }
 
     @Override
-    public synchronized void rebuildClosedServers() {
+    public Future<Void> rebuildClosedServers() {
         LOGGER.info("Restarting stopped servers");
-        for (String path : servers.keySet()) {
-            ServerPath serverPath = servers.get(path);
-            if (serverPath.getServer() == null || !serverPath.getServer().isStarted()) {
-                LOGGER.info("Restarting stopped server: " + servers.get(path));
-                rebuildServer(serverPath);
+        Set<String> pathsToRebuild = new HashSet<>();
+        for (ServerPath serverPath : new ArrayList<>(servers.values())) {
+            if (serverPath.getLazy() == null && (serverPath.getServer() == null || !serverPath.getServer().isStarted())) {
+                LOGGER.info("Restarting stopped server: {}", serverPath.getPath());
+                pathsToRebuild.add(serverPath.getPath());
 
             }
         }
+        return scheduler.scheduleNow(pathsToRebuild);
     }
 
     @Override
-    public synchronized void rebuildServers(Integer port) {
-        LOGGER.info("Restarting servers for port: "+port);
-        for (String path : servers.keySet()) {
-            ServerPath serverPath = servers.get(path);
-            
+    public Future<Void> rebuildServers(Integer port) {
+        LOGGER.info("Restarting servers for port: {}", port);
+        Set<String> pathsToRebuild = new HashSet<>();
+        for (ServerPath serverPath : new ArrayList<>(servers.values())) {
+
             String url = serverPath.getPath();
             int portIndex = url.lastIndexOf(":");
             int portEndIndex = url.indexOf("/", portIndex);
-            LOGGER.info("Serverpath: "+serverPath+" "+portIndex+" "+portEndIndex);
             Integer serverPort = null;
 
             if(portIndex >= 0){
                 String portString = url.substring(portIndex+1, portEndIndex < 0 ? url.length() : portEndIndex);
-                LOGGER.info("Serverport "+portString);
                 serverPort = Integer.parseInt(portString);
             }
-            LOGGER.info("Serverport: "+serverPort);
             if (serverPort != null && serverPort.equals(port)) {
-                LOGGER.info("Restarting server: " + servers.get(path));
-                rebuildServer(serverPath);
+                LOGGER.info("Restarting server: {}", url);
+                pathsToRebuild.add(url);
             }
         }
+        return scheduler.scheduleNow(pathsToRebuild);
+    }
+
+    @Override
+    public Future<Void> getDeployment(String address) {
+        return scheduler.getDeployment(address);
     }
 
-    public synchronized void inspectRunningServicesForSEI() throws InvalidSyntaxException {
+    /**
+     * Deploys the services already running when the deployer starts. All references are first
+     * classified and registered on their addresses in parallel, after which every address is
+     * built exactly once, also in parallel. Returns when the builds have finished.
+     */
+    public void inspectRunningServicesForSEI() throws InvalidSyntaxException {
+        long start = System.nanoTime();
         String toSearch = null;
-        ServiceReference[] allRefs = context.getServiceReferences(toSearch, null);
-        for (ServiceReference<Object> ref : allRefs) {
-            try {
-                deployIfSEI(ref);
-            } catch (ClassNotFoundException ex) {
-                LOGGER.warn("Failed to import running service. Could not resolve classes " + getObjectClasses(ref) + " from Reference " + ref, ex);
+        ServiceReference<?>[] allRefs = context.getServiceReferences(toSearch, configuration.getDiscoveryFilter());
+        if (allRefs == null) {
+            allRefs = new ServiceReference<?>[0];
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, configuration.getRebuildThreads()));
+        Set<String> addresses;
+        try {
+            addresses = pool.invoke(new RegisterReferencesTask(allRefs, 0, allRefs.length));
+        } finally {
+            pool.shutdown();
+        }
+        long classified = System.nanoTime();
+        try {
+            scheduleBuilds(addresses, true).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOGGER.error("Failed to build one or more servers during startup", ex.getCause());
+        }
+        startupScanAddresses = addresses.size();
+        startupScanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Inspected {} running services in {} ms and built {} servers in {} ms total",
+                    allRefs.length, TimeUnit.NANOSECONDS.toMillis(classified - start), addresses.size(), startupScanMillis);
+        }
+    }
+
+    /**
+     * Schedules builds of addresses that got new resources. During a warm start, the builds of
+     * addresses still missing resources they had before the restart are requested, but only run
+     * once the resources have arrived or the warm-up time has passed.
+     */
+    private Future<Void> scheduleBuilds(Set<String> addresses, boolean immediate) {
+        WarmStartPlan plan = warmStart;
+        Set<String> ready = addresses;
+        if (plan != null) {
+            ready = new HashSet<>();
+            Set<String> held = new HashSet<>();
+            //Held under the plan lock, so expiring the plan cannot miss a build requested here
+            synchronized (plan) {
+                for (String address : addresses) {
+                    if (plan.isReady(address, getResourceKeys(address))) {
+                        ready.add(address);
+                    } else {
+                        held.add(address);
+                    }
+                }
+                if (!held.isEmpty()) {
+                    LOGGER.debug("Holding back {} until their resources from before the restart have registered", held);
+                    scheduler.park(held);
+                }
+            }
+            if (plan.isComplete()) {
+                endWarmStart(plan);
+            }
+        }
+        return immediate ? scheduler.scheduleNow(ready) : scheduler.schedule(ready);
+    }
+
+    private Set<String> getResourceKeys(String address) {
+        Set<String> keys = new HashSet<>();
+        ServerPath path = servers.get(address);
+        if (path != null) {
+            synchronized (path) {
+                for (ResourcePath resource : path.getResources()) {
+                    keys.add(DeploymentSnapshot.resourceKey(resource));
+                }
             }
         }
+        return keys;
+    }
 
+    /**
+     * Ends the warm start, building the addresses still held back with the resources they have.
+     */
+    private void endWarmStart(WarmStartPlan plan) {
+        Set<String> remaining;
+        synchronized (plan) {
+            if (warmStart != plan) {
+                return;
+            }
+            warmStart = null;
+            remaining = plan.expire();
+        }
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Warm start ended with {} addresses still missing resources. Building them now", remaining.size());
+            scheduler.scheduleNow(remaining);
+        } else {
+            LOGGER.info("Warm start complete. Every address from the snapshot has been built");
+        }
+        ScheduledExecutorService timer = warmStartTimer;
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    /**
+     * @return the snapshot saved on the last deactivation, or null if there is none
+     */
+    private DeploymentSnapshot readSnapshot() {
+        File file = context.getDataFile(DeploymentSnapshot.FILE_NAME);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            DeploymentSnapshot snapshot = DeploymentSnapshot.read(file);
+            LOGGER.info("Warm starting from {}", snapshot);
+            return snapshot;
+        } catch (IOException ex) {
+            LOGGER.warn("Ignoring unreadable snapshot {}", file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Preloads the classifications of the unchanged bundles, and holds back the builds of the
+     * addresses in the snapshot until their resources have registered.
+     */
+    private void applySnapshot(DeploymentSnapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        Bundle[] bundles = context.getBundles();
+        if (bundles != null) {
+            for (Bundle bundle : bundles) {
+                classifier.preload(bundle, snapshot.getPlainClasses(bundle));
+            }
+        }
+        long warmup = configuration.getSnapshotWarmup();
+        if (snapshot.getAddresses().isEmpty() || warmup <= 0) {
+            return;
+        }
+        final WarmStartPlan plan = new WarmStartPlan(snapshot.getAddresses());
+        warmStart = plan;
+        warmStartTimer = Executors.newSingleThreadScheduledExecutor(new RebuildScheduler.NamedThreadFactory("rest-deployer-warmstart"));
+        warmStartTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                endWarmStart(plan);
+            }
+        }, warmup, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        File file = context.getDataFile(DeploymentSnapshot.FILE_NAME);
+        if (file == null) {
+            return;
+        }
+        Map<String, Set<String>> addresses = new HashMap<>();
+        for (ServerPath path : servers.values()) {
+            Set<String> keys = getResourceKeys(path.getPath());
+            if (!keys.isEmpty()) {
+                addresses.put(path.getPath(), keys);
+            }
+        }
+        Map<String, Set<String>> plainClasses = new HashMap<>();
+        for (Map.Entry<Long, Set<String>> entry : classifier.getPlainClasses().entrySet()) {
+            Bundle bundle = context.getBundle(entry.getKey());
+            if (bundle != null) {
+                plainClasses.put(DeploymentSnapshot.bundleKey(bundle), entry.getValue());
+            }
+        }
+        DeploymentSnapshot snapshot = new DeploymentSnapshot(addresses, plainClasses);
+        try {
+            snapshot.write(file);
+            LOGGER.info("Saved {}", snapshot);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to save the deployment snapshot to {}", file, ex);
+        }
+    }
+
+    @Override
+    public long getStartupScanMillis() {
+        return startupScanMillis;
+    }
+
+    @Override
+    public int getStartupScanAddresses() {
+        return startupScanAddresses;
+    }
+
+    /**
+     * Registers a range of service references on their addresses without building any servers.
+     * Splits the range until it is small enough to handle on one thread.
+     */
+    private class RegisterReferencesTask extends RecursiveTask<Set<String>> {
+
+        private static final int THRESHOLD = 64;
+
+        private final ServiceReference<?>[] references;
+        private final int from;
+        private final int to;
+
+        RegisterReferencesTask(ServiceReference<?>[] references, int from, int to) {
+            this.references = references;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Set<String> compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                RegisterReferencesTask left = new RegisterReferencesTask(references, from, middle);
+                left.fork();
+                Set<String> addresses = new RegisterReferencesTask(references, middle, to).compute();
+                addresses.addAll(left.join());
+                return addresses;
+            }
+            Set<String> addresses = new HashSet<>();
+            for (int i = from; i < to; i++) {
+                try {
+                    addresses.addAll(registerIfSEI(references[i]));
+                } catch (ClassNotFoundException ex) {
+                    LOGGER.warn("Failed to import running service. Could not resolve classes {} from Reference {}", getObjectClasses(references[i]), references[i], ex);
+                }
+            }
+            return addresses;
+        }
     }
 
     protected boolean isSEI(String objectClassNames) throws ClassNotFoundException {
-        Set<String> objectClasses = getObjectClasses(objectClassNames);
+        for (String objectClassName : ReferenceMetadata.parseObjectClasses(objectClassNames)) {
+            if (classifier.classify(objectClassName, null).isSEI()) {
+                return true;
+            }
+        }
+        return false;
 
-        for (String objectClassName : objectClasses) {
-            Class<?> classToInspect = Class.forName(objectClassName);
-            Path pathAnnotation = classToInspect.getAnnotation(Path.class);
-            if (pathAnnotation != null) {
+    }
+
+    protected boolean isSEI(ServiceReference<?> reference) throws ClassNotFoundException {
+        for (String objectClassName : new ReferenceMetadata(reference).getObjectClasses()) {
+            if (classifier.classify(objectClassName, reference.getBundle()).isSEI()) {
                 return true;
             }
         }
         return false;
+    }
 
+    protected void deployIfSEI(ServiceReference<?> reference) throws ClassNotFoundException {
+        deployIfSEI(reference, new ReferenceMetadata(reference));
     }
 
-    protected synchronized void deployIfSEI(ServiceReference<?> reference) throws ClassNotFoundException {
-        LOGGER.info("Considering using " + reference + " as Service Interface");
-        Object service = null;
-        String addressProperty = getAddressByProperty(reference);
+    private void deployIfSEI(ServiceReference<?> reference, ReferenceMetadata metadata) throws ClassNotFoundException {
+        Set<String> pathsToRebuild = registerIfSEI(reference, metadata);
+        if (!pathsToRebuild.isEmpty()) {
+            scheduleBuilds(pathsToRebuild, false);
+        }
+    }
 
-        Set<String> pathsToRebuild = new HashSet<>();
+    /**
+     * Registers the resources of the service on their addresses without rebuilding them.
+     *
+     * @return the addresses that need to be rebuilt
+     */
+    protected Set<String> registerIfSEI(ServiceReference<?> reference) throws ClassNotFoundException {
+        return registerIfSEI(reference, new ReferenceMetadata(reference));
+    }
 
-        Set<String> objectClasses = getObjectClasses(reference);
-        for (String objectClass : objectClasses) {
-            LOGGER.info("Inspecting class: " + objectClass);
-            if (isSEI(objectClass)) {
+    private Set<String> registerIfSEI(ServiceReference<?> reference, ReferenceMetadata metadata) throws ClassNotFoundException {
+        if (trackedReferences.putIfAbsent(reference, metadata) != null) {
+            return Collections.emptySet(); //Already seen by both the listener and the startup scan
+        }
+        Set<String> pathsToRebuild = Collections.emptySet();
+        try {
+            pathsToRebuild = registerResources(reference, metadata);
+        } finally {
+            if (pathsToRebuild.isEmpty()) {
+                trackedReferences.remove(reference);
+            }
+        }
+        return pathsToRebuild;
+    }
+
+    private Set<String> registerResources(ServiceReference<?> reference, ReferenceMetadata metadata) throws ClassNotFoundException {
+        Set<String> pathsToRebuild = Collections.emptySet();
+        Object service = null;
+        for (String objectClass : metadata.getObjectClasses()) {
+            SEIClassifier.Classification classification = classifier.classify(objectClass, reference.getBundle());
+            LOGGER.trace("Classified {} from {}: {}", objectClass, reference, classification);
+            if (classification.isSEI()) {
                 if (service == null) {
                     service = context.getService(reference);
+                    if (service == null) {
+                        return pathsToRebuild; //Unregistered in the meantime
+                    }
                 }
-                Class<?> classToInspect = Class.forName(objectClass);
-                TargetServer addressAnnotation = classToInspect.getAnnotation(TargetServer.class);
-                Path pathAnnotation = classToInspect.getAnnotation(Path.class);
-                String seiAddress = getAddress(addressProperty, addressAnnotation);
-
-                ServerPath path = servers.get(seiAddress);
-                if (path == null) {
-                    path = new ServerPath(seiAddress);
-                    servers.put(seiAddress, path);
-                }
+                String seiAddress = getAddress(metadata.getTargetServer(), classification.getTargetServer());
 
-                ResourcePath resourcepath = new ResourcePath(pathAnnotation.value(), classToInspect, service);
-                if (path.getResources().contains(resourcepath)) {
-                    LOGGER.error("Attempted to register a second service on " + seiAddress + " with relative path " + resourcepath.getPath());
-                    continue;
+                ResourcePath resourcepath = new ResourcePath(classification.getPath(), classification.getType(), service, reference,
+                        newResourceProvider(reference, metadata, service));
+                if (addResource(seiAddress, resourcepath)) {
+                    if (pathsToRebuild.isEmpty()) {
+                        pathsToRebuild = new HashSet<>();
+                    }
+                    pathsToRebuild.add(seiAddress);
+                } else {
+                    resourcepath.close();
                 }
-                path.getResources().add(resourcepath);
-                pathsToRebuild.add(path.getPath());
             }
 
         }
-        rebuildServers(pathsToRebuild);
+        if (service != null && pathsToRebuild.isEmpty()) {
+            context.ungetService(reference); //Nothing deployed, so the service is not tracked
+        }
+        return pathsToRebuild;
 
     }
 
-    public synchronized void deregisterService(ServiceReference<?> ref) throws ClassNotFoundException {
+    /**
+     * Provides the instances serving the requests to a resource, in the scope
+     * chosen by the service. Singletons are served by the service object of
+     * the deployer, which is also used when the framework cannot hand out
+     * prototype instances.
+     */
+    private ResourceProvider newResourceProvider(ServiceReference<?> reference, ReferenceMetadata metadata, Object service) {
+        String scope = metadata.getResourceScope();
+        if (Constants.SCOPE_SINGLETON.equals(scope)) {
+            return new SingletonResourceProvider(service);
+        }
+        if (!Constants.SCOPE_PROTOTYPE.equals(scope) && !Constants.SCOPE_POOLED.equals(scope)) {
+            LOGGER.warn("Unknown {} {} of service ID {}. Serving it as a singleton", Constants.RESOURCE_SCOPE, scope, metadata.getServiceId());
+            return new SingletonResourceProvider(service);
+        }
+        if (!metadata.isPrototypeScoped()) {
+            LOGGER.warn("Service ID {} asks for {} {} but is not registered with prototype scope. Serving it as a singleton",
+                    metadata.getServiceId(), Constants.RESOURCE_SCOPE, scope);
+            return new SingletonResourceProvider(service);
+        }
+        int poolSize = 0;
+        if (Constants.SCOPE_POOLED.equals(scope)) {
+            poolSize = metadata.getResourcePoolSize() > 0 ? metadata.getResourcePoolSize() : ServiceObjectsResourceProvider.DEFAULT_POOL_SIZE;
+        }
+        ResourceProvider provider = ServiceObjectsResourceProvider.create(context, reference, service.getClass(), poolSize);
+        if (provider == null) {
+            LOGGER.warn("The framework cannot hand out prototype instances of service ID {}. Serving it as a singleton", metadata.getServiceId());
+            return new SingletonResourceProvider(service);
+        }
+        return provider;
+    }
+
+    public void deregisterService(ServiceReference<?> ref) throws ClassNotFoundException {
         Set<String> pathsToRebuild = new HashSet<>();
+        ReferenceMetadata metadata = trackedReferences.remove(ref);
+        if (metadata == null) {
+            metadata = new ReferenceMetadata(ref);
+        }
 
-        for (String objectClass : getObjectClasses(ref)) {
-            if (isSEI(objectClass)) {
-                Class<?> classToInspect = Class.forName(objectClass);
-                TargetServer addressAnnotation = classToInspect.getAnnotation(TargetServer.class);
-                Path pathAnnotation = classToInspect.getAnnotation(Path.class);
-                String pathString = getAddress(getAddressByProperty(ref), addressAnnotation);
-                ServerPath path = servers.get(pathString);
-                List<ResourcePath> resourcePaths = path.getResources();
-                for (int i = resourcePaths.size()-1 ; i>=0 ; i--) {
-                    if (resourcePaths.get(i).getPath().equals(pathAnnotation.value())) {
-                        resourcePaths.remove(i);
-                        pathsToRebuild.add(pathString);
+        for (String objectClass : metadata.getObjectClasses()) {
+            SEIClassifier.Classification classification = classifier.classify(objectClass, ref.getBundle());
+            if (classification.isSEI()) {
+                String pathString = getAddress(metadata.getTargetServer(), classification.getTargetServer());
+                if (removeResource(pathString, classification.getPath(), ref)) {
+                    pathsToRebuild.add(pathString);
+                    ResponseCache cache = responseCache;
+                    if (cache != null) {
+                        cache.invalidate(pathString, classification.getType());
                     }
                 }
             }
 
         }
-        rebuildServers(pathsToRebuild);
+        scheduler.schedule(pathsToRebuild);
     }
 
-    private void rebuildServers(Set<String> pathsToBuild) {
-        for (String path : pathsToBuild) {
-            ServerPath serverPath = servers.get(path);
-            if (serverPath == null) {
-                LOGGER.error("Could not find serverPath for this server. This is an unexpected system state. Please notify the project owner: " + path);
-                continue;
+    /**
+     * Adds the resource to the server on the address, creating the server entry if needed.
+     *
+     * @return true if the resource was added, false if another resource already uses its path
+     */
+    private boolean addResource(String address, ResourcePath resource) {
+        while (true) {
+            ServerPath path = servers.get(address);
+            if (path == null) {
+                ServerPath created = new ServerPath(address);
+                path = servers.putIfAbsent(address, created);
+                if (path == null) {
+                    path = created;
+                }
+            }
+            synchronized (path) {
+                if (path.isRetired()) {
+                    continue; //Removed concurrently by a rebuild. Retry with a fresh entry
+                }
+                if (path.getResources().contains(resource)) {
+                    LOGGER.error("Attempted to register a second service on {} with relative path {}", address, resource.getPath());
+                    return false;
+                }
+                path.getResources().add(resource);
+                return true;
             }
-            rebuildServer(serverPath);
         }
     }
 
-    private void rebuildServer(ServerPath path) {
-        LOGGER.info("Rebuilding "+path);
-        if (path.getServer() != null && path.getServer().isStarted()) {
-            path.getServer().stop();
+    /**
+     * Removes the resource on the relative path of the address, if it was registered by the
+     * given service reference.
+     *
+     * @return true if a resource was removed
+     */
+    private boolean removeResource(String address, String relativePath, ServiceReference<?> ref) {
+        ServerPath path = servers.get(address);
+        if (path == null) {
+            return false;
         }
+        boolean removed = false;
+        synchronized (path) {
+            List<ResourcePath> resourcePaths = path.getResources();
+            for (int i = resourcePaths.size() - 1; i >= 0; i--) {
+                ResourcePath resource = resourcePaths.get(i);
+                if (resource.getPath().equals(relativePath) && ref.equals(resource.getReference())) {
+                    resourcePaths.remove(i);
+                    resource.close();
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if a resource from the service reference is registered on any address
+     */
+    private boolean isTracked(ServiceReference<?> ref) {
+        return trackedReferences.containsKey(ref);
+    }
+
+    /**
+     * @return the addresses that currently have resources registered
+     */
+    Set<String> getAddresses() {
+        return new HashSet<>(servers.keySet());
+    }
+
+    private RebuildScheduler createScheduler() {
+        return new RebuildScheduler(new RebuildScheduler.Rebuilder() {
+            @Override
+            public void rebuild(String address) {
+                rebuildServer(address);
+            }
+        }, configuration.getRebuildThreads(), configuration.getRebuildQuietWindow(), configuration.getRebuildMaxDelay());
+    }
+
+    /**
+     * @return the request metrics of the deployed resources, or null if metrics are disabled
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public long getRequestedRebuilds() {
+        return scheduler.getRequestedRebuilds();
+    }
 
-        if (path.getResources().isEmpty()) {
-            servers.remove(path.getPath());
+    @Override
+    public long getPerformedRebuilds() {
+        return scheduler.getPerformedRebuilds();
+    }
+
+    @Override
+    public long getSavedRebuilds() {
+        return scheduler.getSavedRebuilds();
+    }
+
+    /**
+     * Rebuilds the server on the address from the resources registered on it. Called on
+     * the scheduler's worker threads, which never rebuild the same address concurrently.
+     */
+    void rebuildServer(String address) {
+        ServerPath path;
+        List<ResourcePath> resources;
+        path = servers.get(address);
+        if (path == null) {
+            LOGGER.debug("Server {} was removed before it could be rebuilt", address);
             return;
         }
+        synchronized (path) {
+            resources = new ArrayList<>(path.getResources());
+        }
+        LOGGER.info("Rebuilding {} with {} resources", address, resources.size());
+        LazyEndpoint lazy = path.getLazy();
+        if (lazy != null && resources.isEmpty()) {
+            lazy.close();
+            path.setLazy(null);
+        } else if (lazy != null) {
+            lazy.rebuild();
+            return;
+        } else if (!resources.isEmpty() && path.getServer() == null && configuration.isLazy(address)) {
+            try {
+                path.setLazy(LazyEndpoint.open(bus, address, newMaterializer(path)));
+                return;
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Failed to reserve {}. Building it now", address, ex);
+            }
+        }
+        Server oldServer = path.getServer();
+        boolean swap = configuration.isHotSwap() && !resources.isEmpty()
+                && oldServer != null && oldServer.isStarted();
+        if (!swap && oldServer != null && oldServer.isStarted()) {
+            oldServer.destroy();
+        }
 
-        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean();
-        sf.setResourceClasses(getResourceClasses(path));
-        for (ResourcePath resource : path.getResources()) {
-            sf.setResourceProvider(resource.getSei(), new SingletonResourceProvider(resource.getResource()));
+        if (resources.isEmpty()) {
+            path.setServer(null);
+            synchronized (path) {
+                if (path.getResources().isEmpty()) {
+                    path.retire();
+                    servers.remove(address, path);
+                }
+            }
+            models.retain(address, Collections.<Class<?>>emptySet());
+            MetricsRegistry registry = metrics;
+            if (registry != null) {
+                registry.removeAddress(address);
+            }
+            AdmissionRegistry admissionRegistry = admission;
+            if (admissionRegistry != null) {
+                admissionRegistry.retain(address, Collections.<AdmissionLimiter>emptySet());
+            }
+            return;
         }
-        sf.setAddress(path.getPath());
-        
-        
-        BindingFactoryManager manager = sf.getBus().getExtension(BindingFactoryManager.class);
-        JAXRSBindingFactory factory = new JAXRSBindingFactory();
-        factory.setBus(sf.getBus());
-        manager.registerBindingFactory(JAXRSBindingFactory.JAXRS_BINDING_ID, factory);
-        Server server = sf.create();
+
+        Server server = createServer(address, resources);
         path.setServer(server);
+        if (swap) {
+            releaseServer(oldServer);
+        }
+    }
+
+    private LazyEndpoint.Materializer newMaterializer(final ServerPath path) {
+        return new LazyEndpoint.Materializer() {
+            @Override
+            public Server materialize() {
+                List<ResourcePath> resources;
+                synchronized (path) {
+                    resources = new ArrayList<>(path.getResources());
+                }
+                return resources.isEmpty() ? null : createServer(path.getPath(), resources);
+            }
+
+            @Override
+            public void release(Server server) {
+                releaseServer(server);
+            }
+        };
+    }
+
+    /**
+     * Releases the endpoints of lazy addresses that have been idle for the
+     * given time.
+     */
+    void evictIdleEndpoints(long idleNanos) {
+        for (ServerPath path : servers.values()) {
+            LazyEndpoint lazy = path.getLazy();
+            if (lazy != null) {
+                try {
+                    lazy.evictIfIdle(idleNanos);
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Failed to release idle endpoint {}", path.getPath(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds and starts a new endpoint for the given resources on the address.
+     * If an endpoint is already running on the address, the new endpoint takes over its
+     * destination, so the port keeps accepting requests while the endpoint is replaced.
+     */
+    protected Server createServer(String address, List<ResourcePath> resources) {
+        //The models of resources deployed on the address before are reused rather than reflected again
+        models.retain(address, new HashSet<>(getResourceClasses(resources)));
+        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean(models.newServiceFactory(address, resources, bus));
+        sf.setBus(bus);
+        sf.setResourceClasses(getResourceClasses(resources));
+        for (ResourcePath resource : resources) {
+            sf.setResourceProvider(resource.getSei(), resource.getProvider());
+        }
+        sf.setAddress(address);
+        MetricsRegistry registry = metrics;
+        if (registry != null) {
+            sf.getInInterceptors().add(metricsInInterceptor);
+            sf.getOutInterceptors().add(new MetricsOutInterceptor(registry, address, false));
+            sf.getOutFaultInterceptors().add(new MetricsOutInterceptor(registry, address, true));
+        }
+        addAdmissionControl(sf, address, resources);
+        List<Object> providers = new ArrayList<>();
+        ProviderTracker providerServices = this.providers;
+        if (providerServices != null) {
+            providers.addAll(providerServices.getProviders(address, resources));
+        }
+        ResponseEncodingPolicy encoding = getResponseEncoding(address, resources);
+        if (!encoding.isEmpty()) {
+            providers.add(new ResponseEncodingInterceptor(encoding));
+        }
+        ResponseCache cache = responseCache;
+        if (cache != null && isCached(resources)) {
+            //Responses cached by the endpoint being replaced may come from services no longer deployed
+            cache.invalidate(address);
+            providers.add(new ResponseCacheFilter(cache, address));
+        }
+        if (!providers.isEmpty()) {
+            sf.setProviders(providers);
+        }
+        return sf.create();
+    }
+
+    private static boolean isCached(List<ResourcePath> resources) {
+        for (ResourcePath resource : resources) {
+            if (ResponseCacheFilter.isCached(resource.getSei())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Schedules a rebuild of the addresses targeted by the providers.
+     */
+    private void rebuildTargetedAddresses(Collection<ProviderTracker.TrackedProvider> changed) {
+        Set<String> pathsToRebuild = new HashSet<>();
+        for (ServerPath path : servers.values()) {
+            List<ResourcePath> resources;
+            synchronized (path) {
+                resources = new ArrayList<>(path.getResources());
+            }
+            for (ProviderTracker.TrackedProvider provider : changed) {
+                if (provider.targets(path.getPath(), resources)) {
+                    pathsToRebuild.add(path.getPath());
+                }
+            }
+        }
+        if (!pathsToRebuild.isEmpty()) {
+            LOGGER.info("Rebuilding {} for changed providers", pathsToRebuild);
+            scheduler.schedule(pathsToRebuild);
+        }
+    }
+
+    /**
+     * Limits the requests admitted to the address and to its resources, if any
+     * limits are configured for them. Limits set through service properties
+     * take precedence over the {@link AdmissionLimit} annotation of a
+     * resource, and the lowest limit set on the address applies to it.
+     */
+    private void addAdmissionControl(JAXRSServerFactoryBean sf, String address, List<ResourcePath> resources) {
+        AdmissionRegistry registry = admission;
+        if (registry == null) {
+            return;
+        }
+        double addressRate = configuration.getRateLimit(address);
+        int addressConcurrency = configuration.getConcurrencyLimit(address);
+        Map<Class<?>, AdmissionLimiter> resourceLimiters = new HashMap<>();
+        for (ResourcePath resource : resources) {
+            ReferenceMetadata metadata = resource.getReference() == null ? null : trackedReferences.get(resource.getReference());
+            AdmissionLimit annotation = (AdmissionLimit) resource.getSei().getAnnotation(AdmissionLimit.class);
+            double rate = annotation == null ? 0 : annotation.rate();
+            int burst = annotation == null ? 0 : annotation.burst();
+            int concurrency = annotation == null ? 0 : annotation.concurrency();
+            if (metadata != null) {
+                rate = metadata.getRateLimit() > 0 ? metadata.getRateLimit() : rate;
+                concurrency = metadata.getConcurrencyLimit() > 0 ? metadata.getConcurrencyLimit() : concurrency;
+                addressRate = lowestLimit(addressRate, metadata.getAddressRateLimit());
+                addressConcurrency = (int) lowestLimit(addressConcurrency, metadata.getAddressConcurrencyLimit());
+            }
+            if (rate > 0 || concurrency > 0) {
+                resourceLimiters.put(resource.getSei(), registry.getLimiter(address, resource.getSei().getName(), rate, burst, concurrency));
+            }
+        }
+        AdmissionLimiter addressLimiter = null;
+        if (addressRate > 0 || addressConcurrency > 0) {
+            addressLimiter = registry.getLimiter(address, AdmissionLimiter.ADDRESS, addressRate, 0, addressConcurrency);
+        }
+        Set<AdmissionLimiter> inUse = new HashSet<>(resourceLimiters.values());
+        if (addressLimiter != null) {
+            inUse.add(addressLimiter);
+        }
+        registry.retain(address, inUse);
+        if (inUse.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("Admission limits on {}: {}", address, inUse);
+        sf.getInInterceptors().add(new AdmissionInInterceptor(addressLimiter, resourceLimiters));
+        sf.getOutInterceptors().add(admissionOutInterceptor);
+        sf.getOutFaultInterceptors().add(admissionOutInterceptor);
+    }
+
+    private static double lowestLimit(double limit, double other) {
+        if (limit <= 0) {
+            return other;
+        }
+        return other <= 0 ? limit : Math.min(limit, other);
+    }
+
+    /**
+     * Combines the compression and ETag settings of the address with the ones
+     * asked for by the services deployed on it.
+     */
+    protected ResponseEncodingPolicy getResponseEncoding(String address, List<ResourcePath> resources) {
+        ResponseEncodingPolicy policy = new ResponseEncodingPolicy(configuration.getCompressionThreshold(), configuration.getCompressionTypes());
+        if (configuration.isCompressed(address)) {
+            policy.compressAll();
+        }
+        if (configuration.isETagged(address)) {
+            policy.tagAll();
+        }
+        for (ResourcePath resource : resources) {
+            ReferenceMetadata metadata = resource.getReference() == null ? null : trackedReferences.get(resource.getReference());
+            if (metadata == null) {
+                continue;
+            }
+            if (metadata.isCompressed()) {
+                policy.compress(resource.getSei());
+            }
+            if (metadata.isETagged()) {
+                policy.tag(resource.getSei());
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * @return the bus the endpoints are deployed on
+     */
+    Bus getBus() {
+        return bus;
+    }
+
+    /**
+     * Creates the bus the endpoints are deployed on, with the binding factory
+     * that lets rebuilt endpoints take over the destination of the endpoints
+     * they replace.
+     */
+    protected Bus createBus() {
+        Bus created;
+        if (configuration.isDedicatedBus()) {
+            Bus previous = BusFactory.getThreadDefaultBus(false);
+            try {
+                //The first bus created becomes the default bus of every CXF user, so that must not be this one
+                BusFactory.getDefaultBus();
+                created = BusFactory.newInstance().createBus();
+            } finally {
+                BusFactory.setThreadDefaultBus(previous);
+            }
+        } else {
+            created = BusFactory.getDefaultBus();
+        }
+        BindingFactoryManager manager = created.getExtension(BindingFactoryManager.class);
+        manager.registerBindingFactory(JAXRSBindingFactory.JAXRS_BINDING_ID, new DeployerBindingFactory(created));
+        return created;
+    }
 
+    /**
+     * Retires an endpoint that has been replaced by a hot swap. The endpoint is not stopped,
+     * as stopping it would detach the destination it now shares with its replacement, but
+     * it is cleaned up and unregistered so the bus lets go of it.
+     */
+    protected void releaseServer(Server server) {
+        //Everything stopping the server does, except detaching the destination
+        Endpoint endpoint = server.getEndpoint();
+        if (endpoint != null) {
+            for (Closeable hook : endpoint.getCleanupHooks()) {
+                try {
+                    hook.close();
+                } catch (IOException ex) {
+                    LOGGER.debug("Failed to clean up after replaced server {}", server, ex);
+                }
+            }
+        }
+        //The server is registered with the bus it was built on
+        Bus serverBus = endpoint instanceof EndpointImpl ? ((EndpointImpl) endpoint).getBus() : bus;
+        ServerLifeCycleManager lifeCycleManager = serverBus.getExtension(ServerLifeCycleManager.class);
+        if (lifeCycleManager != null) {
+            lifeCycleManager.stopServer(server);
+        }
+        ServerRegistry registry = serverBus.getExtension(ServerRegistry.class);
+        if (registry != null) {
+            registry.unregister(server);
+        }
+        LOGGER.debug("Released replaced server {}", server);
     }
 
     public List<Class<?>> getResourceClasses(ServerPath path) {
+        synchronized (path) {
+            return getResourceClasses(path.getResources());
+        }
+    }
+
+    protected List<Class<?>> getResourceClasses(List<ResourcePath> resources) {
         List<Class<?>> classes = new ArrayList<>();
-        for (ResourcePath resource : path.getResources()) {
+        for (ResourcePath resource : resources) {
             classes.add(resource.getSei());
         }
         return classes;
@@ -274,43 +1109,34 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
     }
 
     protected String getAddress(String addressProperty, TargetServer annotation) {
+        return getAddress(addressProperty, annotation == null ? null : annotation.value());
+    }
+
+    protected String getAddress(String addressProperty, String annotatedAddress) {
         if (addressProperty != null && !addressProperty.isEmpty()) {
             return addressProperty;
         }
-        if (annotation != null) {
-            return annotation.value();
+        if (annotatedAddress != null) {
+            return annotatedAddress;
         }
         return "/rest";
 
     }
 
     protected Set<String> getObjectClasses(ServiceReference ref) {
-        Object objectClasses = ref.getProperty(org.osgi.framework.Constants.OBJECTCLASS);
-        LOGGER.info("Getting object classes from " + ref + ": " + objectClasses);
-        if (objectClasses != null) {
-            LOGGER.info("Getting object class: "+objectClasses.getClass());
-            if (objectClasses instanceof String) {
-                return getObjectClasses((String) objectClasses);
-            }
-            if (objectClasses instanceof String[]) {
-                String[] objectClassesArray = (String[])objectClasses;
-                return new HashSet<>(Arrays.asList(objectClassesArray));
-            }
-        } 
-        return new HashSet<>();
-        
-
+        return new HashSet<>(Arrays.asList(new ReferenceMetadata(ref).getObjectClasses()));
     }
-    
+
     protected String getAddressByProperty(ServiceReference ref){
         return cleanProp(ref, Constants.TARGET_SERVER);
     }
 
+    /**
+     * Splits a comma separated list of object class names, ignoring whitespace around the
+     * names.
+     */
     protected Set<String> getObjectClasses(String objectClassNames) {
-        Set<String> objectClasses = new HashSet<>(Arrays.asList(objectClassNames.replaceAll("/s", "").split(",")));
-
-        return objectClasses;
-
+        return new HashSet<>(Arrays.asList(ReferenceMetadata.parseObjectClasses(objectClassNames)));
     }
 
     protected ServiceReference<?> getReferenceByID(int serviceID) throws InvalidSyntaxException {
@@ -326,14 +1152,15 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
     }
 
     protected String getObjectClass(ServiceReference<?> ref) {
-        LOGGER.info("Getting ObjectClass from " + ref);
         return cleanProp(ref, org.osgi.framework.Constants.OBJECTCLASS);
     }
 
     protected Integer getServiceID(ServiceReference<?> ref) {
-        LOGGER.info("Getting serviceID from " + ref);
-        String result = cleanProp(ref, org.osgi.framework.Constants.SERVICE_ID);
-        LOGGER.info("Got serviceID: " + result);
+        Object serviceID = ref.getProperty(org.osgi.framework.Constants.SERVICE_ID);
+        if (serviceID instanceof Number) {
+            return ((Number) serviceID).intValue();
+        }
+        String result = cleanProp(serviceID);
         if (result == null) {
             return 0;
         }
@@ -341,7 +1168,6 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
     }
 
     protected String cleanProp(ServiceReference<?> ref, String key) {
-        LOGGER.info("Getting property from " + ref + " [" + key + "]: " + ref.getProperty(key));
         return cleanProp(ref.getProperty(key));
     }
 
@@ -350,13 +1176,11 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
             return null;
         }
         if (property instanceof String || property instanceof Number) {
-            LOGGER.info("Returning value " + property);
             return property.toString();
         }
         if (property instanceof String[]) {
             String[] propertyArray = (String[]) property;
             if (propertyArray.length > 0) {
-                LOGGER.info("Returning array " + propertyArray[0]);
                 return propertyArray[0];
             } else {
                 return null;
@@ -365,11 +1189,13 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
         return null;
     }
 
-    private static class ServerPath implements Comparable<ServerPath> {
+    static class ServerPath implements Comparable<ServerPath> {
 
         private final String path;
-        private Server server;
+        private volatile Server server;
+        private volatile LazyEndpoint lazy;
         private final List<ResourcePath> resources = new ArrayList<>();
+        private boolean retired;
 
         public ServerPath(String path) {
             this.path = path;
@@ -379,25 +1205,56 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
             return path;
         }
 
+        /**
+         * @return the endpoint serving the address, or null if there is none or
+         * the address is lazy and its endpoint has not been built
+         */
         public Server getServer() {
-            return server;
+            LazyEndpoint endpoint = lazy;
+            return endpoint != null ? endpoint.getServer() : server;
+        }
+
+        /**
+         * @return the placeholder of a lazy address, or null if the address is
+         * built eagerly
+         */
+        LazyEndpoint getLazy() {
+            return lazy;
+        }
+
+        void setLazy(LazyEndpoint lazy) {
+            this.lazy = lazy;
         }
 
         public void setServer(Server server) {
             this.server = server;
         }
 
+        /**
+         * Guarded by this ServerPath.
+         */
         public List<ResourcePath> getResources() {
             return resources;
         }
 
+        /**
+         * Marks the entry as removed from the registry. Guarded by this ServerPath.
+         */
+        public void retire() {
+            retired = true;
+        }
+
+        public boolean isRetired() {
+            return retired;
+        }
+
         @Override
         public int compareTo(ServerPath o) {
             return path.compareTo(o.path);
         }
 
         @Override
-        public String toString() {
+        public synchronized String toString() {
             return "ServerPath{" + "path=" + path + ", server=" + server + ", resources=" + resources + '}';
         }
         
@@ -432,16 +1289,24 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
 
     }
 
-    private static class ResourcePath implements Comparable<ResourcePath> {
+    static class ResourcePath implements Comparable<ResourcePath> {
 
         private String path;
         private Class sei;
         private Object resource;
+        private ServiceReference<?> reference;
+        private ResourceProvider provider;
 
-        public ResourcePath(String path, Class sei, Object resource) {
+        public ResourcePath(String path, Class sei, Object resource, ServiceReference<?> reference) {
+            this(path, sei, resource, reference, new SingletonResourceProvider(resource));
+        }
+
+        public ResourcePath(String path, Class sei, Object resource, ServiceReference<?> reference, ResourceProvider provider) {
             this.path = path;
             this.sei = sei;
             this.resource = resource;
+            this.reference = reference;
+            this.provider = provider;
         }
 
         public String getPath() {
@@ -456,6 +1321,27 @@ public class RestDeployer implements ServiceListener, RestServiceDeployment {
             return resource;
         }
 
+        public ServiceReference<?> getReference() {
+            return reference;
+        }
+
+        /**
+         * @return the provider of the instances serving the requests to the
+         * resource
+         */
+        public ResourceProvider getProvider() {
+            return provider;
+        }
+
+        /**
+         * Releases the instances kept by the provider.
+         */
+        void close() {
+            if (provider instanceof ServiceObjectsResourceProvider) {
+                ((ServiceObjectsResourceProvider) provider).close();
+            }
+        }
+
         @Override
         public int compareTo(ResourcePath o) {
             return path.compareTo(o.path);
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.annotation.TargetServer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.ws.rs.Path;
+import org.osgi.framework.Bundle;
+
+/**
+ * Caches whether an object class is a Service Endpoint Interface, together
+ * with the annotation values the deployer needs. Entries are kept per
+ * providing bundle and dropped when that bundle is unresolved, so every class
+ * is reflected at most once per bundle lifecycle. Classes are loaded through
+ * the providing bundle, whose class space only changes when it is resolved
+ * again, so classes it could not load are remembered the same way. Classes
+ * classified without a bundle are loaded by the deployer, and are looked up
+ * again if they could not be loaded, as its class space may still be wired
+ * to new exporters.
+ *
+ * @author mnn
+ */
+class SEIClassifier {
+
+    private static final Long NO_BUNDLE = -1L;
+
+    private final ConcurrentMap<Long, ConcurrentMap<String, Classification>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * @param className the object class to classify
+     * @param bundle the bundle providing the service, or null if unknown
+     */
+    Classification classify(String className, Bundle bundle) throws ClassNotFoundException {
+        ConcurrentMap<String, Classification> bundleCache = getBundleCache(bundle);
+        Classification classification = bundleCache.get(className);
+        if (classification == null) {
+            Class<?> type;
+            try {
+                type = loadClass(className, bundle);
+            } catch (ClassNotFoundException ex) {
+                if (bundle != null) {
+                    //Not looked up again until the bundle is unresolved
+                    bundleCache.putIfAbsent(className, Classification.MISSING);
+                }
+                throw ex;
+            }
+            classification = new Classification(type);
+            Classification existing = bundleCache.putIfAbsent(className, classification);
+            if (existing != null) {
+                classification = existing;
+            }
+        }
+        if (classification == Classification.MISSING) {
+            throw new ClassNotFoundException(className);
+        }
+        return classification;
+    }
+
+    /**
+     * @param bundle the bundle to load the class through, or null to load it
+     * through the deployer
+     */
+    Class<?> loadClass(String className, Bundle bundle) throws ClassNotFoundException {
+        if (bundle == null) {
+            return Class.forName(className);
+        }
+        try {
+            return bundle.loadClass(className);
+        } catch (IllegalStateException ex) {
+            //Uninstalled in the meantime
+            throw new ClassNotFoundException(className, ex);
+        }
+    }
+
+    /**
+     * Records classes of the bundle known not to be Service Endpoint
+     * Interfaces, so they are not loaded when classified.
+     */
+    void preload(Bundle bundle, Collection<String> plainClassNames) {
+        ConcurrentMap<String, Classification> bundleCache = getBundleCache(bundle);
+        for (String className : plainClassNames) {
+            bundleCache.putIfAbsent(className, Classification.PLAIN);
+        }
+    }
+
+    /**
+     * @return the ids of the bundles with classified classes, and their
+     * classes that are not Service Endpoint Interfaces. Classes that could not
+     * be loaded are left out.
+     */
+    Map<Long, Set<String>> getPlainClasses() {
+        Map<Long, Set<String>> result = new HashMap<>();
+        for (Map.Entry<Long, ConcurrentMap<String, Classification>> bundleCache : cache.entrySet()) {
+            if (NO_BUNDLE.equals(bundleCache.getKey())) {
+                continue;
+            }
+            Set<String> plain = new HashSet<>();
+            for (Map.Entry<String, Classification> classification : bundleCache.getValue().entrySet()) {
+                Classification value = classification.getValue();
+                if (!value.isSEI() && value != Classification.MISSING) {
+                    plain.add(classification.getKey());
+                }
+            }
+            if (!plain.isEmpty()) {
+                result.put(bundleCache.getKey(), plain);
+            }
+        }
+        return result;
+    }
+
+    void invalidate(Bundle bundle) {
+        cache.remove(bundle.getBundleId());
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    private ConcurrentMap<String, Classification> getBundleCache(Bundle bundle) {
+        Long key = bundle == null ? NO_BUNDLE : bundle.getBundleId();
+        ConcurrentMap<String, Classification> bundleCache = cache.get(key);
+        if (bundleCache == null) {
+            ConcurrentMap<String, Classification> created = new ConcurrentHashMap<>();
+            bundleCache = cache.putIfAbsent(key, created);
+            if (bundleCache == null) {
+                bundleCache = created;
+            }
+        }
+        return bundleCache;
+    }
+
+    static class Classification {
+
+        /**
+         * A class known not to be a Service Endpoint Interface, without
+         * having been loaded.
+         */
+        static final Classification PLAIN = new Classification();
+
+        /**
+         * A class that could not be loaded.
+         */
+        static final Classification MISSING = new Classification();
+
+        private final Class<?> type;
+        private final String path;
+        private final String targetServer;
+
+        private Classification() {
+            this.type = null;
+            this.path = null;
+            this.targetServer = null;
+        }
+
+        Classification(Class<?> type) {
+            this.type = type;
+            Path pathAnnotation = type.getAnnotation(Path.class);
+            TargetServer targetServerAnnotation = type.getAnnotation(TargetServer.class);
+            this.path = pathAnnotation == null ? null : pathAnnotation.value();
+            this.targetServer = targetServerAnnotation == null ? null : targetServerAnnotation.value();
+        }
+
+        public boolean isSEI() {
+            return path != null;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return the value of the {@link Path} annotation, or null if the
+         * class is not a Service Endpoint Interface
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the value of the {@link TargetServer} annotation, or null if
+         * not annotated
+         */
+        public String getTargetServer() {
+            return targetServer;
+        }
+
+        @Override
+        public String toString() {
+            return "Classification{" + "type=" + type + ", path=" + path + ", targetServer=" + targetServer + '}';
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.ws.rs.ServiceUnavailableException;
+import org.apache.cxf.jaxrs.lifecycle.ResourceProvider;
+import org.apache.cxf.message.Message;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out instances of a prototype scoped service, either a new instance
+ * for every request or instances borrowed from a bounded pool.
+ * <p>
+ * The pool is an array of slots. A request takes an instance by emptying a
+ * slot and gives it back by filling an empty one, starting from a slot picked
+ * by its thread, so no lock is taken. When every slot is empty a new instance
+ * is fetched, and when every slot is full the instance is released to the
+ * framework. At most the pool size is therefore kept between requests.
+ * <p>
+ * ServiceObjects arrived in OSGi core 6, after the framework API this bundle
+ * is built against, so it is used reflectively when the running framework has
+ * it.
+ *
+ * @author mnn
+ */
+class ServiceObjectsResourceProvider implements ResourceProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceObjectsResourceProvider.class);
+
+    static final int DEFAULT_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final Method GET_SERVICE_OBJECTS = findMethod(BundleContext.class, "getServiceObjects", ServiceReference.class);
+    private static final Method GET_SERVICE = GET_SERVICE_OBJECTS == null ? null : findMethod(GET_SERVICE_OBJECTS.getReturnType(), "getService");
+    private static final Method UNGET_SERVICE = GET_SERVICE_OBJECTS == null ? null : findMethod(GET_SERVICE_OBJECTS.getReturnType(), "ungetService", Object.class);
+
+    private final Class<?> resourceClass;
+    private final Object serviceObjects;
+    private final Method getService;
+    private final Method ungetService;
+    private final AtomicReferenceArray<Object> pool;
+    private volatile boolean closed;
+
+    /**
+     * @param serviceObjects the ServiceObjects of the service, or any object
+     * with the same getService and ungetService methods
+     */
+    ServiceObjectsResourceProvider(Class<?> resourceClass, Object serviceObjects, Method getService, Method ungetService, int poolSize) {
+        this.resourceClass = resourceClass;
+        this.serviceObjects = serviceObjects;
+        this.getService = getService;
+        this.ungetService = ungetService;
+        this.pool = poolSize > 0 ? new AtomicReferenceArray<>(poolSize) : null;
+    }
+
+    /**
+     * @return true if the running framework can hand out prototype instances
+     */
+    static boolean isSupported() {
+        return GET_SERVICE != null && UNGET_SERVICE != null;
+    }
+
+    /**
+     * @param poolSize the number of instances kept between requests, 0 for a
+     * new instance on every request
+     * @return a provider of the service instances, or null if the framework
+     * cannot hand them out
+     */
+    static ServiceObjectsResourceProvider create(BundleContext context, ServiceReference<?> reference, Class<?> resourceClass, int poolSize) {
+        if (!isSupported()) {
+            return null;
+        }
+        Object serviceObjects;
+        try {
+            serviceObjects = invoke(GET_SERVICE_OBJECTS, context, reference);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to get the service objects of {}", reference, ex);
+            return null;
+        }
+        return serviceObjects == null ? null : new ServiceObjectsResourceProvider(resourceClass, serviceObjects, GET_SERVICE, UNGET_SERVICE, poolSize);
+    }
+
+    @Override
+    public Object getInstance(Message m) {
+        if (pool != null) {
+            int size = pool.length();
+            int start = probe(size);
+            for (int i = 0; i < size; i++) {
+                int slot = (start + i) % size;
+                Object instance = pool.get(slot);
+                if (instance != null && pool.compareAndSet(slot, instance, null)) {
+                    return instance;
+                }
+            }
+        }
+        Object instance = invoke(getService, serviceObjects);
+        if (instance == null) {
+            throw new ServiceUnavailableException("The service of " + resourceClass.getName() + " is gone");
+        }
+        return instance;
+    }
+
+    @Override
+    public void releaseInstance(Message m, Object o) {
+        if (pool != null && !closed) {
+            int size = pool.length();
+            int start = probe(size);
+            for (int i = 0; i < size; i++) {
+                int slot = (start + i) % size;
+                if (pool.get(slot) == null && pool.compareAndSet(slot, null, o)) {
+                    if (closed) {
+                        drain(); //Closed while the instance was returned
+                    }
+                    return;
+                }
+            }
+        }
+        unget(o);
+    }
+
+    @Override
+    public Class<?> getResourceClass() {
+        return resourceClass;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return false;
+    }
+
+    /**
+     * Releases the pooled instances. Instances in use are released when they
+     * are returned.
+     */
+    void close() {
+        closed = true;
+        if (pool != null) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        for (int slot = 0; slot < pool.length(); slot++) {
+            Object instance = pool.getAndSet(slot, null);
+            if (instance != null) {
+                unget(instance);
+            }
+        }
+    }
+
+    private void unget(Object instance) {
+        try {
+            invoke(ungetService, serviceObjects, instance);
+        } catch (RuntimeException ex) {
+            //The framework has already released the instances of an unregistered service
+            LOGGER.debug("Failed to release an instance of {}", resourceClass.getName(), ex);
+        }
+    }
+
+    private static int probe(int size) {
+        return (int) ((Thread.currentThread().getId() & Integer.MAX_VALUE) % size);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException | RuntimeException ex) {
+            LOGGER.debug("{}.{} is not available: {}", type.getName(), name, ex.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceObjectsResourceProvider{" + "resourceClass=" + resourceClass.getName() + ", poolSize=" + (pool == null ? 0 : pool.length()) + '}';
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The endpoint layout expected after a restart, taken from the
+ * {@link DeploymentSnapshot} saved before it. An address is ready to be built
+ * once every resource it had in the snapshot has registered again, so it is
+ * built once rather than once for every late service.
+ * <p>
+ * The plan expires when the warm-up time has passed, after which every
+ * address is ready.
+ *
+ * @author mnn
+ */
+class WarmStartPlan {
+
+    private final Map<String, Set<String>> pending;
+    private boolean expired;
+
+    WarmStartPlan(Map<String, Set<String>> addresses) {
+        this.pending = new HashMap<>(addresses);
+    }
+
+    /**
+     * @param deployed the keys of the resources currently on the address
+     * @return true if the address may be built now
+     */
+    synchronized boolean isReady(String address, Set<String> deployed) {
+        if (expired) {
+            return true;
+        }
+        Set<String> planned = pending.get(address);
+        if (planned == null) {
+            return true;
+        }
+        if (deployed.containsAll(planned)) {
+            pending.remove(address);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true once every planned address has been ready, or the plan
+     * has expired
+     */
+    synchronized boolean isComplete() {
+        return expired || pending.isEmpty();
+    }
+
+    /**
+     * Makes every address ready.
+     *
+     * @return the addresses still missing resources
+     */
+    synchronized Set<String> expire() {
+        expired = true;
+        Set<String> remaining = new HashSet<>(pending.keySet());
+        pending.clear();
+        return remaining;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.apache.cxf.interceptor.OutgoingChainInterceptor;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Admits a request through the limiter of its address and then the one of
+ * its resource, once the resource method has been matched. A rejected request
+ * is answered without invoking the resource: with 429 Too Many Requests when
+ * a rate limit is exceeded, and with 503 Service Unavailable when a
+ * concurrency limit is. Both carry a Retry-After header.
+ * <p>
+ * The limiters taken are released by {@link AdmissionOutInterceptor} once the
+ * response has been written. They are released here instead if the in chain
+ * fails, or once the response has been sent if the out and out fault chains
+ * both failed, as CXF gives up on a fault that cannot be written.
+ *
+ * @author mnn
+ */
+public class AdmissionInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    static final String ACQUIRED = AdmissionInInterceptor.class.getName() + ".acquired";
+    static final int TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final ReleaseInterceptor RELEASE = new ReleaseInterceptor();
+
+    private final AdmissionLimiter addressLimiter;
+    private final Map<Class<?>, AdmissionLimiter> resourceLimiters;
+
+    /**
+     * @param addressLimiter the limiter of the whole address, or null
+     * @param resourceLimiters the limiters of the resources by service
+     * interface. Not copied, and must not be modified.
+     */
+    public AdmissionInInterceptor(AdmissionLimiter addressLimiter, Map<Class<?>, AdmissionLimiter> resourceLimiters) {
+        super(Phase.PRE_INVOKE);
+        this.addressLimiter = addressLimiter;
+        this.resourceLimiters = resourceLimiters;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        Exchange exchange = message.getExchange();
+        if (exchange.get(Response.class) != null) {
+            return; //Already answered, by a request filter or the response cache
+        }
+        AdmissionLimiter resourceLimiter = resourceLimiters.get(getResourceClass(exchange));
+        if (addressLimiter != null && !admit(exchange, addressLimiter)) {
+            return;
+        }
+        if (resourceLimiter != null && !admit(exchange, resourceLimiter)) {
+            if (addressLimiter != null) {
+                exchange.remove(ACQUIRED);
+                addressLimiter.release();
+            }
+            return;
+        }
+        if (addressLimiter != null && resourceLimiter != null) {
+            exchange.put(ACQUIRED, new AdmissionLimiter[]{addressLimiter, resourceLimiter});
+        }
+        if (exchange.get(ACQUIRED) != null && message.getInterceptorChain() != null) {
+            message.getInterceptorChain().add(RELEASE);
+        }
+    }
+
+    @Override
+    public void handleFault(Message message) {
+        AdmissionOutInterceptor.release(message);
+    }
+
+    private static boolean admit(Exchange exchange, AdmissionLimiter limiter) {
+        long result = limiter.tryAcquire();
+        if (result == 0) {
+            exchange.put(ACQUIRED, new AdmissionLimiter[]{limiter});
+            return true;
+        }
+        Response rejection;
+        if (result == AdmissionLimiter.CONCURRENCY_EXCEEDED) {
+            rejection = Response.status(Response.Status.SERVICE_UNAVAILABLE).header(RETRY_AFTER, 1).build();
+        } else {
+            rejection = Response.status(TOO_MANY_REQUESTS).header(RETRY_AFTER, toRetryAfterSeconds(result)).build();
+        }
+        exchange.put(Response.class, rejection);
+        return false;
+    }
+
+    /**
+     * @return the wait rounded up to whole seconds, at least 1
+     */
+    static long toRetryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private static Class<?> getResourceClass(Exchange exchange) {
+        OperationResourceInfo operation = exchange.get(OperationResourceInfo.class);
+        ClassResourceInfo resource = operation == null ? null : operation.getClassResourceInfo();
+        return resource == null ? null : resource.getResourceClass();
+    }
+
+    /**
+     * Releases what the out chains left taken, once the outgoing chain they
+     * run in has returned.
+     */
+    private static class ReleaseInterceptor extends AbstractPhaseInterceptor<Message> {
+
+        ReleaseInterceptor() {
+            super(Phase.POST_INVOKE);
+            addAfter(OutgoingChainInterceptor.class.getName());
+        }
+
+        @Override
+        public void handleMessage(Message message) {
+            AdmissionOutInterceptor.release(message);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rate and concurrency limits of an address or of a resource on it. Both
+ * are enforced without locking.
+ *
+ * @author mnn
+ */
+public class AdmissionLimiter implements AdmissionLimiterMBean {
+
+    /**
+     * The resource name of the limiter of a whole address.
+     */
+    public static final String ADDRESS = "*";
+
+    /**
+     * Returned by {@link #tryAcquire()} when the concurrency limit is
+     * reached.
+     */
+    static final long CONCURRENCY_EXCEEDED = -1;
+
+    private final String address;
+    private final String resource;
+    private final double rateLimit;
+    private final int burst;
+    private final int concurrencyLimit;
+    private final TokenBucket bucket;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateRejected = new AtomicLong();
+    private final AtomicLong concurrencyRejected = new AtomicLong();
+
+    /**
+     * @param rateLimit requests per second, 0 for no limit
+     * @param burst requests admitted at once after a quiet period, 0 for one
+     * second worth of requests
+     * @param concurrencyLimit concurrent requests, 0 for no limit
+     */
+    public AdmissionLimiter(String address, String resource, double rateLimit, int burst, int concurrencyLimit) {
+        this.address = address;
+        this.resource = resource;
+        this.rateLimit = Math.max(0, rateLimit);
+        this.burst = burst > 0 ? burst : (int) Math.max(1, Math.ceil(this.rateLimit));
+        this.concurrencyLimit = Math.max(0, concurrencyLimit);
+        this.bucket = this.rateLimit > 0 ? new TokenBucket(this.rateLimit, this.burst) : null;
+    }
+
+    /**
+     * Admits a request if both limits allow it. An admitted request must be
+     * {@link #release() released} once its response has been written.
+     *
+     * @return 0 if admitted, {@link #CONCURRENCY_EXCEEDED}, or the
+     * nanoseconds until the rate limit admits a request
+     */
+    long tryAcquire() {
+        if (concurrencyLimit > 0) {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= concurrencyLimit) {
+                    concurrencyRejected.incrementAndGet();
+                    return CONCURRENCY_EXCEEDED;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+        } else {
+            inFlight.incrementAndGet();
+        }
+        if (bucket != null) {
+            long wait = bucket.tryAcquire();
+            if (wait > 0) {
+                inFlight.decrementAndGet();
+                rateRejected.incrementAndGet();
+                return wait;
+            }
+        }
+        admitted.incrementAndGet();
+        return 0;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return true if the other limiter enforces the same limits
+     */
+    boolean hasSameLimits(AdmissionLimiter other) {
+        return rateLimit == other.rateLimit && burst == other.burst && concurrencyLimit == other.concurrencyLimit;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public String getResource() {
+        return resource;
+    }
+
+    @Override
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    @Override
+    public int getBurst() {
+        return bucket == null ? 0 : burst;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    @Override
+    public long getRateRejectedCount() {
+        return rateRejected.get();
+    }
+
+    @Override
+    public long getConcurrencyRejectedCount() {
+        return concurrencyRejected.get();
+    }
+
+    @Override
+    public void reset() {
+        admitted.set(0);
+        rateRejected.set(0);
+        concurrencyRejected.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionLimiter{" + "address=" + address + ", resource=" + resource + ", rateLimit=" + rateLimit + ", burst=" + burst + ", concurrencyLimit=" + concurrencyLimit + '}';
+    }
+
+}
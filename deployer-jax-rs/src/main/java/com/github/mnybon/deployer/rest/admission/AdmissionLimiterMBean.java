@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+/**
+ * Limits and rejection counts of an address or of a resource on it.
+ *
+ * @author mnn
+ */
+public interface AdmissionLimiterMBean {
+
+    public String getAddress();
+
+    /**
+     * @return the service interface of the resource, or * for the limits of
+     * the whole address
+     */
+    public String getResource();
+
+    /**
+     * @return the requests admitted per second, 0 if not limited
+     */
+    public double getRateLimit();
+
+    public int getBurst();
+
+    /**
+     * @return the requests allowed to run at the same time, 0 if not limited
+     */
+    public int getConcurrencyLimit();
+
+    public int getInFlight();
+
+    public long getAdmittedCount();
+
+    /**
+     * @return the requests rejected with 429 Too Many Requests
+     */
+    public long getRateRejectedCount();
+
+    /**
+     * @return the requests rejected with 503 Service Unavailable
+     */
+    public long getConcurrencyRejectedCount();
+
+    public void reset();
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Releases the limiters a request was admitted through once its response has
+ * been written. Added to both the out and the out fault chain of an endpoint.
+ *
+ * @author mnn
+ */
+public class AdmissionOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    public AdmissionOutInterceptor() {
+        super(Phase.SETUP_ENDING);
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        release(message);
+    }
+
+    @Override
+    public void handleFault(Message message) {
+        release(message);
+    }
+
+    static void release(Message message) {
+        Object acquired = message.getExchange().remove(AdmissionInInterceptor.ACQUIRED);
+        if (acquired instanceof AdmissionLimiter[]) {
+            for (AdmissionLimiter limiter : (AdmissionLimiter[]) acquired) {
+                limiter.release();
+            }
+        }
+    }
+
+}
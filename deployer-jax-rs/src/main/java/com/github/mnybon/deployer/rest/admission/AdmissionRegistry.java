@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import com.github.mnybon.deployer.rest.metrics.MetricsRegistry;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the admission limiters of every address and resource, and publishes
+ * them as MBeans on the {@link MBeanServer} services in the framework. A
+ * limiter is kept across rebuilds of its endpoint as long as its limits do not
+ * change, so requests in flight stay counted.
+ *
+ * @author mnn
+ */
+public class AdmissionRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionRegistry.class);
+
+    private final ConcurrentMap<String, AdmissionLimiter> limiters = new ConcurrentHashMap<>();
+    private final List<MBeanServer> mBeanServers = new CopyOnWriteArrayList<>();
+    private ServiceTracker<MBeanServer, MBeanServer> mBeanServerSources;
+
+    /**
+     * Starts publishing limiters on the MBean servers registered in the
+     * framework.
+     */
+    public void open(BundleContext context) {
+        mBeanServerSources = new ServiceTracker<MBeanServer, MBeanServer>(context, MBeanServer.class, null) {
+            @Override
+            public MBeanServer addingService(ServiceReference<MBeanServer> reference) {
+                MBeanServer server = super.addingService(reference);
+                if (server != null) {
+                    mBeanServers.add(server);
+                    for (AdmissionLimiter limiter : limiters.values()) {
+                        register(server, limiter);
+                    }
+                }
+                return server;
+            }
+
+            @Override
+            public void removedService(ServiceReference<MBeanServer> reference, MBeanServer server) {
+                mBeanServers.remove(server);
+                for (AdmissionLimiter limiter : limiters.values()) {
+                    unregister(server, limiter);
+                }
+                super.removedService(reference, server);
+            }
+        };
+        mBeanServerSources.open();
+    }
+
+    public void close() {
+        if (mBeanServerSources != null) {
+            mBeanServerSources.close();
+            mBeanServerSources = null;
+        }
+        limiters.clear();
+    }
+
+    /**
+     * @return the limiter of the resource on the address, created and
+     * published if it did not exist or had other limits
+     */
+    public synchronized AdmissionLimiter getLimiter(String address, String resource, double rateLimit, int burst, int concurrencyLimit) {
+        AdmissionLimiter wanted = new AdmissionLimiter(address, resource, rateLimit, burst, concurrencyLimit);
+        AdmissionLimiter existing = limiters.get(getKey(address, resource));
+        if (existing != null && existing.hasSameLimits(wanted)) {
+            return existing;
+        }
+        if (existing != null) {
+            unregister(existing);
+        }
+        limiters.put(getKey(address, resource), wanted);
+        for (MBeanServer server : mBeanServers) {
+            register(server, wanted);
+        }
+        return wanted;
+    }
+
+    /**
+     * Drops and unpublishes the limiters of the address that are not among
+     * the given ones.
+     */
+    public synchronized void retain(String address, Collection<AdmissionLimiter> inUse) {
+        for (AdmissionLimiter limiter : limiters.values()) {
+            if (limiter.getAddress().equals(address) && !inUse.contains(limiter)
+                    && limiters.remove(getKey(address, limiter.getResource()), limiter)) {
+                unregister(limiter);
+            }
+        }
+    }
+
+    private static String getKey(String address, String resource) {
+        return address + " " + resource;
+    }
+
+    static ObjectName getObjectName(AdmissionLimiter limiter) throws MalformedObjectNameException {
+        return new ObjectName(MetricsRegistry.DOMAIN + ":type=AdmissionLimiter"
+                + ",address=" + ObjectName.quote(limiter.getAddress())
+                + ",resource=" + ObjectName.quote(limiter.getResource()));
+    }
+
+    private void unregister(AdmissionLimiter limiter) {
+        for (MBeanServer server : mBeanServers) {
+            unregister(server, limiter);
+        }
+    }
+
+    private void register(MBeanServer server, AdmissionLimiter limiter) {
+        try {
+            ObjectName name = getObjectName(limiter);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(limiter, name);
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("Could not register admission MBean for {}", limiter, ex);
+        }
+    }
+
+    private void unregister(MBeanServer server, AdmissionLimiter limiter) {
+        try {
+            ObjectName name = getObjectName(limiter);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            LOGGER.debug("Could not unregister admission MBean for {}", limiter, ex);
+        }
+    }
+
+}
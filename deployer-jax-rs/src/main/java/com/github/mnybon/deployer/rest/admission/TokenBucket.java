@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, kept as the time at which the bucket is next
+ * empty rather than as a token count, so taking a token is a single compare
+ * and set. Tokens are added at a fixed rate up to the burst size.
+ *
+ * @author mnn
+ */
+class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    /**
+     * The time at which the bucket would be empty if no tokens were taken
+     * before then. Compared with {@link System#nanoTime()}, overflow safe.
+     */
+    private final AtomicLong emptyAt;
+
+    /**
+     * @param permitsPerSecond the rate tokens are added at
+     * @param burst the number of tokens the bucket holds when full
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System.nanoTime());
+    }
+
+    /**
+     * @param nowNanos the time the bucket is full at
+     */
+    TokenBucket(double permitsPerSecond, int burst, long nowNanos) {
+        this.intervalNanos = Math.max(1, (long) (1000000000d / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.emptyAt = new AtomicLong(nowNanos - toleranceNanos - intervalNanos);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until one is
+     * available
+     */
+    long tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available at the given time.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until one is
+     * available
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            long current = emptyAt.get();
+            long start = current - now < 0 ? now : current;
+            long wait = start - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (emptyAt.compareAndSet(current, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the requests admitted to a resource. Placed on the service
+ * interface. The {@link com.github.mnybon.deployer.rest.Constants#RATE_LIMIT}
+ * and {@link com.github.mnybon.deployer.rest.Constants#CONCURRENCY_LIMIT}
+ * service properties take precedence over it.
+ *
+ * @author mnn
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AdmissionLimit {
+
+    /**
+     * Requests per second. Requests above the rate are rejected with 429 Too
+     * Many Requests. 0 for no limit.
+     */
+    double rate() default 0;
+
+    /**
+     * Requests admitted at once after a quiet period. 0 for one second worth
+     * of requests.
+     */
+    int burst() default 0;
+
+    /**
+     * Requests running at the same time. Requests above it are rejected with
+     * 503 Service Unavailable. 0 for no limit.
+     */
+    int concurrency() default 0;
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets the deployer cache the serialized responses of the GET methods of a
+ * resource for the given time. Placed on the service interface to cache every
+ * GET method, or on single methods of it, which takes precedence.
+ * <p>
+ * Responses are cached per path, query and Accept header, and per value of
+ * the headers listed in {@link #vary()}. Cached responses are dropped when a
+ * service is registered on or unregistered from the address.
+ *
+ * @author mnn
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface CachedResponse {
+
+    /**
+     * How long a response is served from the cache. 0 disables caching, so a
+     * method can opt out of the caching of its interface.
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * Request headers, besides Accept, that the response depends on.
+     */
+    String[] vary() default {};
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+import com.github.mnybon.deployer.rest.metrics.MetricsRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serialized GET responses shared by every endpoint of the deployer, bounded
+ * by the memory they hold and by their number. The least recently used
+ * responses are evicted first. Its statistics are published as an MBean on
+ * the {@link MBeanServer} services in the framework.
+ * <p>
+ * A response is only stored if no invalidation happened while it was being
+ * produced, so a response computed by a service that was unregistered in the
+ * meantime is never served.
+ *
+ * @author mnn
+ */
+public class ResponseCache implements ResponseCacheMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+
+    private final long maxBytes;
+    private final int maxEntries;
+    /**
+     * Guarded by this. Iterates from least to most recently used.
+     */
+    private final LinkedHashMap<String, ResponseCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private volatile long generation;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final List<MBeanServer> mBeanServers = new CopyOnWriteArrayList<>();
+    private ServiceTracker<MBeanServer, MBeanServer> mBeanServerSources;
+
+    public ResponseCache(long maxBytes, int maxEntries) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Starts publishing the statistics on the MBean servers registered in the
+     * framework.
+     */
+    public void open(BundleContext context) {
+        mBeanServerSources = new ServiceTracker<MBeanServer, MBeanServer>(context, MBeanServer.class, null) {
+            @Override
+            public MBeanServer addingService(ServiceReference<MBeanServer> reference) {
+                MBeanServer server = super.addingService(reference);
+                if (server != null) {
+                    mBeanServers.add(server);
+                    register(server);
+                }
+                return server;
+            }
+
+            @Override
+            public void removedService(ServiceReference<MBeanServer> reference, MBeanServer server) {
+                mBeanServers.remove(server);
+                unregister(server);
+                super.removedService(reference, server);
+            }
+        };
+        mBeanServerSources.open();
+    }
+
+    public void close() {
+        if (mBeanServerSources != null) {
+            mBeanServerSources.close();
+            mBeanServerSources = null;
+        }
+        clear();
+    }
+
+    /**
+     * @return the response cached under the key, or null if there is none or
+     * it has expired
+     */
+    ResponseCacheEntry get(String key) {
+        ResponseCacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                remove(key);
+                entry = null;
+            }
+        }
+        (entry == null ? misses : hits).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} for a response produced
+     * from now on
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the response unless the cache has been invalidated since the
+     * generation was read, or the response alone would exceed the size bound.
+     */
+    synchronized void put(String key, ResponseCacheEntry entry, long expectedGeneration) {
+        long size = entry.getSizeBytes(key);
+        if (expectedGeneration != generation || size > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        sizeBytes += size;
+        Iterator<Map.Entry<String, ResponseCacheEntry>> eldest = entries.entrySet().iterator();
+        while ((sizeBytes > maxBytes || entries.size() > maxEntries) && eldest.hasNext()) {
+            Map.Entry<String, ResponseCacheEntry> evicted = eldest.next();
+            sizeBytes -= evicted.getValue().getSizeBytes(evicted.getKey());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every response cached for the address.
+     */
+    public void invalidate(String address) {
+        invalidate(address, null);
+    }
+
+    /**
+     * Drops the responses cached for the resource class on the address, or for
+     * every resource on it if the class is null.
+     */
+    public synchronized void invalidate(String address, Class<?> resourceClass) {
+        generation++;
+        Iterator<Map.Entry<String, ResponseCacheEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ResponseCacheEntry> entry = iterator.next();
+            ResponseCacheEntry value = entry.getValue();
+            if (value.getAddress().equals(address) && (resourceClass == null || resourceClass.equals(value.getResourceClass()))) {
+                sizeBytes -= value.getSizeBytes(entry.getKey());
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        ResponseCacheEntry removed = entries.remove(key);
+        if (removed != null) {
+            sizeBytes -= removed.getSizeBytes(key);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    @Override
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    static ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(MetricsRegistry.DOMAIN + ":type=ResponseCache");
+    }
+
+    private void register(MBeanServer server) {
+        try {
+            ObjectName name = getObjectName();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("Could not register the response cache MBean", ex);
+        }
+    }
+
+    private void unregister(MBeanServer server) {
+        try {
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            LOGGER.debug("Could not unregister the response cache MBean", ex);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResponseCache{" + "entries=" + entries.size() + ", sizeBytes=" + sizeBytes + ", maxBytes=" + maxBytes + ", maxEntries=" + maxEntries + '}';
+    }
+
+}
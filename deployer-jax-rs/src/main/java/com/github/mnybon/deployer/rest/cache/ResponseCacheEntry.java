@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.core.Response;
+
+/**
+ * A serialized response held by the {@link ResponseCache}.
+ *
+ * @author mnn
+ */
+class ResponseCacheEntry {
+
+    /**
+     * Rough per entry cost of the key, the entry and the map node, on top of
+     * the body.
+     */
+    private static final int OVERHEAD_BYTES = 128;
+
+    private final String address;
+    private final Class<?> resourceClass;
+    private final byte[] body;
+    private final String mediaType;
+    private final Map<String, List<String>> headers;
+    private final long expiresAtNanos;
+
+    ResponseCacheEntry(String address, Class<?> resourceClass, byte[] body, String mediaType, Map<String, List<String>> headers, long expiresAtNanos) {
+        this.address = address;
+        this.resourceClass = resourceClass;
+        this.body = body;
+        this.mediaType = mediaType;
+        this.headers = headers;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    Class<?> getResourceClass() {
+        return resourceClass;
+    }
+
+    boolean isExpired(long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+
+    long getSizeBytes(String key) {
+        return body.length + 2L * key.length() + OVERHEAD_BYTES;
+    }
+
+    /**
+     * @return a 200 response with the cached body and headers
+     */
+    Response toResponse() {
+        Response.ResponseBuilder builder = Response.ok(body, mediaType);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+import com.github.mnybon.deployer.rest.annotation.CachedResponse;
+import com.github.mnybon.deployer.rest.encoding.ResponseEncodingInterceptor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.RuntimeDelegate;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.PhaseInterceptorChain;
+
+/**
+ * Serves the GET methods annotated with {@link CachedResponse} from a
+ * {@link ResponseCache}. Registered as a provider, with the address of the
+ * endpoint, on the endpoints that deploy such a resource.
+ * <p>
+ * As a request filter it runs once the resource method has been matched, and
+ * answers from the cache before the method is invoked. On a miss the response
+ * is copied into the cache as it is serialized. It runs inside the response
+ * encoding, so the body is cached before it is compressed. Streamed bodies
+ * are not cached.
+ *
+ * @author mnn
+ */
+@Priority(Priorities.USER)
+public class ResponseCacheFilter implements ContainerRequestFilter, WriterInterceptor {
+
+    private static final String KEY = ResponseCacheFilter.class.getName() + ".key";
+    private static final String GENERATION = ResponseCacheFilter.class.getName() + ".generation";
+    private static final String POLICY = ResponseCacheFilter.class.getName() + ".policy";
+    private static final CachePolicy NOT_CACHED = new CachePolicy(null, 0, new String[0]);
+
+    /**
+     * Headers that the response encoding and the transport recompute for
+     * every response.
+     */
+    private static final List<String> UNCACHED_HEADERS = Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_ENCODING, HttpHeaders.ETAG, HttpHeaders.VARY, HttpHeaders.DATE);
+
+    private final ResponseCache cache;
+    private final String address;
+    private final ConcurrentMap<OperationResourceInfo, CachePolicy> policies = new ConcurrentHashMap<>();
+
+    public ResponseCacheFilter(ResponseCache cache, String address) {
+        this.cache = cache;
+        this.address = address;
+    }
+
+    /**
+     * @return true if the resource class or one of its methods is annotated
+     * with {@link CachedResponse}
+     */
+    public static boolean isCached(Class<?> resourceClass) {
+        if (resourceClass.isAnnotationPresent(CachedResponse.class)) {
+            return true;
+        }
+        for (Method method : resourceClass.getMethods()) {
+            if (method.isAnnotationPresent(CachedResponse.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        if (!HttpMethod.GET.equals(request.getMethod())) {
+            return;
+        }
+        Message message = PhaseInterceptorChain.getCurrentMessage();
+        Exchange exchange = message == null ? null : message.getExchange();
+        OperationResourceInfo operation = exchange == null ? null : exchange.get(OperationResourceInfo.class);
+        if (operation == null) {
+            return;
+        }
+        CachePolicy policy = getPolicy(operation);
+        if (policy == NOT_CACHED) {
+            return;
+        }
+        String key = getKey(request, policy);
+        ResponseCacheEntry entry = cache.get(key);
+        if (entry != null) {
+            request.abortWith(entry.toResponse());
+            return;
+        }
+        exchange.put(KEY, key);
+        exchange.put(GENERATION, cache.getGeneration());
+        exchange.put(POLICY, policy);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Message message = PhaseInterceptorChain.getCurrentMessage();
+        Exchange exchange = message == null ? null : message.getExchange();
+        Object key = exchange == null ? null : exchange.remove(KEY);
+        Object status = key == null ? null : message.get(Message.RESPONSE_CODE);
+        if (key == null || (status instanceof Integer && (Integer) status != Response.Status.OK.getStatusCode())
+                || ResponseEncodingInterceptor.isStreamed(context.getEntity())) {
+            context.proceed();
+            return;
+        }
+        OutputStream target = context.getOutputStream();
+        CopyingOutputStream copy = new CopyingOutputStream(target, cache.getMaxBytes());
+        context.setOutputStream(copy);
+        try {
+            context.proceed();
+        } finally {
+            context.setOutputStream(target);
+        }
+        if (copy.isComplete()) {
+            CachePolicy policy = (CachePolicy) exchange.get(POLICY);
+            ResponseCacheEntry entry = new ResponseCacheEntry(address, policy.resourceClass, copy.toByteArray(),
+                    context.getMediaType() == null ? null : context.getMediaType().toString(),
+                    copyHeaders(context.getHeaders()), System.nanoTime() + policy.ttlNanos);
+            cache.put((String) key, entry, (Long) exchange.get(GENERATION));
+        }
+    }
+
+    private CachePolicy getPolicy(OperationResourceInfo operation) {
+        CachePolicy policy = policies.get(operation);
+        if (policy == null) {
+            policy = createPolicy(operation);
+            policies.putIfAbsent(operation, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * Uses the annotation on the method if present, otherwise the one on its
+     * resource class.
+     */
+    private static CachePolicy createPolicy(OperationResourceInfo operation) {
+        if (!HttpMethod.GET.equals(operation.getHttpMethod())) {
+            return NOT_CACHED;
+        }
+        ClassResourceInfo resource = operation.getClassResourceInfo();
+        Class<?> resourceClass = resource == null ? null : resource.getResourceClass();
+        Method method = operation.getAnnotatedMethod();
+        CachedResponse annotation = method == null ? null : method.getAnnotation(CachedResponse.class);
+        if (annotation == null && resourceClass != null) {
+            annotation = resourceClass.getAnnotation(CachedResponse.class);
+        }
+        if (annotation == null || annotation.ttl() <= 0) {
+            return NOT_CACHED;
+        }
+        return new CachePolicy(resourceClass, annotation.unit().toNanos(annotation.ttl()), annotation.vary());
+    }
+
+    private String getKey(ContainerRequestContext request, CachePolicy policy) {
+        URI uri = request.getUriInfo().getRequestUri();
+        StringBuilder key = new StringBuilder(address).append('\n').append(uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            key.append('?').append(uri.getRawQuery());
+        }
+        appendHeader(key, request, HttpHeaders.ACCEPT);
+        for (String header : policy.vary) {
+            appendHeader(key, request, header);
+        }
+        return key.toString();
+    }
+
+    private static void appendHeader(StringBuilder key, ContainerRequestContext request, String header) {
+        String value = request.getHeaderString(header);
+        key.append('\n');
+        if (value != null) {
+            key.append(value);
+        }
+    }
+
+    private static Map<String, List<String>> copyHeaders(MultivaluedMap<String, Object> headers) {
+        Map<String, List<String>> copy = new HashMap<>();
+        for (Map.Entry<String, List<Object>> header : headers.entrySet()) {
+            if (containsIgnoreCase(UNCACHED_HEADERS, header.getKey())) {
+                continue;
+            }
+            List<String> values = new ArrayList<>(header.getValue().size());
+            for (Object value : header.getValue()) {
+                values.add(toString(value));
+            }
+            copy.put(header.getKey(), values);
+        }
+        return copy.isEmpty() ? Collections.<String, List<String>>emptyMap() : copy;
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String toString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        RuntimeDelegate.HeaderDelegate<Object> delegate = null;
+        try {
+            delegate = (RuntimeDelegate.HeaderDelegate<Object>) RuntimeDelegate.getInstance().createHeaderDelegate(value.getClass());
+        } catch (IllegalArgumentException ex) {
+            //No delegate for the type
+        }
+        return delegate == null ? value.toString() : delegate.toString(value);
+    }
+
+    private static class CachePolicy {
+
+        private final Class<?> resourceClass;
+        private final long ttlNanos;
+        private final String[] vary;
+
+        CachePolicy(Class<?> resourceClass, long ttlNanos, String[] vary) {
+            this.resourceClass = resourceClass;
+            this.ttlNanos = ttlNanos;
+            this.vary = vary;
+        }
+    }
+
+    /**
+     * Writes through to the target while keeping a copy, until the copy would
+     * exceed its limit.
+     */
+    private static class CopyingOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        CopyingOutputStream(OutputStream target, long limit) {
+            this.target = target;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len > limit) {
+                    copy = null;
+                } else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        boolean isComplete() {
+            return copy != null;
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+/**
+ * Statistics of the response cache of the deployer.
+ *
+ * @author mnn
+ */
+public interface ResponseCacheMBean {
+
+    public int getEntryCount();
+
+    /**
+     * @return the approximate memory held by the cached responses
+     */
+    public long getSizeBytes();
+
+    public long getMaxBytes();
+
+    public int getMaxEntries();
+
+    public long getHitCount();
+
+    public long getMissCount();
+
+    public double getHitRatio();
+
+    /**
+     * @return the number of responses dropped to make room for new ones
+     */
+    public long getEvictionCount();
+
+    /**
+     * @return the number of responses dropped because a service was
+     * registered on or unregistered from their address
+     */
+    public long getInvalidationCount();
+
+    /**
+     * Drops every cached response.
+     */
+    public void clear();
+
+}
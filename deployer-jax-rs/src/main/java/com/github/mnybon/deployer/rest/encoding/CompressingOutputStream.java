@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Holds the start of a body back until it has reached the compression
+ * threshold. A body that stays below the threshold is written as it is. A
+ * larger one is marked with its content coding, which is possible as nothing
+ * has been written yet, and compressed from then on.
+ * <p>
+ * {@link #finish()} must be called once the body has been written. The
+ * underlying stream is never closed.
+ *
+ * @author mnn
+ */
+class CompressingOutputStream extends OutputStream {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    private static final int COMPRESSOR_BUFFER_SIZE = 8192;
+
+    private final OutputStream target;
+    private final String coding;
+    private final MultivaluedMap<String, Object> headers;
+    private byte[] pending;
+    private int pendingCount;
+    private DeflaterOutputStream compressor;
+    private boolean finished;
+
+    /**
+     * @param target the stream the body is written to
+     * @param coding {@link #GZIP} or {@link #DEFLATE}
+     * @param threshold the smallest body that is compressed
+     * @param headers the response headers, given the Content-Encoding of a
+     * compressed body
+     */
+    CompressingOutputStream(OutputStream target, String coding, int threshold, MultivaluedMap<String, Object> headers) {
+        this.target = target;
+        this.coding = coding;
+        this.headers = headers;
+        this.pending = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("The body has already been written");
+        }
+        if (compressor == null) {
+            if (pendingCount + len < pending.length) {
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            startCompressing();
+        }
+        compressor.write(b, off, len);
+    }
+
+    private void startCompressing() throws IOException {
+        headers.putSingle(ResponseEncodingInterceptor.CONTENT_ENCODING, coding);
+        headers.remove(ResponseEncodingInterceptor.CONTENT_LENGTH);
+        compressor = newCompressor(target, coding);
+        compressor.write(pending, 0, pendingCount);
+        pending = null;
+    }
+
+    /**
+     * Flushes a compressed body. A body still held back stays held back, so
+     * the decision to compress is not taken early.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (compressor != null) {
+            compressor.flush();
+        }
+    }
+
+    /**
+     * Writes what is held back, or the end of the compressed body.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (compressor != null) {
+            compressor.close();
+        } else if (pendingCount > 0) {
+            target.write(pending, 0, pendingCount);
+        }
+        pending = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * @return a compressor of the content coding writing to the target. Closing
+     * it releases its deflater, but leaves the target open.
+     */
+    static DeflaterOutputStream newCompressor(OutputStream target, String coding) throws IOException {
+        OutputStream unclosable = new UnclosableOutputStream(target);
+        if (GZIP.equals(coding)) {
+            return new GZIPOutputStream(unclosable, COMPRESSOR_BUFFER_SIZE);
+        }
+        return new DeflaterOutputStream(unclosable, new Deflater(), COMPRESSOR_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    private static class UnclosableOutputStream extends OutputStream {
+
+        private final OutputStream target;
+
+        UnclosableOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            //The body is complete, the target is closed by its owner
+        }
+    }
+
+}
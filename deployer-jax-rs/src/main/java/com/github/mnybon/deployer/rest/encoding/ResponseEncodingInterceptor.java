@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.PhaseInterceptorChain;
+
+/**
+ * Compresses response bodies and answers conditional GET requests, as decided
+ * by a {@link ResponseEncodingPolicy}. Registered as a provider on the
+ * endpoints the policy applies to.
+ * <p>
+ * A body is compressed with gzip, or deflate for clients that only accept
+ * that, when its media type is compressible and it reaches the threshold of
+ * the policy. A tagged GET response is buffered and given a strong ETag
+ * computed from its content. When the request carries a matching
+ * If-None-Match the body is dropped and 304 Not Modified is sent instead, so
+ * only the serialization is paid for, not the transfer. The ETag of a
+ * compressed body carries the content coding as suffix, as the two
+ * representations differ byte for byte.
+ * <p>
+ * {@link #isStreamed(Object) Streamed} bodies are never buffered, so they are
+ * compressed but not tagged.
+ *
+ * @author mnn
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class ResponseEncodingInterceptor implements WriterInterceptor {
+
+    static final String CONTENT_ENCODING = "Content-Encoding";
+    static final String CONTENT_LENGTH = "Content-Length";
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String VARY = "Vary";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ResponseEncodingPolicy policy;
+
+    public ResponseEncodingInterceptor(ResponseEncodingPolicy policy) {
+        this.policy = policy;
+    }
+
+    public ResponseEncodingPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Message message = PhaseInterceptorChain.getCurrentMessage();
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        if (message == null || headers.containsKey(CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+        Exchange exchange = message.getExchange();
+        Map<String, List<String>> requestHeaders = getRequestHeaders(exchange);
+        Class<?> resource = getResourceClass(exchange);
+
+        String coding = null;
+        if (policy.isCompressed(resource) && policy.isCompressible(context.getMediaType())) {
+            headers.add(VARY, ACCEPT_ENCODING);
+            coding = selectCoding(getHeader(requestHeaders, ACCEPT_ENCODING));
+        }
+        boolean tagged = policy.isTagged(resource) && !isStreamed(context.getEntity()) && isTaggable(message, exchange, headers);
+        if (!tagged && coding == null) {
+            context.proceed();
+            return;
+        }
+
+        OutputStream target = context.getOutputStream();
+        if (!tagged) {
+            CompressingOutputStream compressing = new CompressingOutputStream(target, coding, policy.getCompressionThreshold(), headers);
+            context.setOutputStream(compressing);
+            try {
+                context.proceed();
+            } finally {
+                context.setOutputStream(target);
+            }
+            compressing.finish();
+            return;
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        context.setOutputStream(body);
+        try {
+            context.proceed();
+        } finally {
+            context.setOutputStream(target);
+        }
+        if (body.size() < policy.getCompressionThreshold()) {
+            coding = null;
+        }
+        String hash = hash(body);
+        headers.putSingle(HttpHeaders.ETAG, '"' + (coding == null ? hash : hash + '-' + coding) + '"');
+        if (matches(getHeader(requestHeaders, HttpHeaders.IF_NONE_MATCH), hash)) {
+            message.put(Message.RESPONSE_CODE, Response.Status.NOT_MODIFIED.getStatusCode());
+            headers.remove(HttpHeaders.CONTENT_TYPE);
+            headers.remove(CONTENT_LENGTH);
+            return;
+        }
+        if (coding == null) {
+            body.writeTo(target);
+            return;
+        }
+        headers.putSingle(CONTENT_ENCODING, coding);
+        headers.remove(CONTENT_LENGTH);
+        try (DeflaterOutputStream compressor = CompressingOutputStream.newCompressor(target, coding)) {
+            body.writeTo(compressor);
+        }
+    }
+
+    /**
+     * @return true if the entity is written as a stream of unknown and
+     * possibly unbounded length, which must not be held in memory
+     */
+    public static boolean isStreamed(Object entity) {
+        return entity instanceof StreamingOutput || entity instanceof InputStream || entity instanceof Reader || entity instanceof File;
+    }
+
+    /**
+     * Only successful GET and HEAD responses not tagged by the resource itself
+     * are tagged.
+     */
+    private static boolean isTaggable(Message message, Exchange exchange, MultivaluedMap<String, Object> headers) {
+        Object status = message.get(Message.RESPONSE_CODE);
+        if (status instanceof Integer && (Integer) status != Response.Status.OK.getStatusCode()) {
+            return false;
+        }
+        Message in = exchange == null ? null : exchange.getInMessage();
+        Object method = in == null ? null : in.get(Message.HTTP_REQUEST_METHOD);
+        return (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) && !headers.containsKey(HttpHeaders.ETAG);
+    }
+
+    private static Class<?> getResourceClass(Exchange exchange) {
+        OperationResourceInfo operation = exchange == null ? null : exchange.get(OperationResourceInfo.class);
+        ClassResourceInfo resource = operation == null ? null : operation.getClassResourceInfo();
+        return resource == null ? null : resource.getResourceClass();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<String>> getRequestHeaders(Exchange exchange) {
+        Message in = exchange == null ? null : exchange.getInMessage();
+        return in == null ? null : (Map<String, List<String>>) in.get(Message.PROTOCOL_HEADERS);
+    }
+
+    /**
+     * @return the values of the header joined by commas, or null if the
+     * request does not have it. CXF keys request headers case insensitively.
+     */
+    private static String getHeader(Map<String, List<String>> requestHeaders, String name) {
+        List<String> values = requestHeaders == null ? null : requestHeaders.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * @return gzip if the Accept-Encoding header allows it, otherwise deflate
+     * if that is allowed, otherwise null
+     */
+    static String selectCoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        Boolean gzip = null;
+        Boolean deflate = null;
+        Boolean any = null;
+        for (String element : acceptEncoding.split(",")) {
+            int parameters = element.indexOf(';');
+            String coding = (parameters < 0 ? element : element.substring(0, parameters)).trim().toLowerCase();
+            boolean accepted = parameters < 0 || !isZeroQuality(element.substring(parameters + 1));
+            if (CompressingOutputStream.GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                gzip = accepted;
+            } else if (CompressingOutputStream.DEFLATE.equals(coding)) {
+                deflate = accepted;
+            } else if ("*".equals(coding)) {
+                any = accepted;
+            }
+        }
+        if (gzip == null ? Boolean.TRUE.equals(any) : gzip) {
+            return CompressingOutputStream.GZIP;
+        }
+        if (deflate == null ? Boolean.TRUE.equals(any) : deflate) {
+            return CompressingOutputStream.DEFLATE;
+        }
+        return null;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(trimmed.substring(2).trim()) <= 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the If-None-Match header with the hash of the body using the
+     * weak comparison RFC 7232 prescribes for it. A tag matches whatever
+     * content coding suffix it carries, as the client has the same content.
+     */
+    static boolean matches(String ifNoneMatch, String hash) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String element : ifNoneMatch.split(",")) {
+            String tag = element.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+                continue;
+            }
+            tag = tag.substring(1, tag.length() - 1);
+            if (tag.equals(hash) || tag.equals(hash + '-' + CompressingOutputStream.GZIP) || tag.equals(hash + '-' + CompressingOutputStream.DEFLATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hash(ByteArrayOutputStream body) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("MD5 is not available", ex);
+        }
+        body.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        });
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Decides which responses of an endpoint are compressed and which are given an
+ * ETag. Both can be switched on for every resource of the endpoint, or for
+ * single resources identified by their service interface.
+ *
+ * @author mnn
+ */
+public class ResponseEncodingPolicy {
+
+    private final int compressionThreshold;
+    private final List<MediaType> compressedTypes = new ArrayList<>();
+    private boolean compressAll;
+    private boolean tagAll;
+    private final Set<Class<?>> compressedResources = new HashSet<>();
+    private final Set<Class<?>> taggedResources = new HashSet<>();
+
+    /**
+     * @param compressionThreshold the smallest body in bytes that is
+     * compressed
+     * @param compressedTypes the media types that are compressed, as
+     * type/subtype or type/*
+     */
+    public ResponseEncodingPolicy(int compressionThreshold, Collection<String> compressedTypes) {
+        this.compressionThreshold = Math.max(0, compressionThreshold);
+        for (String type : compressedTypes) {
+            this.compressedTypes.add(MediaType.valueOf(type));
+        }
+    }
+
+    public void compressAll() {
+        compressAll = true;
+    }
+
+    public void compress(Class<?> resource) {
+        compressedResources.add(resource);
+    }
+
+    public void tagAll() {
+        tagAll = true;
+    }
+
+    public void tag(Class<?> resource) {
+        taggedResources.add(resource);
+    }
+
+    /**
+     * @return true if no response is compressed or tagged
+     */
+    public boolean isEmpty() {
+        return !compressAll && !tagAll && compressedResources.isEmpty() && taggedResources.isEmpty();
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param resource the resource class that produced the response, or null
+     * if unknown
+     */
+    public boolean isCompressed(Class<?> resource) {
+        return compressAll || (resource != null && compressedResources.contains(resource));
+    }
+
+    /**
+     * @param resource the resource class that produced the response, or null
+     * if unknown
+     */
+    public boolean isTagged(Class<?> resource) {
+        return tagAll || (resource != null && taggedResources.contains(resource));
+    }
+
+    /**
+     * @return true if the media type is in the compressed types. Parameters
+     * such as the charset are ignored.
+     */
+    public boolean isCompressible(MediaType mediaType) {
+        if (mediaType == null) {
+            return false;
+        }
+        for (MediaType type : compressedTypes) {
+            if (type.getType().equalsIgnoreCase(mediaType.getType())
+                    && (type.isWildcardSubtype() || type.getSubtype().equalsIgnoreCase(mediaType.getSubtype()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseEncodingPolicy{" + "compressionThreshold=" + compressionThreshold + ", compressedTypes=" + compressedTypes
+                + ", compressAll=" + compressAll + ", compressedResources=" + compressedResources
+                + ", tagAll=" + tagAll + ", taggedResources=" + taggedResources + '}';
+    }
+
+}
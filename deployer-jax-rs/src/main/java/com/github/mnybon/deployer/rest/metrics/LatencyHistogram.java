@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into
+ * eight equally wide buckets, so a percentile is accurate to within 12.5%
+ * regardless of magnitude. Buckets, counts and sums are spread over stripes
+ * selected by the recording thread, so threads recording at the same time
+ * rarely contend on the same cache line. The stripes are merged when read.
+ * The buckets of a stripe are allocated when a thread first records into it,
+ * so a histogram only pays for the stripes in use.
+ *
+ * @author mnn
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    /**
+     * Longs between the used slots of a stripe array, to keep stripes on
+     * separate cache lines.
+     */
+    private static final int PADDING = 8;
+
+    private final int stripeMask;
+    private final AtomicReferenceArray<AtomicLongArray> buckets;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray sums;
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(64, Runtime.getRuntime().availableProcessors())) * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.buckets = new AtomicReferenceArray<>(stripes);
+        this.counts = new AtomicLongArray(stripes * PADDING);
+        this.sums = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = stripe();
+        getBuckets(stripe).incrementAndGet(bucketOf(value));
+        counts.incrementAndGet(stripe * PADDING);
+        sums.addAndGet(stripe * PADDING, value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return sum(counts);
+    }
+
+    public long getTotalNanos() {
+        return sum(sums);
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getTotalNanos() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the value at the
+     * percentile, or 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int stripe = 0; stripe < buckets.length(); stripe++) {
+            AtomicLongArray stripeBuckets = buckets.get(stripe);
+            if (stripeBuckets == null) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = stripeBuckets.get(i);
+                snapshot[i] += count;
+                total += count;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(upperBoundOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Clears the histogram. Values recorded while resetting may be partially
+     * lost.
+     */
+    public void reset() {
+        for (int stripe = 0; stripe < buckets.length(); stripe++) {
+            AtomicLongArray stripeBuckets = buckets.get(stripe);
+            if (stripeBuckets == null) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                stripeBuckets.set(i, 0);
+            }
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+            sums.set(i, 0);
+        }
+        max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long upperBoundOf(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    private AtomicLongArray getBuckets(int stripe) {
+        AtomicLongArray stripeBuckets = buckets.get(stripe);
+        if (stripeBuckets == null) {
+            buckets.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+            stripeBuckets = buckets.get(stripe);
+        }
+        return stripeBuckets;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & stripeMask);
+    }
+
+    private static long sum(AtomicLongArray stripes) {
+        long sum = 0;
+        for (int i = 0; i < stripes.length(); i += PADDING) {
+            sum += stripes.get(i);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Stamps the exchange with the time the request was received, as the first
+ * phase of the in chain.
+ *
+ * @author mnn
+ */
+public class MetricsInInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    static final String START_TIME = MetricsInInterceptor.class.getName() + ".start";
+
+    public MetricsInInterceptor() {
+        super(Phase.RECEIVE);
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        message.getExchange().put(START_TIME, System.nanoTime());
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.jaxrs.model.URITemplate;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Records the latency of a request once its response has been written. Added
+ * to both the out and the out fault chain of an endpoint. Requests that did
+ * not match a resource method are all recorded under the path "unmatched"
+ * and the method "*", as nothing taken from such a request is safe to key
+ * metrics by.
+ *
+ * @author mnn
+ */
+public class MetricsOutInterceptor extends AbstractPhaseInterceptor<Message> {
+
+    static final String UNMATCHED = "unmatched";
+    static final String ANY_METHOD = "*";
+
+    private final MetricsRegistry registry;
+    private final String address;
+    private final boolean fault;
+    /**
+     * The operations of an endpoint never change, so their metrics are looked
+     * up without building a key once seen.
+     */
+    private final ConcurrentMap<OperationResourceInfo, ResourceMetrics> operations = new ConcurrentHashMap<>();
+
+    public MetricsOutInterceptor(MetricsRegistry registry, String address, boolean fault) {
+        super(Phase.SETUP_ENDING);
+        this.registry = registry;
+        this.address = address;
+        this.fault = fault;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        record(message);
+    }
+
+    @Override
+    public void handleFault(Message message) {
+        record(message);
+    }
+
+    private void record(Message message) {
+        Exchange exchange = message.getExchange();
+        Object start = exchange.remove(MetricsInInterceptor.START_TIME);
+        if (!(start instanceof Long)) {
+            return; //Already recorded, or not received through this endpoint
+        }
+        long nanos = System.nanoTime() - (Long) start;
+        Integer status = (Integer) message.get(Message.RESPONSE_CODE);
+        boolean error = fault || (status != null && status >= 500);
+        getMetrics(exchange).record(nanos, error);
+    }
+
+    private ResourceMetrics getMetrics(Exchange exchange) {
+        OperationResourceInfo operation = exchange.get(OperationResourceInfo.class);
+        if (operation == null) {
+            return registry.getMetrics(address, UNMATCHED, ANY_METHOD);
+        }
+        ResourceMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = registry.getMetrics(address, getPath(operation),
+                    operation.getHttpMethod() == null ? "SUBRESOURCE" : operation.getHttpMethod());
+            operations.putIfAbsent(operation, metrics);
+        }
+        return metrics;
+    }
+
+    private static String getPath(OperationResourceInfo operation) {
+        StringBuilder path = new StringBuilder();
+        ClassResourceInfo resource = operation.getClassResourceInfo();
+        if (resource != null && resource.getURITemplate() != null) {
+            append(path, resource.getURITemplate());
+        }
+        if (operation.getURITemplate() != null) {
+            append(path, operation.getURITemplate());
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+
+    private static void append(StringBuilder path, URITemplate template) {
+        String value = template.getValue();
+        if (value.isEmpty() || value.equals("/")) {
+            return;
+        }
+        if (!value.startsWith("/") && (path.length() == 0 || path.charAt(path.length() - 1) != '/')) {
+            path.append('/');
+        }
+        if (value.startsWith("/") && path.length() > 0 && path.charAt(path.length() - 1) == '/') {
+            value = value.substring(1);
+        }
+        path.append(value);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the metrics of every deployed resource and publishes them as MBeans on
+ * the {@link MBeanServer} services in the framework.
+ *
+ * @author mnn
+ */
+public class MetricsRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public static final String DOMAIN = "com.github.mnybon.deployer";
+
+    private final ConcurrentMap<String, ResourceMetrics> metrics = new ConcurrentHashMap<>();
+    private final List<MBeanServer> mBeanServers = new CopyOnWriteArrayList<>();
+    private ServiceTracker<MBeanServer, MBeanServer> mBeanServerSources;
+
+    /**
+     * Starts publishing metrics on the MBean servers registered in the
+     * framework.
+     */
+    public void open(BundleContext context) {
+        mBeanServerSources = new ServiceTracker<MBeanServer, MBeanServer>(context, MBeanServer.class, null) {
+            @Override
+            public MBeanServer addingService(ServiceReference<MBeanServer> reference) {
+                MBeanServer server = super.addingService(reference);
+                if (server != null) {
+                    mBeanServers.add(server);
+                    for (ResourceMetrics resource : metrics.values()) {
+                        register(server, resource);
+                    }
+                }
+                return server;
+            }
+
+            @Override
+            public void removedService(ServiceReference<MBeanServer> reference, MBeanServer server) {
+                mBeanServers.remove(server);
+                for (ResourceMetrics resource : metrics.values()) {
+                    unregister(server, resource);
+                }
+                super.removedService(reference, server);
+            }
+        };
+        mBeanServerSources.open();
+    }
+
+    public void close() {
+        if (mBeanServerSources != null) {
+            mBeanServerSources.close();
+            mBeanServerSources = null;
+        }
+        metrics.clear();
+    }
+
+    /**
+     * @return the metrics of the HTTP method on the path of the address,
+     * created and published if this is the first request to it
+     */
+    public ResourceMetrics getMetrics(String address, String path, String method) {
+        String key = address + " " + path + " " + method;
+        ResourceMetrics resource = metrics.get(key);
+        if (resource == null) {
+            ResourceMetrics created = new ResourceMetrics(address, path, method);
+            resource = metrics.putIfAbsent(key, created);
+            if (resource == null) {
+                resource = created;
+                for (MBeanServer server : mBeanServers) {
+                    register(server, resource);
+                }
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * @return the metrics recorded so far, across all addresses
+     */
+    public List<ResourceMetrics> getMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * Drops and unpublishes the metrics of every resource on the address.
+     */
+    public void removeAddress(String address) {
+        for (ResourceMetrics resource : metrics.values()) {
+            if (resource.getAddress().equals(address)
+                    && metrics.remove(resource.getAddress() + " " + resource.getPath() + " " + resource.getMethod(), resource)) {
+                for (MBeanServer server : mBeanServers) {
+                    unregister(server, resource);
+                }
+            }
+        }
+    }
+
+    static ObjectName getObjectName(ResourceMetrics resource) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=ResourceMetrics"
+                + ",address=" + ObjectName.quote(resource.getAddress())
+                + ",path=" + ObjectName.quote(resource.getPath())
+                + ",method=" + ObjectName.quote(resource.getMethod()));
+    }
+
+    private void register(MBeanServer server, ResourceMetrics resource) {
+        try {
+            ObjectName name = getObjectName(resource);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(resource, name);
+            }
+        } catch (JMException | RuntimeException ex) {
+            LOGGER.warn("Could not register metrics MBean for {}", resource, ex);
+        }
+    }
+
+    private void unregister(MBeanServer server, ResourceMetrics resource) {
+        try {
+            ObjectName name = getObjectName(resource);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | RuntimeException ex) {
+            LOGGER.debug("Could not unregister metrics MBean for {}", resource, ex);
+        }
+    }
+
+}
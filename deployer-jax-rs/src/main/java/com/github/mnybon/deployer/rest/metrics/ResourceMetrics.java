@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author mnn
+ */
+public class ResourceMetrics implements ResourceMetricsMBean {
+
+    private final String address;
+    private final String path;
+    private final String method;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    public ResourceMetrics(String address, String path, String method) {
+        this.address = address;
+        this.path = path;
+        this.method = method;
+    }
+
+    public void record(long nanos, boolean error) {
+        latencies.record(nanos);
+        if (error) {
+            errors.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.getMaxNanos() / 1000d;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.getPercentileNanos(50) / 1000d;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return latencies.getPercentileNanos(90) / 1000d;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.getPercentileNanos(99) / 1000d;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latencies.getPercentileNanos(99.9) / 1000d;
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        errors.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceMetrics{" + "address=" + address + ", path=" + path + ", method=" + method + ", requests=" + getRequestCount() + '}';
+    }
+
+}
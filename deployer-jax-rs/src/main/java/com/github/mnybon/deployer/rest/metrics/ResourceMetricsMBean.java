@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+/**
+ * Request statistics of one HTTP method of a deployed resource. Latencies are
+ * measured from the request being received until the response has been
+ * written, in microseconds.
+ *
+ * @author mnn
+ */
+public interface ResourceMetricsMBean {
+
+    public String getAddress();
+
+    public String getPath();
+
+    public String getMethod();
+
+    public long getRequestCount();
+
+    /**
+     * @return the number of requests that failed with a fault or a 5xx status
+     */
+    public long getErrorCount();
+
+    public double getMeanMicros();
+
+    public double getMaxMicros();
+
+    public double getP50Micros();
+
+    public double getP90Micros();
+
+    public double getP99Micros();
+
+    public double getP999Micros();
+
+    public void reset();
+
+}
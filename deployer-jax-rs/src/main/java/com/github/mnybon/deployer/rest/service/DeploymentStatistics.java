@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.service;
+
+/**
+ *
+ * @author mnn
+ */
+public interface DeploymentStatistics {
+
+    /**
+     * @return the number of server rebuilds requested by service events
+     */
+    public long getRequestedRebuilds();
+
+    /**
+     * @return the number of server rebuilds actually performed
+     */
+    public long getPerformedRebuilds();
+
+    /**
+     * @return the number of requested rebuilds that were coalesced into
+     * another rebuild of the same address
+     */
+    public long getSavedRebuilds();
+
+    /**
+     * @return the time in milliseconds it took to deploy the services already
+     * running when the deployer started
+     */
+    public long getStartupScanMillis();
+
+    /**
+     * @return the number of addresses built when the deployer started
+     */
+    public int getStartupScanAddresses();
+
+}
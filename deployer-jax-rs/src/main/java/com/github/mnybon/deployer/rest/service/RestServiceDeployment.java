@@ -15,13 +15,24 @@
  */
 package com.github.mnybon.deployer.rest.service;
 
+import java.util.concurrent.Future;
+
 /**
+ * Servers are built asynchronously. The returned futures complete once the
+ * affected servers are live.
  *
  * @author mnn
  */
 public interface RestServiceDeployment {
  
-    public void rebuildClosedServers();
-    public void rebuildServers(Integer port);
+    public Future<Void> rebuildClosedServers();
+    public Future<Void> rebuildServers(Integer port);
+
+    /**
+     * @param address the address of a server, as given by {@code target_server}
+     * @return a future completing when the latest requested build of the
+     * server on the address is live
+     */
+    public Future<Void> getDeployment(String address);
     
 }
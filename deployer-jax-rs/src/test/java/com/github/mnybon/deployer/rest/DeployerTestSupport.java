@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Stand-ins for the framework objects the deployer talks to, and a plain HTTP
+ * client, for tests deploying real endpoints outside of an OSGi container.
+ *
+ * @author mnn
+ */
+final class DeployerTestSupport {
+
+    private DeployerTestSupport() {
+    }
+
+    /**
+     * @return a bundle context that has no services registered and hands out
+     * the service of a {@link StubServiceReference}
+     */
+    static BundleContext newBundleContext() {
+        return newBundleContext(null);
+    }
+
+    /**
+     * @param dataArea the directory of the files of the data area, or null if
+     * the framework has no file system support
+     * @return a bundle context like {@link #newBundleContext()}, with the
+     * given data area
+     */
+    static BundleContext newBundleContext(final File dataArea) {
+        return (BundleContext) Proxy.newProxyInstance(DeployerTestSupport.class.getClassLoader(),
+                new Class<?>[]{BundleContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getService":
+                        return args[0] instanceof StubServiceReference ? ((StubServiceReference) args[0]).service : null;
+                    case "ungetService":
+                        return Boolean.TRUE;
+                    case "getDataFile":
+                        return dataArea == null ? null : new File(dataArea, (String) args[0]);
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a port on the loopback interface that was free when asked
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Sends a GET request without following redirects or throwing on error
+     * statuses.
+     */
+    static Response get(String url, String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(status, body.toByteArray(), connection);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type.isArray()) {
+            return Array.newInstance(type.getComponentType(), 0);
+        }
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    static class Response {
+
+        private final int status;
+        private final byte[] body;
+        private final HttpURLConnection connection;
+
+        Response(int status, byte[] body, HttpURLConnection connection) {
+            this.status = status;
+            this.body = body;
+            this.connection = connection;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        String getText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+    }
+
+    static class StubServiceReference implements ServiceReference<Object> {
+
+        private final Map<String, Object> properties = new HashMap<>();
+        private final Object service;
+
+        StubServiceReference(long id, String objectClass, String address, Object service) {
+            this.service = service;
+            properties.put(Constants.SERVICE_ID, id);
+            properties.put(Constants.OBJECTCLASS, new String[]{objectClass});
+            if (address != null) {
+                properties.put(com.github.mnybon.deployer.rest.Constants.TARGET_SERVER, address);
+            }
+        }
+
+        StubServiceReference withProperty(String key, Object value) {
+            properties.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys() {
+            return properties.keySet().toArray(new String[properties.size()]);
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return null;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles() {
+            return new Bundle[0];
+        }
+
+        @Override
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        @Override
+        public int compareTo(Object reference) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "StubServiceReference" + properties.get(Constants.SERVICE_ID);
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.easymock.EasyMock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class DeploymentSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenSnapshotIsReadBack() throws Exception {
+        Bundle bundle = newBundle("com.example.services", "1.2.0", 42);
+        Map<String, Set<String>> addresses = new HashMap<>();
+        addresses.put("http://localhost:8080/a", set("com.example.services:com.example.A", "com.example.services:com.example.B"));
+        addresses.put("/b", set(":com.example.C"));
+        Map<String, Set<String>> plainClasses = new HashMap<>();
+        plainClasses.put(DeploymentSnapshot.bundleKey(bundle), set("com.example.Plain", "java.lang.Runnable"));
+        File file = new File(folder.getRoot(), DeploymentSnapshot.FILE_NAME);
+
+        new DeploymentSnapshot(addresses, plainClasses).write(file);
+        DeploymentSnapshot read = DeploymentSnapshot.read(file);
+
+        assertEquals(addresses, read.getAddresses());
+        assertEquals(set("com.example.Plain", "java.lang.Runnable"), read.getPlainClasses(bundle));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void classificationsAreOnlyReusedForTheSameBundleBuild() throws Exception {
+        Map<String, Set<String>> plainClasses = new HashMap<>();
+        plainClasses.put(DeploymentSnapshot.bundleKey(newBundle("com.example.services", "1.2.0", 42)), set("com.example.Plain"));
+        DeploymentSnapshot snapshot = new DeploymentSnapshot(Collections.<String, Set<String>>emptyMap(), plainClasses);
+
+        assertEquals(set("com.example.Plain"), snapshot.getPlainClasses(newBundle("com.example.services", "1.2.0", 42)));
+        assertTrue(snapshot.getPlainClasses(newBundle("com.example.services", "1.2.0", 43)).isEmpty());
+        assertTrue(snapshot.getPlainClasses(newBundle("com.example.services", "1.3.0", 42)).isEmpty());
+        assertTrue(snapshot.getPlainClasses(newBundle("com.example.other", "1.2.0", 42)).isEmpty());
+    }
+
+    @Test
+    public void newSnapshotReplacesTheOldOne() throws Exception {
+        File file = new File(folder.getRoot(), DeploymentSnapshot.FILE_NAME);
+        new DeploymentSnapshot(Collections.singletonMap("/old", set(":Old")), Collections.<String, Set<String>>emptyMap()).write(file);
+
+        new DeploymentSnapshot(Collections.singletonMap("/new", set(":New")), Collections.<String, Set<String>>emptyMap()).write(file);
+
+        assertEquals(Collections.singletonMap("/new", set(":New")), DeploymentSnapshot.read(file).getAddresses());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshotIsRejected() throws Exception {
+        File file = new File(folder.getRoot(), DeploymentSnapshot.FILE_NAME);
+        new DeploymentSnapshot(Collections.singletonMap("/a", set(":A", ":B")), Collections.<String, Set<String>>emptyMap()).write(file);
+        byte[] written = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(written, written.length - 3));
+
+        DeploymentSnapshot.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void fileThatIsNotASnapshotIsRejected() throws Exception {
+        File file = folder.newFile(DeploymentSnapshot.FILE_NAME);
+        Files.write(file.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+
+        DeploymentSnapshot.read(file);
+    }
+
+    @Test
+    public void snapshotOfAnotherVersionIsRejected() throws Exception {
+        File file = folder.newFile(DeploymentSnapshot.FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(2);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        try {
+            DeploymentSnapshot.read(file);
+            fail("Read a snapshot of another version");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("version 2"));
+        }
+    }
+
+    private static Bundle newBundle(String symbolicName, String version, long lastModified) {
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        EasyMock.expect(bundle.getVersion()).andReturn(Version.parseVersion(version)).anyTimes();
+        EasyMock.expect(bundle.getLastModified()).andReturn(lastModified).anyTimes();
+        EasyMock.replay(bundle);
+        return bundle;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.endpoint.ServerRegistry;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deploys a lazy address and drives the building, idle eviction and
+ * rebuilding of its endpoint, also while requests are in flight.
+ *
+ * @author mnn
+ */
+public class LazyEndpointTest {
+
+    @Path("/lazy")
+    public interface LazyResource {
+
+        @GET
+        String get();
+
+        @GET
+        @Path("/slow")
+        String getSlow() throws InterruptedException;
+    }
+
+    public static class LazyResourceImpl implements LazyResource {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch proceed = new CountDownLatch(1);
+
+        @Override
+        public String get() {
+            return "lazy";
+        }
+
+        @Override
+        public String getSlow() throws InterruptedException {
+            entered.countDown();
+            proceed.await(1, TimeUnit.MINUTES);
+            return "slow";
+        }
+    }
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private LazyResourceImpl resource;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        context = DeployerTestSupport.newBundleContext();
+        port = DeployerTestSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/lazy";
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.LAZY_ADDRESSES, address);
+        deployer = new RestDeployer();
+        deployer.activate(context, properties);
+        resource = new LazyResourceImpl();
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new StubServiceReference(1, LazyResource.class.getName(), address, resource)));
+        deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void tearDown() {
+        deployer.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void firstRequestBuildsTheEndpoint() throws Exception {
+        assertEquals(0, getServerCount());
+
+        DeployerTestSupport.Response response = DeployerTestSupport.get(address + "/lazy");
+
+        assertEquals(200, response.getStatus());
+        assertEquals("lazy", response.getText());
+        assertEquals(1, getServerCount());
+    }
+
+    @Test
+    public void idleEndpointIsBuiltAgainByTheNextRequest() throws Exception {
+        assertEquals("lazy", DeployerTestSupport.get(address + "/lazy").getText());
+
+        deployer.evictIdleEndpoints(0);
+        assertEquals(0, getServerCount());
+
+        assertEquals("lazy", DeployerTestSupport.get(address + "/lazy").getText());
+        assertEquals(1, getServerCount());
+    }
+
+    @Test
+    public void requestInFlightIsAnsweredByTheEvictedEndpoint() throws Exception {
+        assertEquals("lazy", DeployerTestSupport.get(address + "/lazy").getText());
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<DeployerTestSupport.Response> slow = client.submit(new Callable<DeployerTestSupport.Response>() {
+                @Override
+                public DeployerTestSupport.Response call() throws Exception {
+                    return DeployerTestSupport.get(address + "/lazy/slow");
+                }
+            });
+            assertTrue(resource.entered.await(1, TimeUnit.MINUTES));
+
+            deployer.evictIdleEndpoints(0);
+            resource.proceed.countDown();
+
+            assertEquals("slow", slow.get(1, TimeUnit.MINUTES).getText());
+            assertEquals("lazy", DeployerTestSupport.get(address + "/lazy").getText());
+        } finally {
+            resource.proceed.countDown();
+            client.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestsRacingEvictionAndRebuildAreServed() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger served = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get() && failure.get() == null) {
+                        try {
+                            DeployerTestSupport.Response response = DeployerTestSupport.get(address + "/lazy");
+                            if (response.getStatus() != 200 || !"lazy".equals(response.getText())) {
+                                failure.set("Got " + response.getStatus() + " " + response.getText());
+                            }
+                            served.incrementAndGet();
+                        } catch (Exception ex) {
+                            failure.set(ex.toString());
+                        }
+                    }
+                }
+            });
+            client.start();
+            clients.add(client);
+        }
+        try {
+            for (int i = 0; i < 100 && failure.get() == null; i++) {
+                deployer.evictIdleEndpoints(0);
+                Thread.sleep(1);
+                deployer.rebuildServer(address);
+                Thread.sleep(1);
+            }
+        } finally {
+            running.set(false);
+            for (Thread client : clients) {
+                client.join(TimeUnit.SECONDS.toMillis(30));
+            }
+        }
+
+        assertNull(failure.get());
+        assertTrue(served.get() > 0);
+        assertTrue(getServerCount() <= 1);
+        assertEquals("lazy", DeployerTestSupport.get(address + "/lazy").getText());
+        assertEquals(1, getServerCount());
+    }
+
+    private int getServerCount() {
+        return deployer.getBus().getExtension(ServerRegistry.class).getServers().size();
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+
+import static org.junit.Assert.*;
+
+/**
+ * Registers and unregisters provider services next to resources deployed on
+ * two addresses, and checks that only the addresses a provider targets are
+ * rebuilt.
+ *
+ * @author mnn
+ */
+public class ProviderTrackerTest {
+
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    public static class Greeting {
+
+        private final String text;
+
+        public Greeting(String text) {
+            this.text = text;
+        }
+    }
+
+    @Path("/first")
+    public interface FirstResource {
+
+        @GET
+        @Produces("text/plain")
+        Greeting get();
+    }
+
+    @Path("/second")
+    public interface SecondResource {
+
+        @GET
+        @Produces("text/plain")
+        Greeting get();
+    }
+
+    public static class GreetingResource implements FirstResource, SecondResource {
+
+        @Override
+        public Greeting get() {
+            return new Greeting("hello");
+        }
+    }
+
+    @Produces("text/plain")
+    public static class GreetingWriter implements MessageBodyWriter<Greeting> {
+
+        @Override
+        public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return Greeting.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public long getSize(Greeting greeting, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(Greeting greeting, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+            entityStream.write(("greeting: " + greeting.text).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final List<ServiceListener> providerListeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, AtomicInteger> builds = new ConcurrentHashMap<>();
+    private BundleContext context;
+    private RestDeployer deployer;
+    private int port;
+    private String first;
+    private String second;
+
+    @Before
+    public void setUp() throws Exception {
+        final BundleContext stub = DeployerTestSupport.newBundleContext();
+        //Hands the service listeners of the provider tracker to the test, which plays the framework
+        context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{BundleContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("addServiceListener") && args.length == 2
+                        && String.valueOf(args[1]).contains(MessageBodyWriter.class.getName())) {
+                    providerListeners.add((ServiceListener) args[0]);
+                    return null;
+                }
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                return method.invoke(stub, args);
+            }
+        });
+        port = DeployerTestSupport.freePort();
+        first = "http://127.0.0.1:" + port + "/first";
+        second = "http://127.0.0.1:" + port + "/second";
+        deployer = new RestDeployer() {
+            @Override
+            protected Server createServer(String address, List<ResourcePath> resources) {
+                AtomicInteger count = builds.get(address);
+                if (count == null) {
+                    builds.putIfAbsent(address, new AtomicInteger());
+                    count = builds.get(address);
+                }
+                count.incrementAndGet();
+                return super.createServer(address, resources);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        deployer.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void providersAreNotTrackedByDefault() throws Exception {
+        deployer.activate(context, new HashMap<String, Object>());
+
+        assertTrue(providerListeners.isEmpty());
+    }
+
+    @Test
+    public void providerTargetingAnAddressOnlyRebuildsThatAddress() throws Exception {
+        deployResources();
+        StubServiceReference provider = new StubServiceReference(10, MessageBodyWriter.class.getName(), first, new GreetingWriter());
+
+        fire(ServiceEvent.REGISTERED, provider);
+        awaitBuilds(first, 2);
+        assertEquals("greeting: hello", DeployerTestSupport.get(first + "/first").getText());
+
+        fire(ServiceEvent.UNREGISTERING, provider);
+        awaitBuilds(first, 3);
+        assertEquals(500, DeployerTestSupport.get(first + "/first").getStatus());
+
+        deployer.getDeployment(second).get(1, TimeUnit.MINUTES);
+        assertEquals(1, builds.get(second).get());
+    }
+
+    @Test
+    public void providerTargetingAResourceOnlyRebuildsItsAddress() throws Exception {
+        deployResources();
+        StubServiceReference provider = new StubServiceReference(10, MessageBodyWriter.class.getName(), null, new GreetingWriter())
+                .withProperty(Constants.PROVIDER_TARGET, "(objectClass=" + SecondResource.class.getName() + ")");
+
+        fire(ServiceEvent.REGISTERED, provider);
+        awaitBuilds(second, 2);
+        assertEquals("greeting: hello", DeployerTestSupport.get(second + "/second").getText());
+
+        fire(ServiceEvent.UNREGISTERING, provider);
+        awaitBuilds(second, 3);
+
+        deployer.getDeployment(first).get(1, TimeUnit.MINUTES);
+        assertEquals(1, builds.get(first).get());
+    }
+
+    @Test
+    public void untargetedProviderRebuildsEveryAddress() throws Exception {
+        deployResources();
+
+        fire(ServiceEvent.REGISTERED, new StubServiceReference(10, MessageBodyWriter.class.getName(), null, new GreetingWriter()));
+
+        awaitBuilds(first, 2);
+        awaitBuilds(second, 2);
+        assertEquals("greeting: hello", DeployerTestSupport.get(first + "/first").getText());
+        assertEquals("greeting: hello", DeployerTestSupport.get(second + "/second").getText());
+    }
+
+    private void deployResources() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.PROVIDERS_DISCOVERY, true);
+        deployer.activate(context, properties);
+        assertFalse(providerListeners.isEmpty());
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED,
+                new StubServiceReference(1, FirstResource.class.getName(), first, new GreetingResource())));
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED,
+                new StubServiceReference(2, SecondResource.class.getName(), second, new GreetingResource())));
+        deployer.getDeployment(first).get(1, TimeUnit.MINUTES);
+        deployer.getDeployment(second).get(1, TimeUnit.MINUTES);
+        assertEquals(1, builds.get(first).get());
+        assertEquals(1, builds.get(second).get());
+    }
+
+    private void fire(int type, StubServiceReference provider) {
+        for (ServiceListener listener : providerListeners) {
+            listener.serviceChanged(new ServiceEvent(type, provider));
+        }
+    }
+
+    /**
+     * Waits for the address to have been built the given number of times,
+     * and for that build to be deployed.
+     */
+    private void awaitBuilds(String address, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (builds.get(address).get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, builds.get(address).get());
+        deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the scheduler with short quiet windows and records the rebuilds it
+ * performs.
+ *
+ * @author mnn
+ */
+public class RebuildSchedulerTest {
+
+    private static final String ADDRESS = "http://localhost:8080/a";
+    private static final String OTHER_ADDRESS = "http://localhost:8080/b";
+
+    private final List<String> rebuilt = new CopyOnWriteArrayList<>();
+    private final List<Long> rebuildTimes = new CopyOnWriteArrayList<>();
+    private final RebuildScheduler.Rebuilder recorder = new RebuildScheduler.Rebuilder() {
+        @Override
+        public void rebuild(String address) {
+            rebuildTimes.add(System.nanoTime());
+            rebuilt.add(address);
+        }
+    };
+    private RebuildScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void requestsWithinTheQuietWindowAreMergedIntoOneRebuild() throws Exception {
+        scheduler = new RebuildScheduler(recorder, 2, 200, 10000);
+        Future<Void> last = null;
+        for (int i = 0; i < 10; i++) {
+            last = scheduler.schedule(Collections.singleton(ADDRESS));
+        }
+
+        last.get(10, TimeUnit.SECONDS);
+        Thread.sleep(300);
+
+        assertEquals(Collections.singletonList(ADDRESS), rebuilt);
+        assertEquals(10, scheduler.getRequestedRebuilds());
+        assertEquals(1, scheduler.getPerformedRebuilds());
+        assertEquals(9, scheduler.getSavedRebuilds());
+    }
+
+    @Test
+    public void heldRequestsAreReleasedAfterTheMaxDelay() throws Exception {
+        scheduler = new RebuildScheduler(recorder, 1, 200, 500);
+        long start = System.nanoTime();
+        //Keeps the quiet window from ever passing for two seconds
+        while (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000) {
+            scheduler.schedule(Collections.singleton(ADDRESS));
+            Thread.sleep(50);
+        }
+
+        assertFalse(rebuildTimes.isEmpty());
+        long firstRebuild = TimeUnit.NANOSECONDS.toMillis(rebuildTimes.get(0) - start);
+        assertTrue("First rebuild after " + firstRebuild + " ms", firstRebuild >= 450 && firstRebuild < 1500);
+    }
+
+    @Test
+    public void addressesAreNotRebuiltBeforeTheQuietWindowPasses() throws Exception {
+        scheduler = new RebuildScheduler(recorder, 2, 500, 10000);
+        Future<Void> done = scheduler.schedule(Arrays.asList(ADDRESS, OTHER_ADDRESS));
+
+        Thread.sleep(200);
+        assertTrue(rebuilt.isEmpty());
+        assertFalse(done.isDone());
+
+        done.get(10, TimeUnit.SECONDS);
+        assertEquals(2, rebuilt.size());
+        assertTrue(rebuilt.containsAll(Arrays.asList(ADDRESS, OTHER_ADDRESS)));
+    }
+
+    @Test
+    public void scheduleNowBypassesTheQuietWindow() throws Exception {
+        scheduler = new RebuildScheduler(recorder, 1, 60000, 60000);
+
+        scheduler.scheduleNow(Collections.singleton(ADDRESS)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList(ADDRESS), rebuilt);
+    }
+
+    @Test
+    public void failedRebuildFailsTheDeployment() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("broken resource");
+        scheduler = new RebuildScheduler(new RebuildScheduler.Rebuilder() {
+            @Override
+            public void rebuild(String address) {
+                throw failure;
+            }
+        }, 1, 0, 0);
+
+        try {
+            scheduler.schedule(Collections.singleton(ADDRESS)).get(10, TimeUnit.SECONDS);
+            fail("Expected the rebuild to fail");
+        } catch (ExecutionException ex) {
+            assertSame(failure, ex.getCause());
+        }
+        assertTrue(scheduler.getDeployment(ADDRESS).isDone());
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import com.github.mnybon.deployer.rest.ServiceObjectsResourceProviderTest.CounterResource;
+import com.github.mnybon.deployer.rest.ServiceObjectsResourceProviderTest.StubServiceObjects;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServiceImpl;
+import org.apache.cxf.jaxrs.lifecycle.ResourceProvider;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rebuilds an address serving a pooled resource the way a hot swap does, and
+ * verifies that the endpoint being replaced and the one replacing it can share
+ * the cached resource model without the old provider reaching the new
+ * endpoint.
+ *
+ * @author mnn
+ */
+public class ResourceModelCacheTest {
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private int port;
+    private String address;
+    private Server server;
+
+    @Before
+    public void setUp() throws Exception {
+        context = DeployerTestSupport.newBundleContext();
+        deployer = new RestDeployer();
+        deployer.activate(context, new HashMap<String, Object>());
+        port = DeployerTestSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/models";
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.destroy();
+        }
+        deployer.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void closingTheReplacedProviderLeavesTheNewEndpointServing() throws Exception {
+        StubServiceObjects oldObjects = new StubServiceObjects();
+        StubServiceObjects newObjects = new StubServiceObjects();
+        RestDeployer.ResourcePath oldResource = newResource(1, oldObjects);
+        RestDeployer.ResourcePath newResource = newResource(2, newObjects);
+
+        Server old = deployer.createServer(address, Collections.singletonList(oldResource));
+        assertEquals("1", DeployerTestSupport.get(address + "/counter").getText());
+        assertEquals("2", DeployerTestSupport.get(address + "/counter").getText());
+
+        server = deployer.createServer(address, Collections.singletonList(newResource));
+        ClassResourceInfo model = getModel(server);
+        assertSame("The model was not reused", getModel(old), model);
+        oldResource.close();
+        deployer.releaseServer(old);
+
+        assertEquals(1, oldObjects.handedOut.size());
+        assertEquals(oldObjects.handedOut, oldObjects.released);
+        assertSame(newResource.getProvider(), getProvider(model));
+        assertEquals("1", DeployerTestSupport.get(address + "/counter").getText());
+        assertEquals("2", DeployerTestSupport.get(address + "/counter").getText());
+        assertEquals(1, newObjects.handedOut.size());
+        assertTrue(newObjects.released.isEmpty());
+    }
+
+    @Test
+    public void unchangedResourceKeepsItsPooledInstancesAcrossTheRebuild() throws Exception {
+        StubServiceObjects objects = new StubServiceObjects();
+        RestDeployer.ResourcePath resource = newResource(1, objects);
+
+        Server old = deployer.createServer(address, Collections.singletonList(resource));
+        assertEquals("1", DeployerTestSupport.get(address + "/counter").getText());
+
+        server = deployer.createServer(address, Collections.singletonList(resource));
+        deployer.releaseServer(old);
+
+        assertEquals("2", DeployerTestSupport.get(address + "/counter").getText());
+        assertSame(resource.getProvider(), getProvider(getModel(server)));
+        assertEquals(1, objects.handedOut.size());
+        assertTrue(objects.released.isEmpty());
+    }
+
+    @Test
+    public void instanceServingARequestAcrossTheSwapGoesBackToItsProvider() throws Exception {
+        StubServiceObjects oldObjects = new StubServiceObjects();
+        StubServiceObjects newObjects = new StubServiceObjects();
+        RestDeployer.ResourcePath oldResource = newResource(1, oldObjects);
+        RestDeployer.ResourcePath newResource = newResource(2, newObjects);
+
+        Server old = deployer.createServer(address, Collections.singletonList(oldResource));
+        ClassResourceInfo model = getModel(old);
+        Message request = new MessageImpl();
+        request.setExchange(new ExchangeImpl());
+        Object instance = model.getResourceProvider().getInstance(request);
+
+        server = deployer.createServer(address, Collections.singletonList(newResource));
+        model.getResourceProvider().releaseInstance(request, instance);
+        oldResource.close();
+        deployer.releaseServer(old);
+
+        assertEquals(Collections.singletonList(instance), oldObjects.released);
+        assertEquals("1", DeployerTestSupport.get(address + "/counter").getText());
+        assertEquals(1, newObjects.handedOut.size());
+        assertNotSame(instance, newObjects.handedOut.get(0));
+    }
+
+    private RestDeployer.ResourcePath newResource(long serviceId, StubServiceObjects objects) throws NoSuchMethodException {
+        Method getService = StubServiceObjects.class.getMethod("getService");
+        Method ungetService = StubServiceObjects.class.getMethod("ungetService", Object.class);
+        ServiceObjectsResourceProvider provider = new ServiceObjectsResourceProvider(CounterResource.class, objects, getService, ungetService, 2);
+        StubServiceReference reference = new StubServiceReference(serviceId, CounterResource.class.getName(), address, null);
+        return new RestDeployer.ResourcePath("/counter", CounterResource.class, null, reference, provider);
+    }
+
+    private static ResourceProvider getProvider(ClassResourceInfo model) {
+        return ((ResourceModelCache.SwappableResourceProvider) model.getResourceProvider()).getTarget();
+    }
+
+    private static ClassResourceInfo getModel(Server server) {
+        JAXRSServiceImpl service = (JAXRSServiceImpl) server.getEndpoint().getService();
+        return service.getClassResourceInfos().get(0);
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.Path;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.transport.Destination;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Registers and unregisters thousands of services from many threads against a
+ * deployer whose servers are stubbed out, and verifies that the registry ends
+ * up empty, that no address is ever built concurrently and that every server
+ * built has been stopped again.
+ *
+ * @author mnn
+ */
+public class RestDeployerConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int SERVICES_PER_THREAD = 250;
+
+    @Path("/a")
+    public interface ResourceA {
+    }
+
+    @Path("/b")
+    public interface ResourceB {
+    }
+
+    private StubbedDeployer deployer;
+    private BundleContext context;
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(context.getServiceReferences((String) null, (String) null)).andReturn(new ServiceReference<?>[0]).anyTimes();
+        EasyMock.expect(context.getService(EasyMock.<ServiceReference<Object>>anyObject())).andReturn(new Object()).anyTimes();
+        EasyMock.replay(context);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.REBUILD_THREADS, 8);
+        properties.put(DeployerConfiguration.REBUILD_QUIET_WINDOW, 5);
+        properties.put(DeployerConfiguration.REBUILD_MAX_DELAY, 50);
+        deployer = new StubbedDeployer();
+        deployer.activate(context, properties);
+    }
+
+    @After
+    public void tearDown() {
+        deployer.deactivate(context);
+    }
+
+    @Test
+    public void registerAndUnregisterFromManyThreads() throws Exception {
+        final ConcurrentMap<String, Boolean> addresses = new ConcurrentHashMap<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong serviceIds = new AtomicLong();
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS + 1);
+
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        List<ServiceReference<?>> references = new ArrayList<>();
+                        for (int i = 0; i < SERVICES_PER_THREAD; i++) {
+                            int service = thread * SERVICES_PER_THREAD + i;
+                            String address = "http://localhost:" + (9000 + (service / 2) % 4) + "/stress/" + (service / 2);
+                            String objectClass = service % 2 == 0 ? ResourceA.class.getName() : ResourceB.class.getName();
+                            ServiceReference<?> reference = new StubServiceReference(serviceIds.incrementAndGet(), objectClass, address, null);
+                            addresses.put(address, Boolean.TRUE);
+                            references.add(reference);
+                            deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+                        }
+                        Collections.shuffle(references, new Random(thread));
+                        for (ServiceReference<?> reference : references) {
+                            deployer.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+                        }
+                    } catch (Throwable ex) {
+                        failures.add(ex);
+                    }
+                }
+            });
+        }
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        deployer.rebuildServers(9000 + i % 4);
+                        deployer.rebuildClosedServers();
+                    }
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }
+        });
+
+        start.countDown();
+        threads.shutdown();
+        assertTrue("Event threads did not finish", threads.awaitTermination(2, TimeUnit.MINUTES));
+        for (String address : addresses.keySet()) {
+            deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+        }
+
+        assertTrue("Unexpected failures: " + failures, failures.isEmpty());
+        assertEquals(THREADS * SERVICES_PER_THREAD / 2, addresses.size());
+        assertTrue("Addresses left in registry: " + deployer.getAddresses(), deployer.getAddresses().isEmpty());
+        assertTrue(deployer.builtServers.size() > 0);
+        for (StubServer server : deployer.builtServers) {
+            assertFalse("Server left running on " + server.address, server.isStarted());
+        }
+        assertEquals(deployer.getRequestedRebuilds(), deployer.getPerformedRebuilds() + deployer.getSavedRebuilds());
+    }
+
+    private class StubbedDeployer extends RestDeployer {
+
+        private final Queue<StubServer> builtServers = new ConcurrentLinkedQueue<>();
+        private final ConcurrentMap<String, AtomicInteger> building = new ConcurrentHashMap<>();
+
+        @Override
+        protected Server createServer(String address, List<ResourcePath> resources) {
+            building.putIfAbsent(address, new AtomicInteger());
+            AtomicInteger counter = building.get(address);
+            if (counter.incrementAndGet() > 1) {
+                failures.add(new AssertionError("Concurrent builds of " + address));
+            }
+            try {
+                if (resources.isEmpty()) {
+                    failures.add(new AssertionError("Built " + address + " without resources"));
+                }
+                StubServer server = new StubServer(address);
+                builtServers.add(server);
+                return server;
+            } finally {
+                counter.decrementAndGet();
+            }
+        }
+    }
+
+    private static class StubServer implements Server {
+
+        private final String address;
+        private volatile boolean started = true;
+
+        StubServer(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            started = false;
+        }
+
+        @Override
+        public void destroy() {
+            started = false;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return started;
+        }
+
+        @Override
+        public Destination getDestination() {
+            return null;
+        }
+
+        @Override
+        public Endpoint getEndpoint() {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.endpoint.ServerRegistry;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rebuilds a live address with hot swap on while a client keeps requesting
+ * it, and verifies that no request fails and that the rebuilt endpoint serves
+ * the new resource.
+ *
+ * @author mnn
+ */
+public class RestDeployerHotSwapTest {
+
+    private static final int REBUILDS = 50;
+
+    @Path("/first")
+    public interface FirstResource {
+
+        @GET
+        String get();
+    }
+
+    @Path("/second")
+    public interface SecondResource {
+
+        @GET
+        String get();
+    }
+
+    public static class FirstResourceImpl implements FirstResource {
+
+        @Override
+        public String get() {
+            return "first";
+        }
+    }
+
+    public static class SecondResourceImpl implements SecondResource {
+
+        @Override
+        public String get() {
+            return "second";
+        }
+    }
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        context = DeployerTestSupport.newBundleContext();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.HOT_SWAP, true);
+        deployer = new RestDeployer();
+        deployer.activate(context, properties);
+        port = DeployerTestSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/swap";
+    }
+
+    @After
+    public void tearDown() {
+        deployer.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void rebuildOfLiveAddressKeepsServingAndDeploysNewResource() throws Exception {
+        register(1, FirstResource.class, new FirstResourceImpl());
+        assertEquals("first", DeployerTestSupport.get(address + "/first").getText());
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger served = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get() && failure.get() == null) {
+                    try {
+                        DeployerTestSupport.Response response = DeployerTestSupport.get(address + "/first");
+                        if (response.getStatus() != 200 || !"first".equals(response.getText())) {
+                            failure.set("Got " + response.getStatus() + " " + response.getText());
+                        }
+                        served.incrementAndGet();
+                    } catch (Exception ex) {
+                        failure.set(ex.toString());
+                    }
+                }
+            }
+        });
+        client.start();
+        try {
+            register(2, SecondResource.class, new SecondResourceImpl());
+            for (int i = 0; i < REBUILDS; i++) {
+                deployer.rebuildServer(address);
+            }
+        } finally {
+            running.set(false);
+            client.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        assertNull(failure.get());
+        assertTrue(served.get() > 0);
+        assertEquals("second", DeployerTestSupport.get(address + "/second").getText());
+        assertEquals("first", DeployerTestSupport.get(address + "/first").getText());
+        assertEquals(1, deployer.getBus().getExtension(ServerRegistry.class).getServers().size());
+    }
+
+    private void register(long id, Class<?> sei, Object service) throws Exception {
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new StubServiceReference(id, sei.getName(), address, service)));
+        deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.endpoint.ServerRegistry;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rebuilds a real CXF endpoint thousands of times, both stopping the old
+ * endpoint first and hot swapping it, and verifies that the replaced
+ * endpoints are let go: the bus holds a single server and the heap stays
+ * flat.
+ *
+ * @author mnn
+ */
+public class RestDeployerSoakTest {
+
+    private static final String ADDRESS = "/soak";
+    private static final int WARMUP_CYCLES = 100;
+    private static final int CYCLES = 1500;
+    private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+    @Path("/resource")
+    public interface SoakResource {
+
+        @GET
+        String get();
+    }
+
+    public static class SoakResourceImpl implements SoakResource {
+
+        @Override
+        public String get() {
+            return "soak";
+        }
+    }
+
+    private RestDeployer deployer;
+    private BundleContext context;
+
+    @After
+    public void tearDown() {
+        if (deployer != null) {
+            deployer.deactivate(context);
+        }
+    }
+
+    @Test
+    public void rebuildsLetGoOfReplacedEndpoints() throws Exception {
+        soak(false);
+    }
+
+    @Test
+    public void hotSwapsLetGoOfReplacedEndpoints() throws Exception {
+        soak(true);
+    }
+
+    @Test
+    public void hotSwapsOnADedicatedBusLetGoOfReplacedEndpoints() throws Exception {
+        soak(true, true);
+    }
+
+    private void soak(boolean hotSwap) throws Exception {
+        soak(hotSwap, false);
+    }
+
+    private void soak(boolean hotSwap, boolean dedicatedBus) throws Exception {
+        context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(context.getServiceReferences((String) null, (String) null)).andReturn(new ServiceReference<?>[0]).anyTimes();
+        EasyMock.expect(context.getService(EasyMock.<ServiceReference<Object>>anyObject())).andReturn(new SoakResourceImpl()).anyTimes();
+        EasyMock.replay(context);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.HOT_SWAP, hotSwap);
+        properties.put(DeployerConfiguration.BUS_DEDICATED, dedicatedBus);
+        deployer = new RestDeployer();
+        deployer.activate(context, properties);
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new StubReference(1, SoakResource.class.getName(), ADDRESS)));
+        deployer.getDeployment(ADDRESS).get(1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < WARMUP_CYCLES; i++) {
+            deployer.rebuildServer(ADDRESS);
+        }
+        long before = usedHeap();
+        for (int i = 0; i < CYCLES; i++) {
+            deployer.rebuildServer(ADDRESS);
+        }
+        long growth = usedHeap() - before;
+
+        assertEquals(1, deployer.getBus().getExtension(ServerRegistry.class).getServers().size());
+        assertTrue("Heap grew by " + growth / 1024 + " KiB over " + CYCLES + " rebuilds", growth < MAX_HEAP_GROWTH);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static class StubReference implements ServiceReference<Object> {
+
+        private final Map<String, Object> properties = new HashMap<>();
+
+        StubReference(long id, String objectClass, String address) {
+            properties.put(Constants.SERVICE_ID, id);
+            properties.put(Constants.OBJECTCLASS, new String[]{objectClass});
+            properties.put(com.github.mnybon.deployer.rest.Constants.TARGET_SERVER, address);
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys() {
+            return properties.keySet().toArray(new String[properties.size()]);
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return null;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles() {
+            return new Bundle[0];
+        }
+
+        @Override
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        @Override
+        public int compareTo(Object reference) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Activates the deployer on a data area holding a snapshot of an address
+ * with two resources, and registers them one by one.
+ *
+ * @author mnn
+ */
+public class RestDeployerWarmStartTest {
+
+    @Path("/a")
+    public interface FirstResource {
+
+        @GET
+        String get();
+    }
+
+    @Path("/b")
+    public interface SecondResource {
+
+        @GET
+        String get();
+    }
+
+    public static class FirstResourceImpl implements FirstResource {
+
+        @Override
+        public String get() {
+            return "a";
+        }
+    }
+
+    public static class SecondResourceImpl implements SecondResource {
+
+        @Override
+        public String get() {
+            return "b";
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BundleContext context;
+    private RestDeployer deployer;
+    private File snapshotFile;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        context = DeployerTestSupport.newBundleContext(folder.getRoot());
+        snapshotFile = new File(folder.getRoot(), DeploymentSnapshot.FILE_NAME);
+        port = DeployerTestSupport.freePort();
+        address = "http://127.0.0.1:" + port + "/warm";
+        deployer = new RestDeployer();
+    }
+
+    @After
+    public void tearDown() {
+        if (deployer != null) {
+            deployer.deactivate(context);
+        }
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    private void deactivate() {
+        deployer.deactivate(context);
+        deployer = null;
+    }
+
+    @Test
+    public void addressIsHeldUntilItsResourcesHaveRegistered() throws Exception {
+        writeSnapshot();
+        deployer.activate(context, properties(true, TimeUnit.MINUTES.toMillis(1)));
+
+        Future<Void> first = register(1, FirstResource.class, new FirstResourceImpl());
+        Thread.sleep(200);
+        assertFalse(first.isDone());
+
+        register(2, SecondResource.class, new SecondResourceImpl()).get(1, TimeUnit.MINUTES);
+        assertTrue(first.isDone());
+        assertEquals("a", DeployerTestSupport.get(address + "/a").getText());
+        assertEquals("b", DeployerTestSupport.get(address + "/b").getText());
+    }
+
+    @Test
+    public void expiredWarmUpReleasesTheHeldAddress() throws Exception {
+        writeSnapshot();
+        deployer.activate(context, properties(true, 300));
+
+        register(1, FirstResource.class, new FirstResourceImpl()).get(1, TimeUnit.MINUTES);
+
+        assertEquals("a", DeployerTestSupport.get(address + "/a").getText());
+        assertEquals(404, DeployerTestSupport.get(address + "/b").getStatus());
+    }
+
+    @Test
+    public void deactivationSavesTheDeployedResources() throws Exception {
+        deployer.activate(context, properties(true, TimeUnit.MINUTES.toMillis(1)));
+        register(1, FirstResource.class, new FirstResourceImpl()).get(1, TimeUnit.MINUTES);
+
+        deactivate();
+
+        DeploymentSnapshot snapshot = DeploymentSnapshot.read(snapshotFile);
+        assertEquals(Collections.singletonMap(address, set(":" + FirstResource.class.getName())), snapshot.getAddresses());
+    }
+
+    @Test
+    public void snapshotIsNotUsedUnlessEnabled() throws Exception {
+        writeSnapshot();
+        long written = snapshotFile.lastModified();
+        byte[] content = Files.readAllBytes(snapshotFile.toPath());
+        deployer.activate(context, new HashMap<String, Object>());
+
+        register(1, FirstResource.class, new FirstResourceImpl()).get(1, TimeUnit.MINUTES);
+        deactivate();
+
+        assertArrayEquals(content, Files.readAllBytes(snapshotFile.toPath()));
+        assertEquals(written, snapshotFile.lastModified());
+    }
+
+    @Test
+    public void unreadableSnapshotIsIgnored() throws Exception {
+        Files.write(snapshotFile.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        deployer.activate(context, properties(true, TimeUnit.MINUTES.toMillis(1)));
+
+        register(1, FirstResource.class, new FirstResourceImpl()).get(1, TimeUnit.MINUTES);
+
+        assertEquals("a", DeployerTestSupport.get(address + "/a").getText());
+    }
+
+    private void writeSnapshot() throws Exception {
+        Map<String, Set<String>> addresses = Collections.singletonMap(address,
+                set(":" + FirstResource.class.getName(), ":" + SecondResource.class.getName()));
+        new DeploymentSnapshot(addresses, Collections.<String, Set<String>>emptyMap()).write(snapshotFile);
+    }
+
+    private static Map<String, Object> properties(boolean snapshot, long warmup) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(DeployerConfiguration.SNAPSHOT_ENABLED, snapshot);
+        properties.put(DeployerConfiguration.SNAPSHOT_WARMUP, warmup);
+        return properties;
+    }
+
+    private Future<Void> register(long id, Class<?> sei, Object service) throws Exception {
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new StubServiceReference(id, sei.getName(), address, service)));
+        return deployer.getDeployment(address);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+}
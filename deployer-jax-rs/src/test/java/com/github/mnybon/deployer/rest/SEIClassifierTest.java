@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import static org.junit.Assert.*;
+
+/**
+ * Classifies object classes and checks what is loaded again after a bundle is
+ * unresolved, or after classes become available to the deployer.
+ *
+ * @author mnn
+ */
+public class SEIClassifierTest {
+
+    private static final String MISSING = "com.example.Missing";
+
+    @Path("/classified")
+    public interface ClassifiedResource {
+
+        @GET
+        String get();
+    }
+
+    private final AtomicInteger loads = new AtomicInteger();
+    /**
+     * Classes hidden from bundles and the deployer, until resolved later.
+     */
+    private final Set<String> unresolved = new HashSet<>();
+    private final SEIClassifier classifier = new SEIClassifier() {
+        @Override
+        Class<?> loadClass(String className, Bundle bundle) throws ClassNotFoundException {
+            loads.incrementAndGet();
+            if (unresolved.contains(className)) {
+                throw new ClassNotFoundException(className);
+            }
+            return super.loadClass(className, bundle);
+        }
+    };
+
+    @Test
+    public void classIsLoadedOncePerBundleLifecycle() throws Exception {
+        Bundle bundle = newBundle(1);
+
+        SEIClassifier.Classification classification = classifier.classify(ClassifiedResource.class.getName(), bundle);
+        assertTrue(classification.isSEI());
+        assertEquals("/classified", classification.getPath());
+        assertSame(classification, classifier.classify(ClassifiedResource.class.getName(), bundle));
+        assertEquals(1, loads.get());
+
+        classifier.invalidate(bundle);
+        classifier.classify(ClassifiedResource.class.getName(), bundle);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void missingClassIsLookedUpOncePerBundleLifecycle() throws Exception {
+        Bundle bundle = newBundle(1);
+
+        assertMissing(bundle);
+        assertMissing(bundle);
+        assertEquals(1, loads.get());
+
+        assertMissing(newBundle(2));
+        assertEquals(2, loads.get());
+
+        classifier.invalidate(bundle);
+        assertMissing(bundle);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void classIsLoadedThroughTheProvidingBundle() throws Exception {
+        Bundle bundle = EasyMock.createMock(Bundle.class);
+        EasyMock.expect(bundle.getBundleId()).andReturn(1L).anyTimes();
+        EasyMock.<Class<?>>expect(bundle.loadClass(ClassifiedResource.class.getName())).andReturn(ClassifiedResource.class);
+        EasyMock.replay(bundle);
+
+        assertSame(ClassifiedResource.class, classifier.classify(ClassifiedResource.class.getName(), bundle).getType());
+        EasyMock.verify(bundle);
+    }
+
+    @Test
+    public void classResolvedLaterWithoutBundleIsLoaded() throws Exception {
+        unresolved.add(ClassifiedResource.class.getName());
+        try {
+            classifier.classify(ClassifiedResource.class.getName(), null);
+            fail("Classified a class that could not be loaded");
+        } catch (ClassNotFoundException expected) {
+        }
+
+        unresolved.clear();
+        assertTrue(classifier.classify(ClassifiedResource.class.getName(), null).isSEI());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void classResolvedLaterIsLoadedOnceTheBundleIsResolvedAgain() throws Exception {
+        Bundle bundle = newBundle(1);
+        unresolved.add(ClassifiedResource.class.getName());
+        try {
+            classifier.classify(ClassifiedResource.class.getName(), bundle);
+            fail("Classified a class that could not be loaded");
+        } catch (ClassNotFoundException expected) {
+        }
+
+        unresolved.clear();
+        classifier.invalidate(bundle);
+        assertTrue(classifier.classify(ClassifiedResource.class.getName(), bundle).isSEI());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void uninstalledBundleCannotLoadClasses() throws Exception {
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getBundleId()).andReturn(1L).anyTimes();
+        EasyMock.expect(bundle.loadClass(EasyMock.anyString())).andThrow(new IllegalStateException("Uninstalled"));
+        EasyMock.replay(bundle);
+
+        try {
+            classifier.classify(ClassifiedResource.class.getName(), bundle);
+            fail("Classified a class of an uninstalled bundle");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void missingClassIsNotReportedAsPlain() throws Exception {
+        Bundle bundle = newBundle(1);
+        classifier.classify(String.class.getName(), bundle);
+        assertMissing(bundle);
+
+        assertEquals(Collections.singletonMap(1L, Collections.singleton(String.class.getName())), classifier.getPlainClasses());
+    }
+
+    @Test
+    public void preloadedClassIsNotLoaded() throws Exception {
+        Bundle bundle = newBundle(1);
+        classifier.preload(bundle, new HashSet<>(Arrays.asList(String.class.getName(), MISSING)));
+
+        assertFalse(classifier.classify(String.class.getName(), bundle).isSEI());
+        assertFalse(classifier.classify(MISSING, bundle).isSEI());
+        assertEquals(0, loads.get());
+    }
+
+    private void assertMissing(Bundle bundle) {
+        try {
+            classifier.classify(MISSING, bundle);
+            fail("Classified a class that does not exist");
+        } catch (ClassNotFoundException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(MISSING));
+        }
+    }
+
+    private static Bundle newBundle(long id) throws ClassNotFoundException {
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getBundleId()).andReturn(id).anyTimes();
+        EasyMock.<Class<?>>expect(bundle.loadClass(EasyMock.anyString())).andAnswer(new IAnswer<Class<?>>() {
+            @Override
+            public Class<?> answer() throws Throwable {
+                return Class.forName((String) EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        EasyMock.replay(bundle);
+        return bundle;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import com.github.mnybon.deployer.rest.DeployerTestSupport.StubServiceReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.ServiceUnavailableException;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the provider against a stand-in for ServiceObjects that counts the
+ * instances it hands out and gets back.
+ *
+ * @author mnn
+ */
+public class ServiceObjectsResourceProviderTest {
+
+    @Path("/counter")
+    public interface CounterResource {
+
+        @GET
+        String get();
+    }
+
+    public static class CounterResourceImpl implements CounterResource {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String get() {
+            return Integer.toString(count.incrementAndGet());
+        }
+    }
+
+    public static class StubServiceObjects {
+
+        final List<Object> handedOut = new ArrayList<>();
+        final List<Object> released = new ArrayList<>();
+        private boolean gone;
+
+        public Object getService() {
+            if (gone) {
+                return null;
+            }
+            Object instance = new CounterResourceImpl();
+            handedOut.add(instance);
+            return instance;
+        }
+
+        public void ungetService(Object instance) {
+            assertTrue("Released an instance that was not handed out", handedOut.contains(instance));
+            released.add(instance);
+        }
+    }
+
+    private StubServiceObjects serviceObjects;
+
+    @Before
+    public void setUp() {
+        serviceObjects = new StubServiceObjects();
+    }
+
+    @Test
+    public void prototypeScopeGetsANewInstanceForEveryRequest() throws Exception {
+        ServiceObjectsResourceProvider provider = newProvider(0);
+
+        Object first = provider.getInstance(null);
+        Object second = provider.getInstance(null);
+        provider.releaseInstance(null, first);
+        provider.releaseInstance(null, second);
+
+        assertNotSame(first, second);
+        assertEquals(2, serviceObjects.handedOut.size());
+        assertEquals(serviceObjects.handedOut, serviceObjects.released);
+        assertFalse(provider.isSingleton());
+    }
+
+    @Test
+    public void pooledInstanceIsReused() throws Exception {
+        ServiceObjectsResourceProvider provider = newProvider(2);
+
+        Object first = provider.getInstance(null);
+        provider.releaseInstance(null, first);
+        Object second = provider.getInstance(null);
+        provider.releaseInstance(null, second);
+
+        assertSame(first, second);
+        assertEquals(1, serviceObjects.handedOut.size());
+        assertTrue(serviceObjects.released.isEmpty());
+    }
+
+    @Test
+    public void instanceReturnedToAFullPoolIsReleased() throws Exception {
+        ServiceObjectsResourceProvider provider = newProvider(1);
+
+        Object first = provider.getInstance(null);
+        Object second = provider.getInstance(null);
+        provider.releaseInstance(null, first);
+        provider.releaseInstance(null, second);
+
+        assertNotSame(first, second);
+        assertEquals(1, serviceObjects.released.size());
+        assertSame(second, serviceObjects.released.get(0));
+        assertSame(first, provider.getInstance(null));
+    }
+
+    @Test
+    public void closeReleasesPooledInstancesAndThoseReturnedLater() throws Exception {
+        ServiceObjectsResourceProvider provider = newProvider(2);
+        Object pooled = provider.getInstance(null);
+        Object inUse = provider.getInstance(null);
+        provider.releaseInstance(null, pooled);
+
+        provider.close();
+        assertEquals(1, serviceObjects.released.size());
+        assertSame(pooled, serviceObjects.released.get(0));
+
+        provider.releaseInstance(null, inUse);
+        assertEquals(2, serviceObjects.released.size());
+        assertSame(inUse, serviceObjects.released.get(1));
+        assertEquals(serviceObjects.handedOut.size(), serviceObjects.released.size());
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void requestToAnUnregisteredServiceIsUnavailable() throws Exception {
+        ServiceObjectsResourceProvider provider = newProvider(0);
+        serviceObjects.gone = true;
+
+        provider.getInstance(null);
+    }
+
+    @Test
+    public void frameworkWithoutServiceObjectsServesASingleton() throws Exception {
+        Assume.assumeFalse(ServiceObjectsResourceProvider.isSupported());
+        BundleContext context = DeployerTestSupport.newBundleContext();
+        assertNull(ServiceObjectsResourceProvider.create(context, new StubServiceReference(1, CounterResource.class.getName(), null, null),
+                CounterResource.class, 0));
+
+        RestDeployer deployer = new RestDeployer();
+        deployer.activate(context, new HashMap<String, Object>());
+        int port = DeployerTestSupport.freePort();
+        String address = "http://127.0.0.1:" + port + "/scoped";
+        try {
+            StubServiceReference reference = new StubServiceReference(1, CounterResource.class.getName(), address, new CounterResourceImpl())
+                    .withProperty("service.scope", Constants.SCOPE_PROTOTYPE)
+                    .withProperty(Constants.RESOURCE_SCOPE, Constants.SCOPE_POOLED);
+            deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+            deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+
+            assertEquals("1", DeployerTestSupport.get(address + "/counter").getText());
+            assertEquals("2", DeployerTestSupport.get(address + "/counter").getText());
+        } finally {
+            deployer.deactivate(context);
+            JettyHTTPServerEngineFactory.destroyForPort(port);
+        }
+    }
+
+    private ServiceObjectsResourceProvider newProvider(int poolSize) throws NoSuchMethodException {
+        Method getService = StubServiceObjects.class.getMethod("getService");
+        Method ungetService = StubServiceObjects.class.getMethod("ungetService", Object.class);
+        return new ServiceObjectsResourceProvider(CounterResource.class, serviceObjects, getService, ungetService, poolSize);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class WarmStartPlanTest {
+
+    @Test
+    public void addressIsReadyOnceItsResourcesHaveRegistered() {
+        WarmStartPlan plan = new WarmStartPlan(Collections.singletonMap("/a", set(":A", ":B")));
+
+        assertFalse(plan.isReady("/a", Collections.<String>emptySet()));
+        assertFalse(plan.isReady("/a", set(":A")));
+        assertFalse(plan.isComplete());
+        assertTrue(plan.isReady("/a", set(":A", ":B", ":C")));
+        assertTrue(plan.isComplete());
+        assertTrue(plan.isReady("/a", set(":A")));
+    }
+
+    @Test
+    public void addressNotInTheSnapshotIsReady() {
+        WarmStartPlan plan = new WarmStartPlan(Collections.singletonMap("/a", set(":A")));
+
+        assertTrue(plan.isReady("/new", set(":N")));
+        assertFalse(plan.isComplete());
+    }
+
+    @Test
+    public void expiryReleasesTheAddressesStillMissingResources() {
+        Map<String, Set<String>> addresses = new HashMap<>();
+        addresses.put("/a", set(":A"));
+        addresses.put("/b", set(":B"));
+        addresses.put("/c", set(":C"));
+        WarmStartPlan plan = new WarmStartPlan(addresses);
+        assertTrue(plan.isReady("/a", set(":A")));
+
+        Set<String> remaining = plan.expire();
+
+        assertEquals(set("/b", "/c"), remaining);
+        assertTrue(plan.isComplete());
+        assertTrue(plan.isReady("/b", Collections.<String>emptySet()));
+        assertTrue(plan.expire().isEmpty());
+    }
+
+    @Test
+    public void planDoesNotChangeTheSnapshot() {
+        Map<String, Set<String>> addresses = new HashMap<>();
+        addresses.put("/a", set(":A"));
+        WarmStartPlan plan = new WarmStartPlan(addresses);
+
+        plan.isReady("/a", set(":A"));
+
+        assertEquals(Collections.singletonMap("/a", set(":A")), addresses);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+}
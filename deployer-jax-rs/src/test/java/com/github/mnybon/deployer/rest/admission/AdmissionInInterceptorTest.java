@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.apache.cxf.jaxrs.model.ClassResourceInfo;
+import org.apache.cxf.jaxrs.model.OperationResourceInfo;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class AdmissionInInterceptorTest {
+
+    private static final String ADDRESS = "http://localhost:8080/limited";
+
+    @Path("/limited")
+    public interface LimitedResource {
+
+        @GET
+        String get();
+
+        @GET
+        @Path("/failing")
+        String fail();
+    }
+
+    public static class LimitedResourceImpl implements LimitedResource {
+
+        @Override
+        public String get() {
+            return "ok";
+        }
+
+        @Override
+        public String fail() {
+            throw new IllegalStateException("Failing on purpose");
+        }
+    }
+
+    @Test
+    public void admittedRequestHoldsBothPermitsUntilReleased() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 1);
+        AdmissionLimiter resourceLimiter = new AdmissionLimiter(ADDRESS, LimitedResource.class.getName(), 0, 0, 1);
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, limiters(resourceLimiter));
+        Message message = newMessage();
+
+        interceptor.handleMessage(message);
+
+        assertNull(message.getExchange().get(Response.class));
+        assertEquals(1, addressLimiter.getInFlight());
+        assertEquals(1, resourceLimiter.getInFlight());
+        new AdmissionOutInterceptor().handleMessage(message);
+        assertEquals(0, addressLimiter.getInFlight());
+        assertEquals(0, resourceLimiter.getInFlight());
+    }
+
+    @Test
+    public void faultOfTheInChainReleasesThePermits() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 1);
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, Collections.<Class<?>, AdmissionLimiter>emptyMap());
+        Message message = newMessage();
+        interceptor.handleMessage(message);
+
+        interceptor.handleFault(message);
+
+        assertEquals(0, addressLimiter.getInFlight());
+    }
+
+    @Test
+    public void faultReleasesThePermitsOnce() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 1);
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, Collections.<Class<?>, AdmissionLimiter>emptyMap());
+        Message message = newMessage();
+        interceptor.handleMessage(message);
+        assertEquals(1, addressLimiter.getInFlight());
+
+        AdmissionOutInterceptor out = new AdmissionOutInterceptor();
+        out.handleFault(message);
+        out.handleMessage(message);
+
+        assertEquals(0, addressLimiter.getInFlight());
+    }
+
+    @Test
+    public void resourceRejectionGivesBackTheAddressPermit() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 5);
+        AdmissionLimiter resourceLimiter = new AdmissionLimiter(ADDRESS, LimitedResource.class.getName(), 0, 0, 1);
+        assertEquals(0, resourceLimiter.tryAcquire());
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, limiters(resourceLimiter));
+        Message message = newMessage();
+
+        interceptor.handleMessage(message);
+
+        Response rejection = message.getExchange().get(Response.class);
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), rejection.getStatus());
+        assertEquals(0, addressLimiter.getInFlight());
+        assertEquals(1, resourceLimiter.getInFlight());
+        assertNull(message.getExchange().get(AdmissionInInterceptor.ACQUIRED));
+    }
+
+    @Test
+    public void rateRejectionAsksToRetryAfterTheWait() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0.4, 1, 0);
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, Collections.<Class<?>, AdmissionLimiter>emptyMap());
+        Message admitted = newMessage();
+        interceptor.handleMessage(admitted);
+        new AdmissionOutInterceptor().handleMessage(admitted);
+        Message message = newMessage();
+
+        interceptor.handleMessage(message);
+
+        Response rejection = message.getExchange().get(Response.class);
+        assertEquals(AdmissionInInterceptor.TOO_MANY_REQUESTS, rejection.getStatus());
+        assertEquals(3L, rejection.getMetadata().getFirst("Retry-After"));
+        assertEquals(0, addressLimiter.getInFlight());
+        assertEquals(1, addressLimiter.getRateRejectedCount());
+    }
+
+    @Test
+    public void retryAfterIsRoundedUpToWholeSeconds() {
+        assertEquals(1, AdmissionInInterceptor.toRetryAfterSeconds(1));
+        assertEquals(1, AdmissionInInterceptor.toRetryAfterSeconds(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(2, AdmissionInInterceptor.toRetryAfterSeconds(TimeUnit.SECONDS.toNanos(1) + 1));
+        assertEquals(3, AdmissionInInterceptor.toRetryAfterSeconds(TimeUnit.MILLISECONDS.toNanos(2500)));
+    }
+
+    @Test
+    public void answeredRequestIsNotCounted() throws Exception {
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 1);
+        AdmissionInInterceptor interceptor = new AdmissionInInterceptor(addressLimiter, Collections.<Class<?>, AdmissionLimiter>emptyMap());
+        Message message = newMessage();
+        message.getExchange().put(Response.class, Response.ok().build());
+
+        interceptor.handleMessage(message);
+
+        assertEquals(0, addressLimiter.getInFlight());
+    }
+
+    @Test
+    public void permitsAreReleasedOnTheOutAndTheFaultChain() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        String address = "http://127.0.0.1:" + port + "/admission";
+        AdmissionLimiter addressLimiter = new AdmissionLimiter(address, AdmissionLimiter.ADDRESS, 0, 0, 1);
+        AdmissionLimiter resourceLimiter = new AdmissionLimiter(address, LimitedResource.class.getName(), 0, 0, 1);
+        AdmissionOutInterceptor out = new AdmissionOutInterceptor();
+        Bus bus = BusFactory.newInstance().createBus();
+        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean();
+        sf.setBus(bus);
+        sf.setAddress(address);
+        sf.setResourceClasses(LimitedResource.class);
+        sf.setResourceProvider(LimitedResource.class, new SingletonResourceProvider(new LimitedResourceImpl()));
+        sf.getInInterceptors().add(new AdmissionInInterceptor(addressLimiter, limiters(resourceLimiter)));
+        sf.getOutInterceptors().add(out);
+        sf.getOutFaultInterceptors().add(out);
+        Server server = sf.create();
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(200, getStatus(address + "/limited"));
+                awaitReleased(addressLimiter, resourceLimiter);
+                assertEquals(500, getStatus(address + "/limited/failing"));
+                awaitReleased(addressLimiter, resourceLimiter);
+            }
+        } finally {
+            server.destroy();
+            bus.shutdown(true);
+            JettyHTTPServerEngineFactory.destroyForPort(port);
+        }
+
+        assertEquals(10, resourceLimiter.getAdmittedCount());
+        assertEquals(0, resourceLimiter.getConcurrencyRejectedCount());
+    }
+
+    /**
+     * Waits for the permits to be given back, which happens just after the
+     * response has reached the client.
+     */
+    private static void awaitReleased(AdmissionLimiter... limiters) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (AdmissionLimiter limiter : limiters) {
+            while (limiter.getInFlight() != 0) {
+                assertTrue("Permit of " + limiter + " was not released", System.nanoTime() - deadline < 0);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static Map<Class<?>, AdmissionLimiter> limiters(AdmissionLimiter resourceLimiter) {
+        Map<Class<?>, AdmissionLimiter> limiters = new HashMap<>();
+        limiters.put(LimitedResource.class, resourceLimiter);
+        return limiters;
+    }
+
+    private static Message newMessage() throws NoSuchMethodException {
+        Message message = new MessageImpl();
+        Exchange exchange = new ExchangeImpl();
+        exchange.setInMessage(message);
+        message.setExchange(exchange);
+        ClassResourceInfo resource = new ClassResourceInfo(LimitedResource.class);
+        exchange.put(OperationResourceInfo.class, new OperationResourceInfo(LimitedResource.class.getMethod("get"), resource));
+        return message;
+    }
+
+    private static int getStatus(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
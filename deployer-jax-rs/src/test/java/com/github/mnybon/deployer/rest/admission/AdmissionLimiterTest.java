@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class AdmissionLimiterTest {
+
+    private static final String ADDRESS = "http://localhost:8080/limited";
+
+    @Test
+    public void concurrencyLimitRejectsUntilARequestIsReleased() {
+        AdmissionLimiter limiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, 2);
+
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(0, limiter.tryAcquire());
+        assertEquals(AdmissionLimiter.CONCURRENCY_EXCEEDED, limiter.tryAcquire());
+        limiter.release();
+        assertEquals(0, limiter.tryAcquire());
+
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(3, limiter.getAdmittedCount());
+        assertEquals(1, limiter.getConcurrencyRejectedCount());
+    }
+
+    @Test
+    public void rateRejectionGivesBackTheConcurrencyPermit() {
+        AdmissionLimiter limiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 1, 1, 5);
+
+        assertEquals(0, limiter.tryAcquire());
+        long wait = limiter.tryAcquire();
+
+        assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(1, limiter.getRateRejectedCount());
+    }
+
+    @Test
+    public void burstDefaultsToOneSecondOfRequests() {
+        assertEquals(3, new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 2.5, 0, 0).getBurst());
+        assertEquals(1, new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0.2, 0, 0).getBurst());
+        assertEquals(7, new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 2.5, 7, 0).getBurst());
+        assertEquals(0, new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 7, 3).getBurst());
+    }
+
+    @Test
+    public void concurrentAcquiresNeverExceedTheLimit() throws Exception {
+        final int limit = 4;
+        final int threads = 16;
+        final int attempts = 20000;
+        final AdmissionLimiter limiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 0, 0, limit);
+        final AtomicInteger holding = new AtomicInteger();
+        final AtomicInteger exceeded = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < attempts; j++) {
+                        if (limiter.tryAcquire() == 0) {
+                            if (holding.incrementAndGet() > limit) {
+                                exceeded.incrementAndGet();
+                            }
+                            holding.decrementAndGet();
+                            limiter.release();
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.MINUTES.toMillis(1));
+        }
+
+        assertEquals(0, exceeded.get());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals((long) threads * attempts, limiter.getAdmittedCount() + limiter.getConcurrencyRejectedCount());
+    }
+
+    @Test
+    public void sameLimitsAreRecognized() {
+        AdmissionLimiter limiter = new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 10, 0, 2);
+
+        assertTrue(limiter.hasSameLimits(new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 10, 10, 2)));
+        assertFalse(limiter.hasSameLimits(new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 10, 5, 2)));
+        assertFalse(limiter.hasSameLimits(new AdmissionLimiter(ADDRESS, AdmissionLimiter.ADDRESS, 10, 0, 3)));
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.admission;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the bucket with explicit times rather than the clock.
+ *
+ * @author mnn
+ */
+public class TokenBucketTest {
+
+    private static final long START = TimeUnit.DAYS.toNanos(1);
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void fullBucketAdmitsTheBurstAtOnce() {
+        TokenBucket bucket = new TokenBucket(10, 3, START);
+
+        assertEquals(0, bucket.tryAcquire(START));
+        assertEquals(0, bucket.tryAcquire(START));
+        assertEquals(0, bucket.tryAcquire(START));
+        assertEquals(INTERVAL, bucket.tryAcquire(START));
+    }
+
+    @Test
+    public void tokensAreAddedAtTheRate() {
+        TokenBucket bucket = new TokenBucket(10, 1, START);
+        assertEquals(0, bucket.tryAcquire(START));
+
+        assertEquals(INTERVAL / 4, bucket.tryAcquire(START + 3 * INTERVAL / 4));
+        assertEquals(0, bucket.tryAcquire(START + INTERVAL));
+        assertEquals(INTERVAL, bucket.tryAcquire(START + INTERVAL));
+        assertEquals(0, bucket.tryAcquire(START + 2 * INTERVAL));
+    }
+
+    @Test
+    public void quietPeriodRefillsNoMoreThanTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, START);
+        assertEquals(0, bucket.tryAcquire(START));
+        assertEquals(0, bucket.tryAcquire(START));
+
+        long later = START + TimeUnit.MINUTES.toNanos(1);
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(0, bucket.tryAcquire(later));
+        assertEquals(INTERVAL, bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void fractionalRateSpacesTokens() {
+        TokenBucket bucket = new TokenBucket(0.5, 1, START);
+        assertEquals(0, bucket.tryAcquire(START));
+
+        assertEquals(TimeUnit.SECONDS.toNanos(2), bucket.tryAcquire(START));
+        assertEquals(0, bucket.tryAcquire(START + TimeUnit.SECONDS.toNanos(2)));
+    }
+
+    @Test
+    public void timesAreComparedOverflowSafe() {
+        long start = Long.MAX_VALUE - INTERVAL / 2;
+        TokenBucket bucket = new TokenBucket(10, 1, start);
+        assertEquals(0, bucket.tryAcquire(start));
+
+        assertEquals(INTERVAL / 2, bucket.tryAcquire(start + INTERVAL / 2));
+        assertEquals(0, bucket.tryAcquire(start + INTERVAL));
+    }
+
+}
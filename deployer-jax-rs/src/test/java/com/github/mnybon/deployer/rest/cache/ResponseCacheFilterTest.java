@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+import com.github.mnybon.deployer.rest.annotation.CachedResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serves a counting resource through the filter, so every response that is
+ * not taken from the cache has a new body.
+ *
+ * @author mnn
+ */
+public class ResponseCacheFilterTest {
+
+    @Path("/counter")
+    @CachedResponse(ttl = 1, unit = TimeUnit.HOURS, vary = "X-Tenant")
+    public interface CountingResource {
+
+        @GET
+        @Produces({"text/plain", "text/html"})
+        String get();
+
+        @GET
+        @Path("/uncached")
+        @CachedResponse(ttl = 0)
+        String getUncached();
+    }
+
+    public interface PlainResource {
+
+        @GET
+        String get();
+    }
+
+    public static class CountingResourceImpl implements CountingResource {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String get() {
+            return Integer.toString(count.incrementAndGet());
+        }
+
+        @Override
+        public String getUncached() {
+            return get();
+        }
+    }
+
+    private Bus bus;
+    private Server server;
+    private ResponseCache cache;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        address = "http://127.0.0.1:" + port + "/cached";
+        cache = new ResponseCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        bus = BusFactory.newInstance().createBus();
+        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean();
+        sf.setBus(bus);
+        sf.setAddress(address);
+        sf.setResourceClasses(CountingResource.class);
+        sf.setResourceProvider(CountingResource.class, new SingletonResourceProvider(new CountingResourceImpl()));
+        sf.setProviders(Collections.singletonList(new ResponseCacheFilter(cache, address)));
+        server = sf.create();
+    }
+
+    @After
+    public void tearDown() {
+        server.destroy();
+        bus.shutdown(true);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void repeatedRequestIsAnsweredFromTheCache() throws Exception {
+        assertEquals("1", get("/counter", "text/plain", null));
+        assertEquals("1", get("/counter", "text/plain", null));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void acceptAndVaryHeadersArePartOfTheKey() throws Exception {
+        assertEquals("1", get("/counter", "text/plain", null));
+        assertEquals("2", get("/counter", "text/html", null));
+        assertEquals("3", get("/counter", "text/plain", "a"));
+        assertEquals("4", get("/counter", "text/plain", "b"));
+
+        assertEquals("1", get("/counter", "text/plain", null));
+        assertEquals("2", get("/counter", "text/html", null));
+        assertEquals("3", get("/counter", "text/plain", "a"));
+        assertEquals("4", get("/counter", "text/plain", "b"));
+        assertEquals(4, cache.getEntryCount());
+    }
+
+    @Test
+    public void queryIsPartOfTheKey() throws Exception {
+        assertEquals("1", get("/counter?page=1", "text/plain", null));
+        assertEquals("2", get("/counter?page=2", "text/plain", null));
+        assertEquals("1", get("/counter?page=1", "text/plain", null));
+    }
+
+    @Test
+    public void invalidatedAddressIsServedByTheResourceAgain() throws Exception {
+        assertEquals("1", get("/counter", "text/plain", null));
+        cache.invalidate(address);
+        assertEquals("2", get("/counter", "text/plain", null));
+        assertEquals("2", get("/counter", "text/plain", null));
+    }
+
+    @Test
+    public void methodCanOptOutOfTheCachingOfItsInterface() throws Exception {
+        assertEquals("1", get("/counter/uncached", "text/plain", null));
+        assertEquals("2", get("/counter/uncached", "text/plain", null));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void onlyAnnotatedResourcesAreCached() {
+        assertTrue(ResponseCacheFilter.isCached(CountingResource.class));
+        assertFalse(ResponseCacheFilter.isCached(PlainResource.class));
+    }
+
+    private String get(String path, String accept, String tenant) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address + path).openConnection();
+        connection.setRequestProperty("Accept", accept);
+        if (tenant != null) {
+            connection.setRequestProperty("X-Tenant", tenant);
+        }
+        assertEquals(200, connection.getResponseCode());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class ResponseCacheTest {
+
+    private static final String ADDRESS = "http://localhost:8080/cache";
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedAtTheEntryLimit() {
+        ResponseCache cache = new ResponseCache(Long.MAX_VALUE, 2);
+        cache.put("a", entry(10), cache.getGeneration());
+        cache.put("b", entry(10), cache.getGeneration());
+        assertNotNull(cache.get("a"));
+        cache.put("c", entry(10), cache.getGeneration());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void entriesAreEvictedUntilTheSizeFitsTheByteLimit() {
+        long entrySize = entry(100).getSizeBytes("a");
+        ResponseCache cache = new ResponseCache(2 * entrySize, Integer.MAX_VALUE);
+        cache.put("a", entry(100), cache.getGeneration());
+        cache.put("b", entry(100), cache.getGeneration());
+        assertEquals(2 * entrySize, cache.getSizeBytes());
+
+        cache.put("c", entry(100), cache.getGeneration());
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2 * entrySize, cache.getSizeBytes());
+    }
+
+    @Test
+    public void entryLargerThanTheByteLimitIsNotCached() {
+        ResponseCache cache = new ResponseCache(100, Integer.MAX_VALUE);
+        cache.put("a", entry(100), cache.getGeneration());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void replacedEntryIsNotCountedTwice() {
+        ResponseCache cache = new ResponseCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        cache.put("a", entry(100), cache.getGeneration());
+        cache.put("a", entry(50), cache.getGeneration());
+
+        assertEquals(entry(50).getSizeBytes("a"), cache.getSizeBytes());
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void expiredEntryIsNotServed() {
+        ResponseCache cache = new ResponseCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        cache.put("expired", entry(10, System.nanoTime() - 1), cache.getGeneration());
+        cache.put("live", entry(10, System.nanoTime() + TimeUnit.MINUTES.toNanos(1)), cache.getGeneration());
+
+        assertNull(cache.get("expired"));
+        assertNotNull(cache.get("live"));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void responseProducedBeforeAnInvalidationIsNotStored() {
+        ResponseCache cache = new ResponseCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        long generation = cache.getGeneration();
+        cache.invalidate("http://localhost:8080/other");
+
+        cache.put("a", entry(10), generation);
+
+        assertNull(cache.get("a"));
+        cache.put("a", entry(10), cache.getGeneration());
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void invalidationDropsOnlyTheResourceOnTheAddress() {
+        ResponseCache cache = new ResponseCache(Long.MAX_VALUE, Integer.MAX_VALUE);
+        cache.put("string", new ResponseCacheEntry(ADDRESS, String.class, new byte[10], null, noHeaders(), later()), cache.getGeneration());
+        cache.put("integer", new ResponseCacheEntry(ADDRESS, Integer.class, new byte[10], null, noHeaders(), later()), cache.getGeneration());
+        cache.put("other", new ResponseCacheEntry("http://localhost:8080/other", String.class, new byte[10], null, noHeaders(), later()), cache.getGeneration());
+
+        cache.invalidate(ADDRESS, String.class);
+        assertNull(cache.get("string"));
+        assertNotNull(cache.get("integer"));
+        assertNotNull(cache.get("other"));
+
+        cache.invalidate(ADDRESS);
+        assertNull(cache.get("integer"));
+        assertNotNull(cache.get("other"));
+        assertEquals(entry(10).getSizeBytes("other"), cache.getSizeBytes());
+        assertEquals(2, cache.getInvalidationCount());
+    }
+
+    private static ResponseCacheEntry entry(int bodySize) {
+        return entry(bodySize, later());
+    }
+
+    private static ResponseCacheEntry entry(int bodySize, long expiresAtNanos) {
+        return new ResponseCacheEntry(ADDRESS, String.class, new byte[bodySize], "text/plain", noHeaders(), expiresAtNanos);
+    }
+
+    private static long later() {
+        return System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+    }
+
+    private static Map<String, List<String>> noHeaders() {
+        return Collections.emptyMap();
+    }
+
+}
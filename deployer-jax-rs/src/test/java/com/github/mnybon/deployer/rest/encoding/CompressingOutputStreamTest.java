@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class CompressingOutputStreamTest {
+
+    private static final byte[] BODY = repeat("compressible body ", 100);
+
+    @Test
+    public void bodyBelowTheThresholdIsWrittenAsIs() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = newHeaders();
+        CompressingOutputStream out = new CompressingOutputStream(target, CompressingOutputStream.GZIP, BODY.length + 1, headers);
+
+        out.write(BODY);
+        out.flush();
+        assertEquals("Held back until the body is complete", 0, target.size());
+        out.finish();
+
+        assertArrayEquals(BODY, target.toByteArray());
+        assertFalse(headers.containsKey(ResponseEncodingInterceptor.CONTENT_ENCODING));
+        assertEquals(BODY.length, headers.getFirst(ResponseEncodingInterceptor.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void bodyReachingTheThresholdIsGzipped() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = newHeaders();
+        CompressingOutputStream out = new CompressingOutputStream(target, CompressingOutputStream.GZIP, BODY.length, headers);
+
+        out.write(BODY);
+        out.finish();
+
+        assertEquals(CompressingOutputStream.GZIP, headers.getFirst(ResponseEncodingInterceptor.CONTENT_ENCODING));
+        assertFalse(headers.containsKey(ResponseEncodingInterceptor.CONTENT_LENGTH));
+        assertTrue(target.size() < BODY.length);
+        assertArrayEquals(BODY, readAll(new GZIPInputStream(new ByteArrayInputStream(target.toByteArray()))));
+    }
+
+    @Test
+    public void bodyWrittenInPiecesIsDeflated() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = newHeaders();
+        CompressingOutputStream out = new CompressingOutputStream(target, CompressingOutputStream.DEFLATE, 100, headers);
+
+        out.write(BODY, 0, 60);
+        out.write(BODY[60]);
+        out.write(BODY, 61, BODY.length - 61);
+        out.close();
+
+        assertEquals(CompressingOutputStream.DEFLATE, headers.getFirst(ResponseEncodingInterceptor.CONTENT_ENCODING));
+        assertArrayEquals(BODY, readAll(new InflaterInputStream(new ByteArrayInputStream(target.toByteArray()))));
+    }
+
+    @Test
+    public void emptyBodyIsNotCompressed() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = newHeaders();
+        CompressingOutputStream out = new CompressingOutputStream(target, CompressingOutputStream.GZIP, 1, headers);
+
+        out.finish();
+
+        assertEquals(0, target.size());
+        assertFalse(headers.containsKey(ResponseEncodingInterceptor.CONTENT_ENCODING));
+    }
+
+    @Test
+    public void targetIsLeftOpen() throws Exception {
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        CompressingOutputStream out = new CompressingOutputStream(target, CompressingOutputStream.GZIP, 0, newHeaders());
+
+        out.write(BODY);
+        out.close();
+
+        assertFalse(closed[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterTheBodyIsCompleteFails() throws Exception {
+        CompressingOutputStream out = new CompressingOutputStream(new ByteArrayOutputStream(), CompressingOutputStream.GZIP, 0, newHeaders());
+        out.finish();
+
+        out.write(BODY);
+    }
+
+    private static MultivaluedMap<String, Object> newHeaders() {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        headers.putSingle(ResponseEncodingInterceptor.CONTENT_LENGTH, BODY.length);
+        return headers;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text).append(i);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Negotiates the content coding and checks entity tags on an endpoint that
+ * compresses text bodies of at least {@link #THRESHOLD} bytes and tags every
+ * response.
+ *
+ * @author mnn
+ */
+public class ResponseEncodingInterceptorTest {
+
+    private static final int THRESHOLD = 256;
+    private static final String LARGE = repeat("a compressible text body ", 100);
+    private static final String SMALL = "small";
+
+    @Path("/encoded")
+    public interface EncodedResource {
+
+        @GET
+        @Produces("text/plain")
+        String getLarge();
+
+        @GET
+        @Path("/small")
+        @Produces("text/plain")
+        String getSmall();
+
+        @GET
+        @Path("/binary")
+        @Produces("application/octet-stream")
+        byte[] getBinary();
+
+        @GET
+        @Path("/streamed")
+        @Produces("text/plain")
+        StreamingOutput getStreamed();
+    }
+
+    public static class EncodedResourceImpl implements EncodedResource {
+
+        @Override
+        public String getLarge() {
+            return LARGE;
+        }
+
+        @Override
+        public String getSmall() {
+            return SMALL;
+        }
+
+        @Override
+        public byte[] getBinary() {
+            return LARGE.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public StreamingOutput getStreamed() {
+            return new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    output.write(LARGE.getBytes(StandardCharsets.UTF_8));
+                }
+            };
+        }
+    }
+
+    private Bus bus;
+    private Server server;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        address = "http://127.0.0.1:" + port + "/encoding";
+        ResponseEncodingPolicy policy = new ResponseEncodingPolicy(THRESHOLD, Arrays.asList("text/*"));
+        policy.compressAll();
+        policy.tagAll();
+        bus = BusFactory.newInstance().createBus();
+        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean();
+        sf.setBus(bus);
+        sf.setAddress(address);
+        sf.setResourceClasses(EncodedResource.class);
+        sf.setResourceProvider(EncodedResource.class, new SingletonResourceProvider(new EncodedResourceImpl()));
+        sf.setProviders(Collections.singletonList(new ResponseEncodingInterceptor(policy)));
+        server = sf.create();
+    }
+
+    @After
+    public void tearDown() {
+        server.destroy();
+        bus.shutdown(true);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void gzipIsPreferredAndDeflateUsedWhenGzipIsRefused() {
+        assertEquals("gzip", ResponseEncodingInterceptor.selectCoding("deflate, gzip"));
+        assertEquals("gzip", ResponseEncodingInterceptor.selectCoding("x-gzip"));
+        assertEquals("gzip", ResponseEncodingInterceptor.selectCoding("*"));
+        assertEquals("deflate", ResponseEncodingInterceptor.selectCoding("gzip;q=0, deflate;q=0.5"));
+        assertEquals("deflate", ResponseEncodingInterceptor.selectCoding("GZIP; Q=0.0, *"));
+        assertEquals("deflate", ResponseEncodingInterceptor.selectCoding("br, deflate"));
+    }
+
+    @Test
+    public void noCodingIsSelectedWhenNoneIsAccepted() {
+        assertNull(ResponseEncodingInterceptor.selectCoding(null));
+        assertNull(ResponseEncodingInterceptor.selectCoding("identity"));
+        assertNull(ResponseEncodingInterceptor.selectCoding("gzip;q=0, deflate;q=0"));
+        assertNull(ResponseEncodingInterceptor.selectCoding("*;q=0"));
+        assertNull(ResponseEncodingInterceptor.selectCoding("gzip;q=0, *;q=0"));
+    }
+
+    @Test
+    public void entityTagsAreComparedWeakly() {
+        assertTrue(ResponseEncodingInterceptor.matches("\"abc\"", "abc"));
+        assertTrue(ResponseEncodingInterceptor.matches("W/\"abc\"", "abc"));
+        assertTrue(ResponseEncodingInterceptor.matches("\"other\", \"abc-gzip\"", "abc"));
+        assertTrue(ResponseEncodingInterceptor.matches("\"abc-deflate\"", "abc"));
+        assertTrue(ResponseEncodingInterceptor.matches("*", "abc"));
+        assertFalse(ResponseEncodingInterceptor.matches("\"abcd\"", "abc"));
+        assertFalse(ResponseEncodingInterceptor.matches("abc", "abc"));
+        assertFalse(ResponseEncodingInterceptor.matches(null, "abc"));
+    }
+
+    @Test
+    public void acceptedGzipCompressesTheBody() throws Exception {
+        Response response = get("", "Accept-Encoding", "gzip");
+
+        assertEquals(200, response.status);
+        assertEquals("gzip", response.connection.getHeaderField("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.connection.getHeaderField("Vary"));
+        assertEquals(LARGE, decode(new GZIPInputStream(new ByteArrayInputStream(response.body))));
+    }
+
+    @Test
+    public void refusedGzipFallsBackToDeflate() throws Exception {
+        Response response = get("", "Accept-Encoding", "gzip;q=0, deflate");
+
+        assertEquals("deflate", response.connection.getHeaderField("Content-Encoding"));
+        assertEquals(LARGE, decode(new InflaterInputStream(new ByteArrayInputStream(response.body))));
+    }
+
+    @Test
+    public void bodyIsNotCompressedWithoutAcceptEncoding() throws Exception {
+        Response response = get("");
+
+        assertNull(response.connection.getHeaderField("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.connection.getHeaderField("Vary"));
+        assertEquals(LARGE, response.getText());
+    }
+
+    @Test
+    public void bodyBelowTheThresholdIsNotCompressed() throws Exception {
+        Response response = get("/small", "Accept-Encoding", "gzip");
+
+        assertNull(response.connection.getHeaderField("Content-Encoding"));
+        assertEquals(SMALL, response.getText());
+    }
+
+    @Test
+    public void mediaTypeOutsideTheCompressedTypesIsNotCompressed() throws Exception {
+        Response response = get("/binary", "Accept-Encoding", "gzip");
+
+        assertNull(response.connection.getHeaderField("Content-Encoding"));
+        assertNull(response.connection.getHeaderField("Vary"));
+        assertEquals(LARGE, response.getText());
+    }
+
+    @Test
+    public void strongTagIsStableAndNamesTheCoding() throws Exception {
+        String identity = get("").connection.getHeaderField("ETag");
+        String gzipped = get("", "Accept-Encoding", "gzip").connection.getHeaderField("ETag");
+
+        assertTrue(identity, identity.matches("\"[0-9a-f]{32}\""));
+        assertEquals(identity, get("").connection.getHeaderField("ETag"));
+        assertEquals(identity.substring(0, identity.length() - 1) + "-gzip\"", gzipped);
+    }
+
+    @Test
+    public void matchingTagIsAnsweredWithNotModified() throws Exception {
+        String tag = get("").connection.getHeaderField("ETag");
+
+        Response response = get("", "If-None-Match", tag);
+        assertEquals(304, response.status);
+        assertEquals(0, response.body.length);
+        assertEquals(tag, response.connection.getHeaderField("ETag"));
+
+        String gzipped = get("", "Accept-Encoding", "gzip").connection.getHeaderField("ETag");
+        assertEquals(304, get("", "If-None-Match", gzipped).status);
+        assertEquals(304, get("", "If-None-Match", "W/" + tag, "Accept-Encoding", "gzip").status);
+        assertEquals(200, get("", "If-None-Match", "\"0123\"").status);
+    }
+
+    @Test
+    public void streamedEntityIsCompressedButNotTagged() throws Exception {
+        Response response = get("/streamed", "Accept-Encoding", "gzip");
+
+        assertNull(response.connection.getHeaderField("ETag"));
+        assertEquals("gzip", response.connection.getHeaderField("Content-Encoding"));
+        assertEquals(LARGE, decode(new GZIPInputStream(new ByteArrayInputStream(response.body))));
+    }
+
+    private Response get(String path, String... headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address + "/encoded" + path).openConnection();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+        int status = connection.getResponseCode();
+        byte[] body = new byte[0];
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                body = readAll(in);
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(status, body, connection);
+    }
+
+    private static String decode(InputStream in) throws IOException {
+        return new String(readAll(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text).append(i);
+        }
+        return builder.toString();
+    }
+
+    private static class Response {
+
+        private final int status;
+        private final byte[] body;
+        private final HttpURLConnection connection;
+
+        Response(int status, byte[] body, HttpURLConnection connection) {
+            this.status = status;
+            this.body = body;
+            this.connection = connection;
+        }
+
+        String getText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.encoding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import javax.ws.rs.core.MediaType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author mnn
+ */
+public class ResponseEncodingPolicyTest {
+
+    @Test
+    public void mediaTypesMatchExactlyOrByWildcardSubtype() {
+        ResponseEncodingPolicy policy = new ResponseEncodingPolicy(0, Arrays.asList("text/*", "application/json"));
+
+        assertTrue(policy.isCompressible(MediaType.TEXT_PLAIN_TYPE));
+        assertTrue(policy.isCompressible(MediaType.valueOf("text/html;charset=UTF-8")));
+        assertTrue(policy.isCompressible(MediaType.valueOf("Application/JSON")));
+        assertFalse(policy.isCompressible(MediaType.APPLICATION_XML_TYPE));
+        assertFalse(policy.isCompressible(MediaType.valueOf("application/json-patch+json")));
+        assertFalse(policy.isCompressible(MediaType.valueOf("image/png")));
+        assertFalse(policy.isCompressible(null));
+    }
+
+    @Test
+    public void resourcesAreCompressedAndTaggedSeparately() {
+        ResponseEncodingPolicy policy = new ResponseEncodingPolicy(0, Collections.<String>emptyList());
+        assertTrue(policy.isEmpty());
+
+        policy.compress(String.class);
+        policy.tag(Integer.class);
+
+        assertFalse(policy.isEmpty());
+        assertTrue(policy.isCompressed(String.class));
+        assertFalse(policy.isCompressed(Integer.class));
+        assertFalse(policy.isCompressed(null));
+        assertTrue(policy.isTagged(Integer.class));
+        assertFalse(policy.isTagged(String.class));
+    }
+
+    @Test
+    public void addressWideSettingsApplyToEveryResource() {
+        ResponseEncodingPolicy policy = new ResponseEncodingPolicy(0, Collections.<String>emptyList());
+
+        policy.compressAll();
+        policy.tagAll();
+
+        assertTrue(policy.isCompressed(null));
+        assertTrue(policy.isCompressed(Long.class));
+        assertTrue(policy.isTagged(null));
+        assertTrue(policy.isTagged(Long.class));
+    }
+
+    @Test
+    public void negativeThresholdCompressesEveryBody() {
+        assertEquals(0, new ResponseEncodingPolicy(-1, Collections.<String>emptyList()).getCompressionThreshold());
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.rest.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket boundaries and that percentiles stay within the 12.5%
+ * bucket width of the exact value.
+ *
+ * @author mnn
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.bucketOf(value));
+            assertEquals(value, LatencyHistogram.lowerBoundOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf(value));
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartANewBucket() {
+        assertEquals(8, LatencyHistogram.bucketOf(8));
+        assertEquals(15, LatencyHistogram.bucketOf(15));
+        assertEquals(16, LatencyHistogram.bucketOf(16));
+        assertEquals(16, LatencyHistogram.bucketOf(17));
+        assertEquals(17, LatencyHistogram.bucketOf(18));
+        assertEquals(23, LatencyHistogram.bucketOf(31));
+        assertEquals(24, LatencyHistogram.bucketOf(32));
+        for (int exponent = 3; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            int bucket = LatencyHistogram.bucketOf(power);
+            assertEquals(power, LatencyHistogram.lowerBoundOf(bucket));
+            assertEquals(bucket - 1, LatencyHistogram.bucketOf(power - 1));
+            assertEquals(power - 1, LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    @Test
+    public void largestValueFallsInTheLastBucket() {
+        int bucket = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(bucket, LatencyHistogram.bucketOf(Long.MAX_VALUE - (Long.MAX_VALUE >>> 4)));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(bucket));
+    }
+
+    @Test
+    public void bucketsAreAtMostAnEighthOfTheirLowerBound() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucketOf(value);
+            long lower = LatencyHistogram.lowerBoundOf(bucket);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(value + " below " + lower, lower <= value);
+            assertTrue(value + " above " + upper, value <= upper);
+            if (lower >= 8) {
+                assertTrue(value + " in a bucket of " + (upper - lower + 1), upper - lower + 1 <= lower / 8);
+            }
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos(), 0);
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void percentilesOfUniformLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5000500, histogram.getMeanNanos(), 0.001);
+        assertWithinBucket(5000000, histogram.getPercentileNanos(50));
+        assertWithinBucket(9000000, histogram.getPercentileNanos(90));
+        assertWithinBucket(9900000, histogram.getPercentileNanos(99));
+        assertWithinBucket(1000, histogram.getPercentileNanos(0));
+        assertEquals(10000000, histogram.getPercentileNanos(100));
+        assertEquals(10000000, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void percentilesOfASkewedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(200));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(300));
+        }
+
+        assertWithinBucket(TimeUnit.MICROSECONDS.toNanos(200), histogram.getPercentileNanos(50));
+        assertWithinBucket(TimeUnit.MICROSECONDS.toNanos(200), histogram.getPercentileNanos(99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), histogram.getPercentileNanos(99.9));
+    }
+
+    @Test
+    public void negativeLatenciesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void stripesOfConcurrentThreadsAreMerged() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 8;
+        final int perThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 1; t <= threads; t++) {
+                final long value = t * 1000000L;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < perThread; i++) {
+                            histogram.record(value);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(4500000, histogram.getMeanNanos(), 0.001);
+        assertWithinBucket(4000000, histogram.getPercentileNanos(50));
+        assertEquals(8000000, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    private static void assertWithinBucket(long exact, long reported) {
+        assertTrue(reported + " is below " + exact, reported >= exact);
+        assertTrue(reported + " is more than 12.5% above " + exact, reported <= exact + exact / 8);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import java.util.concurrent.BlockingQueue;
+import org.apache.cxf.configuration.jsse.TLSServerParameters;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies an {@link EngineTuning} to a Jetty engine.
+ * <p>
+ * CXF creates the Jetty server and connector of an engine when the first
+ * endpoint is published on it, unless the engine already has a connector. A
+ * new engine is therefore given a server and connector built from the tuning,
+ * mirroring the ones CXF would have built. A running engine only has the
+ * settings that Jetty allows to change at runtime applied.
+ *
+ * @author mnn
+ */
+class EngineTuner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EngineTuner.class);
+
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final int DEFAULT_THREAD_IDLE_TIMEOUT = 60000;
+
+    private EngineTuner() {
+    }
+
+    /**
+     * Tunes the engine, building its server and connector if it has not been
+     * started yet.
+     *
+     * @throws Exception if the SSL context factory could not be built
+     */
+    static void tune(JettyHTTPServerEngine engine, EngineTuning tuning) throws Exception {
+        if (tuning == null) {
+            return;
+        }
+        if (engine.getServer() == null && engine.getConnector() == null) {
+            prepare(engine, tuning);
+        } else {
+            retune(engine, tuning);
+        }
+    }
+
+    private static void prepare(JettyHTTPServerEngine engine, EngineTuning tuning) throws Exception {
+        ThreadPool threadPool = newThreadPool(engine, tuning);
+        TLSServerParameters tlsParameters = engine.getTlsServerParameters();
+        if (tlsParameters != null && !SslContextReloader.DEFAULT.canBuildSslContextFactory()) {
+            LOGGER.warn("Cannot build the connector of {} on port {}. Only the thread pool is tuned", engine.getProtocol(), engine.getPort());
+            engine.setThreadPool(threadPool);
+            return;
+        }
+
+        Server server = new Server(threadPool);
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        if (engine.getSendServerVersion() != null) {
+            httpConfiguration.setSendServerVersion(engine.getSendServerVersion());
+        }
+        tune(httpConfiguration, tuning);
+
+        int acceptors = tuning.getAcceptors() == null ? -1 : tuning.getAcceptors();
+        int selectors = tuning.getSelectors() == null ? -1 : tuning.getSelectors();
+        ServerConnector connector;
+        if (tlsParameters != null) {
+            httpConfiguration.setSecureScheme("https");
+            httpConfiguration.setSecurePort(engine.getPort());
+            httpConfiguration.addCustomizer(new SecureRequestCustomizer());
+            SslConnectionFactory sslConnectionFactory = new SslConnectionFactory(
+                    SslContextReloader.DEFAULT.newSslContextFactory(tlsParameters), HttpVersion.HTTP_1_1.asString());
+            connector = new ServerConnector(server, acceptors, selectors, sslConnectionFactory, new HttpConnectionFactory(httpConfiguration));
+        } else {
+            connector = new ServerConnector(server, acceptors, selectors, new HttpConnectionFactory(httpConfiguration));
+        }
+        connector.setHost(engine.getHost());
+        connector.setPort(engine.getPort());
+        connector.setReuseAddress(tuning.getReuseAddress() == null ? engine.isReuseAddress() : tuning.getReuseAddress());
+        if (tuning.getIdleTimeout() != null) {
+            connector.setIdleTimeout(tuning.getIdleTimeout());
+        } else if (engine.getMaxIdleTime() > 0) {
+            connector.setIdleTimeout(engine.getMaxIdleTime());
+        }
+        engine.setConnector(connector);
+        LOGGER.info("Built {} connector on port {} with {}", engine.getProtocol(), engine.getPort(), tuning);
+    }
+
+    private static void retune(JettyHTTPServerEngine engine, EngineTuning tuning) {
+        Server server = engine.getServer();
+        ThreadPool threadPool = server == null ? null : server.getThreadPool();
+        if (threadPool instanceof QueuedThreadPool) {
+            QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+            int minThreads = tuning.getMinThreads() == null ? queuedThreadPool.getMinThreads() : tuning.getMinThreads();
+            int maxThreads = tuning.getMaxThreads() == null ? queuedThreadPool.getMaxThreads() : tuning.getMaxThreads();
+            if (minThreads > maxThreads) {
+                LOGGER.warn("Ignoring thread counts for port {}. Min threads {} is above max threads {}", engine.getPort(), minThreads, maxThreads);
+            } else {
+                //Setting the max first may lower the min, which is then set to its final value
+                queuedThreadPool.setMaxThreads(maxThreads);
+                queuedThreadPool.setMinThreads(minThreads);
+            }
+        }
+        Connector connector = engine.getConnector();
+        if (connector instanceof AbstractConnector) {
+            AbstractConnector abstractConnector = (AbstractConnector) connector;
+            if (tuning.getIdleTimeout() != null) {
+                abstractConnector.setIdleTimeout(tuning.getIdleTimeout());
+            }
+            HttpConnectionFactory httpConnectionFactory = abstractConnector.getConnectionFactory(HttpConnectionFactory.class);
+            if (httpConnectionFactory != null) {
+                tune(httpConnectionFactory.getHttpConfiguration(), tuning);
+            }
+        }
+        LOGGER.info("Retuned {} engine on port {} with {}", engine.getProtocol(), engine.getPort(), tuning);
+    }
+
+    private static void tune(HttpConfiguration httpConfiguration, EngineTuning tuning) {
+        if (tuning.getOutputBufferSize() != null) {
+            httpConfiguration.setOutputBufferSize(tuning.getOutputBufferSize());
+        }
+        if (tuning.getRequestHeaderSize() != null) {
+            httpConfiguration.setRequestHeaderSize(tuning.getRequestHeaderSize());
+        }
+    }
+
+    private static ThreadPool newThreadPool(JettyHTTPServerEngine engine, EngineTuning tuning) {
+        if (Boolean.TRUE.equals(tuning.getVirtualThreads())) {
+            if (VirtualThreadPool.isSupported()) {
+                return new VirtualThreadPool(engine.getProtocol() + "-" + engine.getPort());
+            }
+            LOGGER.warn("Virtual threads are not supported by Java {}. Port {} uses a thread pool instead",
+                    System.getProperty("java.version"), engine.getPort());
+        }
+        int minThreads = tuning.getMinThreads() == null ? DEFAULT_MIN_THREADS : tuning.getMinThreads();
+        int maxThreads = tuning.getMaxThreads() == null ? Math.max(DEFAULT_MAX_THREADS, minThreads) : tuning.getMaxThreads();
+        if (minThreads > maxThreads) {
+            throw new IllegalArgumentException("Min threads " + minThreads + " is above max threads " + maxThreads);
+        }
+        BlockingQueue<Runnable> queue = null;
+        if (tuning.getMaxQueuedRequests() != null) {
+            int capacity = tuning.getMaxQueuedRequests();
+            int initial = Math.max(1, Math.min(minThreads, capacity));
+            queue = new BlockingArrayQueue<>(initial, initial, capacity);
+        }
+        return new QueuedThreadPool(maxThreads, minThreads, DEFAULT_THREAD_IDLE_TIMEOUT, queue);
+    }
+
+}
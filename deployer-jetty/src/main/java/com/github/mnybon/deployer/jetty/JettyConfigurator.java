@@ -16,9 +16,16 @@
 package com.github.mnybon.deployer.jetty;
 
 import com.github.mnybon.deployer.jetty.service.EngineConfiguration;
+import com.github.mnybon.deployer.jetty.service.EngineRegistry;
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import com.github.mnybon.deployer.jetty.service.TunableEngineConfiguration;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.management.MBeanServer;
 import org.apache.cxf.configuration.jsse.TLSServerParameters;
 import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
@@ -36,10 +43,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.github.mnybon.deployer.jetty.service.JettyConfiguration;
 import com.github.mnybon.deployer.rest.service.RestServiceDeployment;
-import java.util.List;
-import java.util.logging.Level;
-import org.eclipse.jetty.server.Handler;
-import org.eclipse.jetty.server.handler.ContextHandler;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
@@ -49,18 +52,56 @@ import org.osgi.service.component.annotations.ReferencePolicy;
  * @author mnn
  */
 @Component(immediate = true)
-public class JettyConfigurator implements JettyConfiguration {
+public class JettyConfigurator implements JettyConfiguration, EngineRegistry {
 
     private static Logger LOGGER = LoggerFactory.getLogger(JettyConfigurator.class);
 
+    /**
+     * How an engine that is already running is reconfigured. {@value #MODE_RELOAD}, the default,
+     * keeps the port open: TLS parameters are reloaded in place and an unchanged plain HTTP engine
+     * is left running. {@value #MODE_RESTART} always destroys and recreates the engine, closing the
+     * port until the endpoints on it have been rebuilt. Engines that change protocol are always
+     * recreated.
+     */
+    public static final String RECONFIGURE_MODE = "reconfigure.mode";
+    public static final String MODE_RELOAD = "reload";
+    public static final String MODE_RESTART = "restart";
+
     private RestServiceDeployment restDeployer;
     private JettyHTTPServerEngineFactory factory;
     private ServiceTracker<EngineConfiguration, EngineConfiguration> configurationSources;
     private ServiceTracker<MBeanServer, MBeanServer> mBeanServerSources;
+    /**
+     * The engines created or reconfigured here, keyed by port.
+     */
+    private final ConcurrentMap<Integer, JettyHTTPServerEngine> engines = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ServiceReference<EngineConfiguration>, Integer> managedPorts = new ConcurrentHashMap<>();
+    /**
+     * The tuning each engine was last built or retuned with. Engines built with the Jetty defaults
+     * have no entry.
+     */
+    private final ConcurrentMap<Integer, EngineTuning> tunings = new ConcurrentHashMap<>();
+    /**
+     * The TLS parameters each HTTPS engine was last built or reloaded with. A reloaded engine keeps
+     * reporting the parameters it was built with.
+     */
+    private final ConcurrentMap<Integer, TLSServerParameters> tlsParameters = new ConcurrentHashMap<>();
+    private final SslContextReloader reloader;
+    private boolean restartOnReconfigure;
+
+    public JettyConfigurator() {
+        this(SslContextReloader.DEFAULT);
+    }
+
+    JettyConfigurator(SslContextReloader reloader) {
+        this.reloader = reloader;
+    }
 
     @Activate
-    public void activate(BundleContext context) throws InvalidSyntaxException {
-        LOGGER.info("Starting configurator");
+    public void activate(BundleContext context, Map<String, ?> properties) throws InvalidSyntaxException {
+        Object mode = properties == null ? null : properties.get(RECONFIGURE_MODE);
+        restartOnReconfigure = mode != null && MODE_RESTART.equalsIgnoreCase(mode.toString().trim());
+        LOGGER.info("Starting configurator. Running engines are reconfigured by {}", restartOnReconfigure ? MODE_RESTART : MODE_RELOAD);
         mBeanServerSources = new ServiceTracker<>(context, MBeanServer.class, null);
         factory = new JettyHTTPServerEngineFactory() {
             @Override
@@ -70,11 +111,10 @@ public class JettyConfigurator implements JettyConfiguration {
         };
         configurationSources = new ConfigurationSourcesTracker(context, EngineConfiguration.class, null);
         configurationSources.open();
-        LOGGER.info("Discovering engines");
-        for (int i = 0; i < 65535; i++) {
-            JettyHTTPServerEngine engine = factory.retrieveJettyHTTPServerEngine(i);
+        for (Integer port : getPorts()) {
+            JettyHTTPServerEngine engine = getEngine(port);
             if (engine != null) {
-                LOGGER.info("Discovered " + engine.getProtocol() + " " + engine.getHost() + " " + engine.getPort() + " " + engine.getHandlers());
+                LOGGER.info("Discovered {} {} {} {}", engine.getProtocol(), engine.getHost(), engine.getPort(), engine.getHandlers());
             }
         }
     }
@@ -84,6 +124,49 @@ public class JettyConfigurator implements JettyConfiguration {
         configurationSources.close();
         factory = null;
         configurationSources = null;
+        engines.clear();
+        managedPorts.clear();
+        tunings.clear();
+        tlsParameters.clear();
+    }
+
+    @Override
+    public Set<Integer> getPorts() {
+        Set<Integer> ports = new TreeSet<>();
+        for (Map.Entry<Integer, JettyHTTPServerEngine> entry : engines.entrySet()) {
+            if (isLive(entry.getKey(), entry.getValue())) {
+                ports.add(entry.getKey());
+            } else {
+                engines.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return ports;
+    }
+
+    @Override
+    public Set<Integer> getManagedPorts() {
+        return new TreeSet<>(managedPorts.values());
+    }
+
+    @Override
+    public JettyHTTPServerEngine getEngine(int port) {
+        JettyHTTPServerEngineFactory current = factory;
+        return current == null ? null : current.retrieveJettyHTTPServerEngine(port);
+    }
+
+    /**
+     * @return the TLS parameters the engine on the port currently uses, or null if it is a plain
+     * HTTP engine or was not configured here
+     */
+    public TLSServerParameters getTlsServerParameters(int port) {
+        return tlsParameters.get(port);
+    }
+
+    /**
+     * @return false if the engine has been destroyed or replaced since it was registered
+     */
+    private boolean isLive(int port, JettyHTTPServerEngine engine) {
+        return getEngine(port) == engine;
     }
 
     private class ConfigurationSourcesTracker extends ServiceTracker<EngineConfiguration, EngineConfiguration> {
@@ -106,6 +189,7 @@ public class JettyConfigurator implements JettyConfiguration {
 
         @Override
         public void removedService(ServiceReference<EngineConfiguration> reference, EngineConfiguration service) {
+            managedPorts.remove(reference);
             super.removedService(reference, service);
 
         }
@@ -115,9 +199,9 @@ public class JettyConfigurator implements JettyConfiguration {
             LOGGER.info("Discovered new " + EngineConfiguration.class.getSimpleName() + " service. Starting engine configuration");
             EngineConfiguration conf = super.addingService(reference);
             int port = conf.getConfiguredPort();
+            managedPorts.put(reference, port);
             try {
-                reconfigureServer(port, conf.getTLSParameters());
-                if (restDeployer != null) {
+                if (reconfigureServer(port, conf.getTLSParameters(), getTuning(conf)) && restDeployer != null) {
                     LOGGER.info("Rebuilding closed servers for port: " + port + ".");
                     restDeployer.rebuildServers(port);
                 }
@@ -135,8 +219,7 @@ public class JettyConfigurator implements JettyConfiguration {
         for (EngineConfiguration config : configurationSources.getServices(new EngineConfiguration[configurationSources.size()])) {
             try {
                 if (config.getConfiguredPort() == port) {
-                    reconfigureServer(port, config.getTLSParameters());
-                    if (restDeployer != null) {
+                    if (reconfigureServer(port, config.getTLSParameters(), getTuning(config)) && restDeployer != null) {
                         LOGGER.info("Rebuilding closed servers for port: " + port + ".");
                         restDeployer.rebuildServers(port);
                     }
@@ -151,7 +234,7 @@ public class JettyConfigurator implements JettyConfiguration {
 
     @Override
     public boolean isManaged(int port) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return managedPorts.containsValue(port);
     }
 
     @Override
@@ -159,13 +242,55 @@ public class JettyConfigurator implements JettyConfiguration {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
-    public void reconfigureServer(int port, TLSServerParameters parameters) {
+    static EngineTuning getTuning(EngineConfiguration configuration) {
+        if (configuration instanceof TunableEngineConfiguration) {
+            return ((TunableEngineConfiguration) configuration).getTuning();
+        }
+        return null;
+    }
+
+    /**
+     * Applies the TLS parameters to the engine on the port with the Jetty defaults, creating the
+     * engine if there is none.
+     *
+     * @see #reconfigureServer(int, TLSServerParameters, EngineTuning)
+     */
+    public boolean reconfigureServer(int port, TLSServerParameters parameters) {
+        return reconfigureServer(port, parameters, null);
+    }
+
+    /**
+     * Applies the TLS parameters and tuning to the engine on the port, creating the engine if there
+     * is none.
+     *
+     * @param parameters the TLS parameters, or null for plain HTTP
+     * @param tuning the tuning of the engine, or null for the Jetty defaults
+     * @return true if the engine was created or recreated, in which case the endpoints on the port
+     * must be rebuilt. False if a running engine was reconfigured in place or left untouched.
+     */
+    public boolean reconfigureServer(int port, TLSServerParameters parameters, EngineTuning tuning) {
         JettyHTTPServerEngine engine = factory.retrieveJettyHTTPServerEngine(port);
+        boolean destroyed = false;
 
         try {
+            if (engine != null && !restartOnReconfigure && !EngineTuning.requiresRestart(tunings.get(port), tuning)) {
+                if (parameters == null && engine.getTlsServerParameters() == null) {
+                    LOGGER.info("Plain HTTP engine on port {} already exists. Leaving it in place", port);
+                    track(port, engine, parameters, tuning);
+                    return false;
+                }
+                if (reloader.reload(engine, parameters)) {
+                    track(port, engine, parameters, tuning);
+                    return false;
+                }
+            }
             if (engine != null) {
                 LOGGER.info("Found existing engine for port " + port + ": " + engine + ". Shutting server down");
+                engines.remove(port, engine);
+                tunings.remove(port);
+                tlsParameters.remove(port);
                 JettyHTTPServerEngineFactory.destroyForPort(port);
+                destroyed = true;
             }
 
             TLSServerParameters tlsParams = parameters;
@@ -175,15 +300,42 @@ public class JettyConfigurator implements JettyConfiguration {
             } else {
                 factory.createJettyHTTPServerEngine(null, port, "http");
             }
-
-            engine = factory.retrieveJettyHTTPServerEngine(port);
-            LOGGER.info("Started new server: " + engine.getHost() + " " + engine.getPort() + " " + engine.getProtocol() + " " + engine.getConnector());
         } catch (GeneralSecurityException | IOException ex) {
             LOGGER.error("An error occured when setting new TLSServerParameters for server: " + port, ex);
+            return destroyed;
         } catch (RuntimeException ex) {
             LOGGER.error("An error occured when building TLSServerParameters for server: " + port, ex);
+            return destroyed;
         } catch (Exception ex) {
             LOGGER.error("An error occured when building TLSServerParameters for server: " + port, ex);
+            return destroyed;
+        }
+
+        //The engine has been replaced from here on, so the endpoints on the port must be rebuilt even if it cannot be tuned
+        engine = factory.retrieveJettyHTTPServerEngine(port);
+        if (engine == null) {
+            LOGGER.warn("No engine was created for port {}. Endpoints will be rebuilt on the Jetty defaults", port);
+            return true;
+        }
+        try {
+            track(port, engine, parameters, tuning);
+        } catch (Exception ex) {
+            LOGGER.error("Could not tune the new engine on port {} with {}", port, tuning, ex);
+        }
+        LOGGER.info("Started new server: " + engine.getHost() + " " + engine.getPort() + " " + engine.getProtocol() + " " + engine.getConnector());
+        return true;
+    }
+
+    private void track(int port, JettyHTTPServerEngine engine, TLSServerParameters parameters, EngineTuning tuning) throws Exception {
+        engines.put(port, engine);
+        if (parameters != null) {
+            tlsParameters.put(port, parameters);
+        } else {
+            tlsParameters.remove(port);
+        }
+        if (tuning != null) {
+            EngineTuner.tune(engine, tuning);
+            tunings.put(port, new EngineTuning(tuning));
         }
     }
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import javax.net.ssl.SSLContext;
+import org.apache.cxf.configuration.jsse.TLSServerParameters;
+import org.apache.cxf.configuration.security.ClientAuthentication;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the TLS settings of a running HTTPS engine without closing its port.
+ * <p>
+ * A new SSL connection factory is built from the new parameters and swapped in
+ * on the running connector. Handshakes from then on use the new certificates,
+ * while connections already established finish on the old ones. The SSL context
+ * is built the way the engine builds its own, so the result is the same as if
+ * the engine had been recreated with the new parameters. The parameters are not
+ * set on the running engine, as CXF then rebuilds its listener factory, so the
+ * engine keeps reporting the parameters it was created with.
+ * <p>
+ * The reload relies on CXF and Jetty members that are not public. If any of them
+ * is missing, engines are recreated instead.
+ *
+ * @author mnn
+ */
+class SslContextReloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SslContextReloader.class);
+
+    /**
+     * The reloader using the members found in the CXF and Jetty versions at hand.
+     */
+    static final SslContextReloader DEFAULT = new SslContextReloader(
+            findEngineMethod("createSSLContext", SslContextFactory.class),
+            findEngineMethod("setClientAuthentication", SslContextFactory.class, ClientAuthentication.class),
+            findConnectorField("_defaultConnectionFactory"));
+
+    private final Method createSslContext;
+    private final Method setClientAuthentication;
+    //A started connector caches its default factory, so it has to be replaced there as well
+    private final Field defaultConnectionFactory;
+
+    /**
+     * @param createSslContext the method of the engine building an SSL context, or null if missing
+     * @param setClientAuthentication the method of the engine configuring client authentication,
+     * or null if missing
+     * @param defaultConnectionFactory the field of a connector caching its default connection
+     * factory, or null if missing
+     */
+    SslContextReloader(Method createSslContext, Method setClientAuthentication, Field defaultConnectionFactory) {
+        this.createSslContext = createSslContext;
+        this.setClientAuthentication = setClientAuthentication;
+        this.defaultConnectionFactory = defaultConnectionFactory;
+    }
+
+    /**
+     * @return true if the engine now uses the new parameters, false if it cannot be reloaded in
+     * place and has to be recreated
+     * @throws Exception if building the new SSL context failed. The engine keeps its old settings.
+     */
+    boolean reload(JettyHTTPServerEngine engine, TLSServerParameters parameters) throws Exception {
+        if (!canBuildSslContextFactory() || defaultConnectionFactory == null || parameters == null || engine.getTlsServerParameters() == null) {
+            return false;
+        }
+        Server server = engine.getServer();
+        Connector connector = engine.getConnector();
+        if (server == null || !server.isStarted() || !(connector instanceof AbstractConnector)) {
+            return false; //Not listening yet, so recreating it costs nothing
+        }
+        AbstractConnector sslConnector = (AbstractConnector) connector;
+        SslConnectionFactory current = sslConnector.getConnectionFactory(SslConnectionFactory.class);
+        if (current == null) {
+            return false;
+        }
+
+        SslConnectionFactory replacement = new SslConnectionFactory(newSslContextFactory(parameters), HttpVersion.HTTP_1_1.asString());
+        replacement.start();
+        synchronized (sslConnector) {
+            sslConnector.addConnectionFactory(replacement);
+            if (defaultConnectionFactory.get(sslConnector) == current) {
+                defaultConnectionFactory.set(sslConnector, replacement);
+            }
+        }
+        sslConnector.manage(replacement);
+        current.stop();
+        LOGGER.info("Reloaded TLS parameters of {} on port {} in place", engine.getProtocol(), engine.getPort());
+        return true;
+    }
+
+    /**
+     * @return false if the engine methods needed by
+     * {@link #newSslContextFactory(TLSServerParameters)} are unavailable
+     */
+    boolean canBuildSslContextFactory() {
+        return createSslContext != null && setClientAuthentication != null;
+    }
+
+    /**
+     * @return an SSL context factory configured the way an engine with the parameters configures
+     * its own
+     */
+    SslContextFactory newSslContextFactory(TLSServerParameters parameters) throws Exception {
+        //The engine reads the parameters when building the context. This one is never started, so
+        //unlike on a running engine, setting them does not make CXF rebuild its listener factory.
+        final JettyHTTPServerEngine builder = new JettyHTTPServerEngine();
+        builder.setTlsServerParameters(parameters);
+        SslContextFactory sslContextFactory = new SslContextFactory() {
+            @Override
+            protected void doStart() throws Exception {
+                setSslContext((SSLContext) invoke(createSslContext, builder, this));
+                super.doStart();
+            }
+        };
+        invoke(setClientAuthentication, builder, sslContextFactory, parameters.getClientAuthentication());
+        if (parameters.getCertAlias() != null) {
+            sslContextFactory.setCertAlias(parameters.getCertAlias());
+        }
+        return sslContextFactory;
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws Exception {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the field of {@link AbstractConnector}, or null if it does not exist
+     */
+    static Field findConnectorField(String name) {
+        try {
+            Field field = AbstractConnector.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | RuntimeException ex) {
+            LOGGER.info("TLS parameters cannot be reloaded in place. Engines will be recreated instead: {}", ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return the method of {@link JettyHTTPServerEngine}, or null if it does not exist
+     */
+    static Method findEngineMethod(String name, Class<?>... parameterTypes) {
+        try {
+            Method method = JettyHTTPServerEngine.class.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException | RuntimeException ex) {
+            LOGGER.info("TLS parameters cannot be reloaded in place. Engines will be recreated instead: {}", ex.toString());
+            return null;
+        }
+    }
+
+}
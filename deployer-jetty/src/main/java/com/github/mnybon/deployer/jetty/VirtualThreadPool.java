@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Jetty thread pool that runs every task on a new virtual thread, so
+ * requests blocking on I/O do not hold on to a platform thread.
+ * <p>
+ * Virtual threads exist from Java 21 and are created reflectively, so the
+ * bundle still runs on older JVMs. {@link #isSupported()} tells whether they
+ * are available. Selector loops block in the selector for as long as the
+ * connector runs, so they are given platform threads instead of pinning a
+ * carrier thread each.
+ *
+ * @author mnn
+ */
+class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadPool.class);
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+    private static final Method BUILDER_NAME = findBuilderMethod("name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = findBuilderMethod("factory");
+    private static final boolean SUPPORTED = newVirtualThreadFactory("probe-") != null;
+
+    private final String name;
+    private final ThreadFactory virtualThreads;
+    private final AtomicInteger platformThreadIds = new AtomicInteger();
+    private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private final Object joinLock = new Object();
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    VirtualThreadPool(String name) {
+        this(name, newVirtualThreadFactory(name + "-"));
+    }
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @param virtualThreads the factory creating the threads tasks run on
+     * @throws UnsupportedOperationException if the factory is null
+     */
+    VirtualThreadPool(String name, ThreadFactory virtualThreads) {
+        this.name = name;
+        this.virtualThreads = virtualThreads;
+        if (virtualThreads == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (!isRunning()) {
+            throw new RejectedExecutionException(name + " is not running");
+        }
+        Runnable tracked = new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                try {
+                    task.run();
+                } finally {
+                    threads.remove(Thread.currentThread());
+                }
+            }
+        };
+        Thread thread;
+        if (task instanceof SelectorManager.ManagedSelector) {
+            thread = new Thread(tracked, name + "-selector-" + platformThreadIds.incrementAndGet());
+            thread.setDaemon(true);
+        } else {
+            thread = virtualThreads.newThread(tracked);
+        }
+        thread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        synchronized (joinLock) {
+            joinLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        synchronized (joinLock) {
+            while (isRunning()) {
+                joinLock.wait();
+            }
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.size();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * @return false. A new thread is created for every task.
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualThreadPool{" + name + ", threads=" + threads.size() + '}';
+    }
+
+    private static ThreadFactory newVirtualThreadFactory(String prefix) {
+        if (OF_VIRTUAL == null || BUILDER_NAME == null || BUILDER_FACTORY == null) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, prefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+            //Java 19 and 20 throw UnsupportedOperationException unless preview features are enabled
+            LOGGER.debug("Virtual threads are not available", ex);
+            return null;
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static Method findBuilderMethod(String methodName, Class<?>... parameterTypes) {
+        try {
+            return Class.forName("java.lang.Thread$Builder").getMethod(methodName, parameterTypes);
+        } catch (ClassNotFoundException | NoSuchMethodException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+}
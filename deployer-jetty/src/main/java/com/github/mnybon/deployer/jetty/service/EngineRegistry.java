@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty.service;
+
+import java.util.Set;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+
+/**
+ * The Jetty engines currently live in the framework.
+ *
+ * @author mnn
+ */
+public interface EngineRegistry {
+
+    /**
+     * @return the ports whose engine was created or reconfigured through an
+     * {@link EngineConfiguration}. Engines CXF created on other ports when
+     * an endpoint was published are not listed, but can be looked up with
+     * {@link #getEngine(int)}.
+     */
+    public Set<Integer> getPorts();
+
+    /**
+     * @return the ports whose engine is configured by an
+     * {@link EngineConfiguration} service
+     */
+    public Set<Integer> getManagedPorts();
+
+    /**
+     * @return the engine on the port, or null if there is none
+     */
+    public JettyHTTPServerEngine getEngine(int port);
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty.service;
+
+import java.util.Objects;
+
+/**
+ * Performance settings of a Jetty engine. Settings left null keep the Jetty
+ * defaults when the engine is created, and are left as they are when a
+ * running engine is retuned.
+ * <p>
+ * Thread counts, the idle timeout and the buffer sizes are applied to a running
+ * engine. Acceptors, selectors, the request queue, address reuse and virtual
+ * threads are fixed when the connector is created, so changing them recreates
+ * the engine.
+ * <p>
+ * There is no HTTP/2 setting. Jetty's HTTP/2 and ALPN connection factories
+ * first shipped in Jetty 9.3, and the CXF 3.1 Jetty transport the engines are
+ * built on runs on Jetty 9.2. Serving h2 and h2c needs CXF upgraded to a
+ * release built on Jetty 9.3 or later.
+ *
+ * @author mnn
+ */
+public class EngineTuning {
+
+    private Integer minThreads;
+    private Integer maxThreads;
+    private Integer maxQueuedRequests;
+    private Integer acceptors;
+    private Integer selectors;
+    private Long idleTimeout;
+    private Integer outputBufferSize;
+    private Integer requestHeaderSize;
+    private Boolean reuseAddress;
+    private Boolean virtualThreads;
+
+    public EngineTuning() {
+    }
+
+    public EngineTuning(EngineTuning other) {
+        this.minThreads = other.minThreads;
+        this.maxThreads = other.maxThreads;
+        this.maxQueuedRequests = other.maxQueuedRequests;
+        this.acceptors = other.acceptors;
+        this.selectors = other.selectors;
+        this.idleTimeout = other.idleTimeout;
+        this.outputBufferSize = other.outputBufferSize;
+        this.requestHeaderSize = other.requestHeaderSize;
+        this.reuseAddress = other.reuseAddress;
+        this.virtualThreads = other.virtualThreads;
+    }
+
+    public Integer getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(Integer minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @return the number of requests waiting for a thread before new ones are
+     * rejected, or null for an unbounded queue
+     */
+    public Integer getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public void setMaxQueuedRequests(Integer maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public Integer getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(Integer acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public Integer getSelectors() {
+        return selectors;
+    }
+
+    public void setSelectors(Integer selectors) {
+        this.selectors = selectors;
+    }
+
+    /**
+     * @return the time in milliseconds a connection may be idle before it is
+     * closed
+     */
+    public Long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    public void setOutputBufferSize(Integer outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    public Integer getRequestHeaderSize() {
+        return requestHeaderSize;
+    }
+
+    public void setRequestHeaderSize(Integer requestHeaderSize) {
+        this.requestHeaderSize = requestHeaderSize;
+    }
+
+    public Boolean getReuseAddress() {
+        return reuseAddress;
+    }
+
+    public void setReuseAddress(Boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * @return true to run requests on virtual threads instead of a pool of
+     * platform threads. Thread counts and the request queue are then ignored.
+     * JVMs older than Java 21 fall back to the thread pool.
+     */
+    public Boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(Boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return true if the settings that are fixed when the connector is created
+     * differ between the two tunings. Either may be null for the defaults.
+     */
+    public static boolean requiresRestart(EngineTuning current, EngineTuning wanted) {
+        EngineTuning a = current == null ? new EngineTuning() : current;
+        EngineTuning b = wanted == null ? new EngineTuning() : wanted;
+        return !Objects.equals(a.acceptors, b.acceptors)
+                || !Objects.equals(a.selectors, b.selectors)
+                || !Objects.equals(a.maxQueuedRequests, b.maxQueuedRequests)
+                || !Objects.equals(a.reuseAddress, b.reuseAddress)
+                || !Objects.equals(a.virtualThreads, b.virtualThreads);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minThreads, maxThreads, maxQueuedRequests, acceptors, selectors, idleTimeout, outputBufferSize, requestHeaderSize, reuseAddress, virtualThreads);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof EngineTuning)) {
+            return false;
+        }
+        EngineTuning other = (EngineTuning) obj;
+        return Objects.equals(minThreads, other.minThreads)
+                && Objects.equals(maxThreads, other.maxThreads)
+                && Objects.equals(maxQueuedRequests, other.maxQueuedRequests)
+                && Objects.equals(acceptors, other.acceptors)
+                && Objects.equals(selectors, other.selectors)
+                && Objects.equals(idleTimeout, other.idleTimeout)
+                && Objects.equals(outputBufferSize, other.outputBufferSize)
+                && Objects.equals(requestHeaderSize, other.requestHeaderSize)
+                && Objects.equals(reuseAddress, other.reuseAddress)
+                && Objects.equals(virtualThreads, other.virtualThreads);
+    }
+
+    @Override
+    public String toString() {
+        return "EngineTuning{" + "minThreads=" + minThreads + ", maxThreads=" + maxThreads + ", maxQueuedRequests=" + maxQueuedRequests
+                + ", acceptors=" + acceptors + ", selectors=" + selectors + ", idleTimeout=" + idleTimeout
+                + ", outputBufferSize=" + outputBufferSize + ", requestHeaderSize=" + requestHeaderSize + ", reuseAddress=" + reuseAddress + ", virtualThreads=" + virtualThreads + '}';
+    }
+
+}
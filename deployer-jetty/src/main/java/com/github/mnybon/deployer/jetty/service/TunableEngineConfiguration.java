@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty.service;
+
+/**
+ * An {@link EngineConfiguration} that also sizes the Jetty engine on its port.
+ *
+ * @author mnn
+ */
+public interface TunableEngineConfiguration extends EngineConfiguration {
+
+    /**
+     * Read whenever the engine is configured, so a changed tuning is applied by
+     * {@link JettyConfiguration#reconfigure(int)}.
+     *
+     * @return the tuning of the engine, or null to use the Jetty defaults
+     */
+    public EngineTuning getTuning();
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tunes new engines, and engines serving an endpoint, on a free port.
+ *
+ * @author mnn
+ */
+public class EngineTunerTest {
+
+    @Path("/tuned")
+    public static class TunedResource {
+
+        @GET
+        public String get() {
+            return "tuned";
+        }
+    }
+
+    private int port;
+    private JettyHTTPServerEngine engine;
+    private Server server;
+
+    @Before
+    public void setUp() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        engine = new JettyHTTPServerEngineFactory().createJettyHTTPServerEngine(port, "http");
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.destroy();
+        }
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void newEngineIsBuiltFromTuning() throws Exception {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(3);
+        tuning.setMaxThreads(17);
+        tuning.setAcceptors(1);
+        tuning.setSelectors(2);
+        tuning.setIdleTimeout(12345L);
+        tuning.setOutputBufferSize(4096);
+        tuning.setRequestHeaderSize(2048);
+        tuning.setReuseAddress(false);
+
+        EngineTuner.tune(engine, tuning);
+
+        ServerConnector connector = (ServerConnector) engine.getConnector();
+        assertEquals(1, connector.getAcceptors());
+        assertEquals(2, connector.getSelectorManager().getSelectorCount());
+        assertEquals(12345L, connector.getIdleTimeout());
+        assertFalse(connector.getReuseAddress());
+        assertEquals(port, connector.getPort());
+        QueuedThreadPool threadPool = (QueuedThreadPool) connector.getServer().getThreadPool();
+        assertEquals(3, threadPool.getMinThreads());
+        assertEquals(17, threadPool.getMaxThreads());
+        HttpConfiguration httpConfiguration = connector.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration();
+        assertEquals(4096, httpConfiguration.getOutputBufferSize());
+        assertEquals(2048, httpConfiguration.getRequestHeaderSize());
+    }
+
+    @Test
+    public void newEngineWithMinAboveMaxIsRejected() throws Exception {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(20);
+        tuning.setMaxThreads(10);
+
+        try {
+            EngineTuner.tune(engine, tuning);
+            fail("Tuned an engine with more min than max threads");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(engine.getConnector());
+    }
+
+    @Test
+    public void runningEngineIsRetunedInPlace() throws Exception {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(4);
+        tuning.setMaxThreads(20);
+        EngineTuner.tune(engine, tuning);
+        ServerConnector connector = (ServerConnector) engine.getConnector();
+        serve();
+        assertTrue(engine.getServer().isStarted());
+
+        EngineTuning retuned = new EngineTuning(tuning);
+        retuned.setMinThreads(6);
+        retuned.setMaxThreads(40);
+        retuned.setIdleTimeout(2000L);
+        retuned.setOutputBufferSize(16384);
+        EngineTuner.tune(engine, retuned);
+
+        assertSame(connector, engine.getConnector());
+        QueuedThreadPool threadPool = (QueuedThreadPool) engine.getServer().getThreadPool();
+        assertEquals(6, threadPool.getMinThreads());
+        assertEquals(40, threadPool.getMaxThreads());
+        assertEquals(2000L, connector.getIdleTimeout());
+        assertEquals(16384, connector.getConnectionFactory(HttpConnectionFactory.class).getHttpConfiguration().getOutputBufferSize());
+    }
+
+    @Test
+    public void retuningToMinAboveMaxKeepsThreadCounts() throws Exception {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(4);
+        tuning.setMaxThreads(20);
+        EngineTuner.tune(engine, tuning);
+        serve();
+
+        EngineTuning retuned = new EngineTuning();
+        retuned.setMinThreads(30);
+        EngineTuner.tune(engine, retuned);
+
+        QueuedThreadPool threadPool = (QueuedThreadPool) engine.getServer().getThreadPool();
+        assertEquals(4, threadPool.getMinThreads());
+        assertEquals(20, threadPool.getMaxThreads());
+    }
+
+    @Test
+    public void nullTuningLeavesEngineAlone() throws Exception {
+        EngineTuner.tune(engine, null);
+
+        assertNull(engine.getConnector());
+    }
+
+    private void serve() {
+        JAXRSServerFactoryBean sf = new JAXRSServerFactoryBean();
+        sf.setAddress("http://127.0.0.1:" + port + "/");
+        sf.setServiceBean(new TunedResource());
+        server = sf.create();
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.jetty.service.EngineConfiguration;
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import com.github.mnybon.deployer.jetty.service.TunableEngineConfiguration;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.HashMap;
+import org.apache.cxf.configuration.jsse.TLSServerParameters;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.*;
+
+/**
+ * Configures a plain HTTP engine from a {@link TunableEngineConfiguration} and
+ * checks when a changed tuning is applied in place and when the engine is
+ * recreated.
+ *
+ * @author mnn
+ */
+public class JettyConfiguratorTest {
+
+    private BundleContext context;
+    private JettyConfigurator configurator;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(context);
+        configurator = new JettyConfigurator();
+        configurator.activate(context, new HashMap<String, Object>());
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        configurator.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void tuningIsReadFromTunableConfigurations() throws Exception {
+        EngineTuning tuning = newTuning();
+
+        assertSame(tuning, JettyConfigurator.getTuning(new StubConfiguration(port, tuning)));
+        assertNull(JettyConfigurator.getTuning(new EngineConfiguration() {
+            @Override
+            public int getConfiguredPort() {
+                return port;
+            }
+
+            @Override
+            public TLSServerParameters getTLSParameters() {
+                return null;
+            }
+        }));
+    }
+
+    @Test
+    public void newEngineIsBuiltFromTheConfiguredTuning() throws Exception {
+        StubConfiguration configuration = new StubConfiguration(port, newTuning());
+
+        assertTrue(configure(configuration));
+
+        ServerConnector connector = (ServerConnector) configurator.getEngine(port).getConnector();
+        assertEquals(1, connector.getAcceptors());
+        assertEquals(30000L, connector.getIdleTimeout());
+        assertEquals(Collections.singleton(port), configurator.getPorts());
+    }
+
+    @Test
+    public void destroyedEnginesLeaveTheRegistry() throws Exception {
+        configure(new StubConfiguration(port, newTuning()));
+
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+
+        assertNull(configurator.getEngine(port));
+        assertTrue(configurator.getPorts().isEmpty());
+    }
+
+    @Test
+    public void enginesCreatedElsewhereAreFoundButNotListed() throws Exception {
+        JettyHTTPServerEngine engine = new JettyHTTPServerEngineFactory().createJettyHTTPServerEngine(port, "http");
+
+        assertSame(engine, configurator.getEngine(port));
+        assertTrue(configurator.getPorts().isEmpty());
+    }
+
+    @Test
+    public void runtimeSettingsAreAppliedInPlace() throws Exception {
+        StubConfiguration configuration = new StubConfiguration(port, newTuning());
+        configure(configuration);
+        JettyHTTPServerEngine engine = configurator.getEngine(port);
+
+        configuration.tuning.setMaxThreads(50);
+        configuration.tuning.setIdleTimeout(1000L);
+
+        assertFalse("The engine was recreated for settings that can change at runtime", configure(configuration));
+        assertSame(engine, configurator.getEngine(port));
+        assertEquals(1000L, ((ServerConnector) engine.getConnector()).getIdleTimeout());
+    }
+
+    @Test
+    public void connectorSettingsRecreateTheEngine() throws Exception {
+        StubConfiguration configuration = new StubConfiguration(port, newTuning());
+        configure(configuration);
+        JettyHTTPServerEngine engine = configurator.getEngine(port);
+
+        configuration.tuning.setAcceptors(2);
+
+        assertTrue("The engine was kept though its acceptors changed", configure(configuration));
+        assertNotSame(engine, configurator.getEngine(port));
+        assertEquals(2, ((ServerConnector) configurator.getEngine(port).getConnector()).getAcceptors());
+    }
+
+    @Test
+    public void droppingTheTuningRecreatesATunedEngine() throws Exception {
+        StubConfiguration configuration = new StubConfiguration(port, newTuning());
+        configure(configuration);
+        JettyHTTPServerEngine engine = configurator.getEngine(port);
+
+        configuration.tuning = null;
+
+        assertTrue(configure(configuration));
+        assertNotSame(engine, configurator.getEngine(port));
+    }
+
+    @Test
+    public void restartModeRecreatesTheEngineForAnyChange() throws Exception {
+        configurator.deactivate(context);
+        configurator = new JettyConfigurator();
+        configurator.activate(context, Collections.singletonMap(JettyConfigurator.RECONFIGURE_MODE, JettyConfigurator.MODE_RESTART));
+        StubConfiguration configuration = new StubConfiguration(port, newTuning());
+        configure(configuration);
+        JettyHTTPServerEngine engine = configurator.getEngine(port);
+
+        configuration.tuning.setMaxThreads(50);
+
+        assertTrue(configure(configuration));
+        assertNotSame(engine, configurator.getEngine(port));
+    }
+
+    @Test
+    public void newEngineIsReportedEvenIfItCannotBeTuned() throws Exception {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(20);
+        tuning.setMaxThreads(10);
+
+        assertTrue("The new engine was not reported, so its endpoints would not be rebuilt",
+                configure(new StubConfiguration(port, tuning)));
+        assertNotNull(configurator.getEngine(port));
+    }
+
+    private boolean configure(EngineConfiguration configuration) throws Exception {
+        return configurator.reconfigureServer(configuration.getConfiguredPort(), configuration.getTLSParameters(),
+                JettyConfigurator.getTuning(configuration));
+    }
+
+    private static EngineTuning newTuning() {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(4);
+        tuning.setMaxThreads(20);
+        tuning.setAcceptors(1);
+        tuning.setIdleTimeout(30000L);
+        return tuning;
+    }
+
+    private static class StubConfiguration implements TunableEngineConfiguration {
+
+        private final int port;
+        private EngineTuning tuning;
+
+        StubConfiguration(int port, EngineTuning tuning) {
+            this.port = port;
+            this.tuning = tuning;
+        }
+
+        @Override
+        public int getConfiguredPort() {
+            return port;
+        }
+
+        @Override
+        public TLSServerParameters getTLSParameters() {
+            return null;
+        }
+
+        @Override
+        public EngineTuning getTuning() {
+            return tuning;
+        }
+    }
+
+}
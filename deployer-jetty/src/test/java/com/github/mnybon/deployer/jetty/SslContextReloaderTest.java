@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.rest.RestDeployer;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import org.apache.cxf.configuration.jsse.TLSServerParameters;
+import org.apache.cxf.configuration.security.ClientAuthentication;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.easymock.EasyMock;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reloads the keystore of a running HTTPS engine and verifies that the engine
+ * is kept, keeps serving, and presents the new certificate to new
+ * connections. The reload depends on CXF and Jetty internals, which this
+ * catches going away in an upgrade, and the engine is recreated instead when
+ * any of them is missing.
+ *
+ * @author mnn
+ */
+public class SslContextReloaderTest {
+
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    @Path("/hello")
+    public interface HelloResource {
+
+        @GET
+        String hello();
+    }
+
+    public static class HelloResourceImpl implements HelloResource {
+
+        @Override
+        public String hello() {
+            return "hello";
+        }
+    }
+
+    private BundleContext context;
+    private JettyConfigurator configurator;
+    private RestDeployer deployer;
+    private int port;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(context.getService(EasyMock.<ServiceReference<Object>>anyObject())).andReturn(new HelloResourceImpl()).anyTimes();
+        EasyMock.replay(context);
+        configurator = new JettyConfigurator();
+        configurator.activate(context, new HashMap<String, Object>());
+        deployer = new RestDeployer();
+        deployer.activate(context, new HashMap<String, Object>());
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        address = "https://127.0.0.1:" + port + "/tls";
+    }
+
+    @After
+    public void tearDown() {
+        deployer.deactivate(context);
+        configurator.deactivate(context);
+        JettyHTTPServerEngineFactory.destroyForPort(port);
+    }
+
+    @Test
+    public void reloadsKeystoreOfRunningEngineInPlace() throws Exception {
+        assertTrue(SslContextReloader.DEFAULT.canBuildSslContextFactory());
+        TLSServerParameters first = newParameters("first.jks");
+        JettyHTTPServerEngine engine = deploy(first);
+        TLSServerParameters second = newParameters("second.jks");
+
+        List<LogRecord> warnings = new ArrayList<>();
+        Logger engineLogger = Logger.getLogger(JettyHTTPServerEngine.class.getName());
+        Handler handler = collect(warnings);
+        engineLogger.addHandler(handler);
+        try {
+            assertFalse("The engine was recreated rather than reloaded", configurator.reconfigureServer(port, second));
+        } finally {
+            engineLogger.removeHandler(handler);
+        }
+
+        assertSame(engine, configurator.getEngine(port));
+        assertTrue("The engine logged " + warnings, warnings.isEmpty());
+        assertSame("The parameters were set on the running engine", first, engine.getTlsServerParameters());
+        assertSame(second, configurator.getTlsServerParameters(port));
+        assertEquals("CN=second", getServerCertificate().getSubjectX500Principal().getName());
+        assertEquals("hello", get(address + "/hello"));
+    }
+
+    @Test
+    public void recreatesEngineWithoutCreateSslContext() throws Exception {
+        assertNull(SslContextReloader.findEngineMethod("createMissingSSLContext", SslContextFactory.class));
+        assertRecreated(new SslContextReloader(null,
+                SslContextReloader.findEngineMethod("setClientAuthentication", SslContextFactory.class, ClientAuthentication.class),
+                SslContextReloader.findConnectorField("_defaultConnectionFactory")));
+    }
+
+    @Test
+    public void recreatesEngineWithoutSetClientAuthentication() throws Exception {
+        assertRecreated(new SslContextReloader(
+                SslContextReloader.findEngineMethod("createSSLContext", SslContextFactory.class),
+                null,
+                SslContextReloader.findConnectorField("_defaultConnectionFactory")));
+    }
+
+    @Test
+    public void recreatesEngineWithoutDefaultConnectionFactory() throws Exception {
+        assertNull(SslContextReloader.findConnectorField("_missingConnectionFactory"));
+        assertRecreated(new SslContextReloader(
+                SslContextReloader.findEngineMethod("createSSLContext", SslContextFactory.class),
+                SslContextReloader.findEngineMethod("setClientAuthentication", SslContextFactory.class, ClientAuthentication.class),
+                null));
+    }
+
+    private void assertRecreated(SslContextReloader reloader) throws Exception {
+        configurator.deactivate(context);
+        configurator = new JettyConfigurator(reloader);
+        configurator.activate(context, new HashMap<String, Object>());
+        JettyHTTPServerEngine engine = deploy(newParameters("first.jks"));
+        TLSServerParameters second = newParameters("second.jks");
+
+        assertTrue("The engine was reloaded without the members it needs", configurator.reconfigureServer(port, second));
+        deployer.rebuildServers(port).get(1, TimeUnit.MINUTES);
+
+        assertNotSame(engine, configurator.getEngine(port));
+        assertSame(second, configurator.getEngine(port).getTlsServerParameters());
+        assertSame(second, configurator.getTlsServerParameters(port));
+        assertEquals("CN=second", getServerCertificate().getSubjectX500Principal().getName());
+        assertEquals("hello", get(address + "/hello"));
+    }
+
+    /**
+     * @return the engine serving the resource on the address
+     */
+    private JettyHTTPServerEngine deploy(TLSServerParameters parameters) throws Exception {
+        configurator.reconfigureServer(port, parameters);
+        deployer.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, new StubReference(HelloResource.class.getName(), address)));
+        deployer.getDeployment(address).get(1, TimeUnit.MINUTES);
+        assertEquals("CN=first", getServerCertificate().getSubjectX500Principal().getName());
+        assertEquals("hello", get(address + "/hello"));
+        return configurator.getEngine(port);
+    }
+
+    private static Handler collect(final List<LogRecord> warnings) {
+        return new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+                    warnings.add(record);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static TLSServerParameters newParameters(String keystore) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = SslContextReloaderTest.class.getResourceAsStream("/" + keystore)) {
+            keyStore.load(in, PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        TLSServerParameters parameters = new TLSServerParameters();
+        parameters.setKeyManagers(keyManagerFactory.getKeyManagers());
+        return parameters;
+    }
+
+    /**
+     * @return the certificate presented in a full handshake, as a new SSL
+     * context never resumes an earlier session
+     */
+    private X509Certificate getServerCertificate() throws Exception {
+        try (SSLSocket socket = (SSLSocket) newTrustingContext().getSocketFactory().createSocket("127.0.0.1", port)) {
+            socket.startHandshake();
+            return (X509Certificate) socket.getSession().getPeerCertificates()[0];
+        }
+    }
+
+    private static String get(String url) throws Exception {
+        HttpsURLConnection connection = (HttpsURLConnection) new URL(url).openConnection();
+        connection.setSSLSocketFactory(newTrustingContext().getSocketFactory());
+        connection.setHostnameVerifier(new HostnameVerifier() {
+            @Override
+            public boolean verify(String hostname, SSLSession session) {
+                return true;
+            }
+        });
+        connection.setRequestProperty("Connection", "close");
+        try (Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    private static SSLContext newTrustingContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return sslContext;
+    }
+
+    private static class StubReference implements ServiceReference<Object> {
+
+        private final Map<String, Object> properties = new HashMap<>();
+
+        StubReference(String objectClass, String address) {
+            properties.put(Constants.SERVICE_ID, 1L);
+            properties.put(Constants.OBJECTCLASS, new String[]{objectClass});
+            properties.put(com.github.mnybon.deployer.rest.Constants.TARGET_SERVER, address);
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys() {
+            return properties.keySet().toArray(new String[properties.size()]);
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return null;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles() {
+            return new Bundle[0];
+        }
+
+        @Override
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        @Override
+        public int compareTo(Object reference) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty;
+
+import com.github.mnybon.deployer.jetty.service.EngineTuning;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngine;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs jobs on the pool, and checks that engines asking for virtual threads
+ * fall back to a thread pool on JVMs without them. The pool is given a
+ * platform thread factory where the JVM has no virtual threads, so its
+ * bookkeeping is tested on every JVM.
+ *
+ * @author mnn
+ */
+public class VirtualThreadPoolTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    public void runsJobsAndCountsTheirThreads() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        VirtualThreadPool pool = new VirtualThreadPool("test", new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                created.incrementAndGet();
+                return new Thread(task, "test-" + created.get());
+            }
+        });
+        pool.start();
+        try {
+            int jobs = 5;
+            final CountDownLatch started = new CountDownLatch(jobs);
+            final CountDownLatch release = new CountDownLatch(1);
+            for (int i = 0; i < jobs; i++) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals(jobs, created.get());
+            assertEquals(jobs, pool.getThreads());
+            assertEquals(0, pool.getIdleThreads());
+            assertFalse(pool.isLowOnThreads());
+
+            release.countDown();
+            awaitThreads(pool, 0);
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test
+    public void stoppingInterruptsRunningJobsAndEndsJoin() throws Exception {
+        VirtualThreadPool pool = new VirtualThreadPool("test", platformThreads());
+        pool.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(TIMEOUT);
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        pool.stop();
+        pool.join();
+
+        assertTrue(interrupted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        awaitThreads(pool, 0);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsJobsWhenNotRunning() {
+        new VirtualThreadPool("test", platformThreads()).execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    @Test
+    public void cannotBeCreatedWithoutVirtualThreads() {
+        Assume.assumeFalse(VirtualThreadPool.isSupported());
+        try {
+            new VirtualThreadPool("test");
+            fail("Created a virtual thread pool on Java " + System.getProperty("java.version"));
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void runsJobsOnVirtualThreadsWhenSupported() throws Exception {
+        Assume.assumeTrue(VirtualThreadPool.isSupported());
+        VirtualThreadPool pool = new VirtualThreadPool("virtual");
+        pool.start();
+        try {
+            final CountDownLatch ran = new CountDownLatch(1);
+            final String[] threadName = new String[1];
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadName[0] = Thread.currentThread().getName();
+                    ran.countDown();
+                }
+            });
+            assertTrue(ran.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertTrue(threadName[0], threadName[0].startsWith("virtual-"));
+        } finally {
+            pool.stop();
+        }
+    }
+
+    @Test
+    public void engineFallsBackToThreadPoolWithoutVirtualThreads() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        try {
+            JettyHTTPServerEngine engine = new JettyHTTPServerEngineFactory().createJettyHTTPServerEngine(port, "http");
+            EngineTuning tuning = new EngineTuning();
+            tuning.setVirtualThreads(true);
+
+            EngineTuner.tune(engine, tuning);
+
+            ThreadPool threadPool = ((ServerConnector) engine.getConnector()).getServer().getThreadPool();
+            if (VirtualThreadPool.isSupported()) {
+                assertTrue(threadPool.toString(), threadPool instanceof VirtualThreadPool);
+            } else {
+                assertTrue(threadPool.toString(), threadPool instanceof QueuedThreadPool);
+            }
+        } finally {
+            JettyHTTPServerEngineFactory.destroyForPort(port);
+        }
+    }
+
+    private static void awaitThreads(VirtualThreadPool pool, int threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (pool.getThreads() != threads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads, pool.getThreads());
+    }
+
+    private static ThreadFactory platformThreads() {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                return new Thread(task);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.jetty.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which changes of a tuning can be applied to a running engine and
+ * which recreate it.
+ *
+ * @author mnn
+ */
+public class EngineTuningTest {
+
+    @Test
+    public void defaultsDoNotRequireRestart() {
+        assertFalse(EngineTuning.requiresRestart(null, null));
+        assertFalse(EngineTuning.requiresRestart(null, new EngineTuning()));
+        assertFalse(EngineTuning.requiresRestart(new EngineTuning(), null));
+    }
+
+    @Test
+    public void runtimeSettingsAreAppliedInPlace() {
+        EngineTuning current = newTuning();
+        EngineTuning wanted = new EngineTuning(current);
+        wanted.setMinThreads(2);
+        wanted.setMaxThreads(500);
+        wanted.setIdleTimeout(1000L);
+        wanted.setOutputBufferSize(65536);
+        wanted.setRequestHeaderSize(16384);
+
+        assertFalse(EngineTuning.requiresRestart(current, wanted));
+        assertFalse(EngineTuning.requiresRestart(null, onlyRuntimeSettings()));
+    }
+
+    @Test
+    public void connectorSettingsRequireRestart() {
+        EngineTuning current = newTuning();
+
+        EngineTuning acceptors = new EngineTuning(current);
+        acceptors.setAcceptors(4);
+        assertTrue(EngineTuning.requiresRestart(current, acceptors));
+
+        EngineTuning selectors = new EngineTuning(current);
+        selectors.setSelectors(null);
+        assertTrue(EngineTuning.requiresRestart(current, selectors));
+
+        EngineTuning queue = new EngineTuning(current);
+        queue.setMaxQueuedRequests(10);
+        assertTrue(EngineTuning.requiresRestart(current, queue));
+
+        EngineTuning reuseAddress = new EngineTuning(current);
+        reuseAddress.setReuseAddress(false);
+        assertTrue(EngineTuning.requiresRestart(current, reuseAddress));
+
+        EngineTuning virtualThreads = new EngineTuning(current);
+        virtualThreads.setVirtualThreads(true);
+        assertTrue(EngineTuning.requiresRestart(current, virtualThreads));
+    }
+
+    @Test
+    public void settingAConnectorSettingOnDefaultsRequiresRestart() {
+        EngineTuning wanted = new EngineTuning();
+        wanted.setAcceptors(1);
+
+        assertTrue(EngineTuning.requiresRestart(null, wanted));
+        assertTrue(EngineTuning.requiresRestart(wanted, null));
+    }
+
+    @Test
+    public void copyEqualsOriginal() {
+        EngineTuning tuning = newTuning();
+        EngineTuning copy = new EngineTuning(tuning);
+
+        assertEquals(tuning, copy);
+        assertEquals(tuning.hashCode(), copy.hashCode());
+        copy.setMaxThreads(11);
+        assertNotEquals(tuning, copy);
+    }
+
+    private static EngineTuning newTuning() {
+        EngineTuning tuning = onlyRuntimeSettings();
+        tuning.setAcceptors(1);
+        tuning.setSelectors(2);
+        tuning.setMaxQueuedRequests(100);
+        tuning.setReuseAddress(true);
+        tuning.setVirtualThreads(false);
+        return tuning;
+    }
+
+    private static EngineTuning onlyRuntimeSettings() {
+        EngineTuning tuning = new EngineTuning();
+        tuning.setMinThreads(4);
+        tuning.setMaxThreads(20);
+        tuning.setIdleTimeout(30000L);
+        tuning.setOutputBufferSize(8192);
+        tuning.setRequestHeaderSize(4096);
+        return tuning;
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import java.util.Map;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes JSON with Jackson, registered as a provider service so the
+ * REST deployer adds it to the endpoints it builds. Entities are streamed
+ * from and to the request and response, so no intermediate copy of the body
+ * is made. The buffers Jackson parses and generates with are recycled per
+ * thread by its {@code BufferRecycler}, which is Jackson's default and is
+ * enabled explicitly on the factory of the mapper.
+ * <p>
+ * The provider targets every address by default. It can be limited with the
+ * {@code target_server} and {@code provider_target} properties set through
+ * Configuration Admin using the component name as PID. An
+ * {@code ObjectMapper} ContextResolver service targeting the same addresses
+ * replaces the mapper configured here.
+ *
+ * @author mnn
+ */
+@Component(immediate = true, service = {MessageBodyReader.class, MessageBodyWriter.class},
+        property = "service.ranking:Integer=100")
+public class StreamingJsonProvider extends JacksonJsonProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingJsonProvider.class);
+
+    /**
+     * Fail on JSON properties that the target type does not have.
+     */
+    public static final String FAIL_ON_UNKNOWN_PROPERTIES = "fail.on.unknown.properties";
+
+    public StreamingJsonProvider() {
+        super(new ObjectMapper());
+    }
+
+    @Activate
+    public void activate(Map<String, ?> properties) {
+        Object failOnUnknown = properties == null ? null : properties.get(FAIL_ON_UNKNOWN_PROPERTIES);
+        JsonFactory factory = new JsonFactory()
+                .enable(JsonFactory.Feature.USE_THREAD_LOCAL_FOR_BUFFER_RECYCLING);
+        ObjectMapper mapper = new ObjectMapper(factory)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, failOnUnknown != null && Boolean.parseBoolean(failOnUnknown.toString()))
+                //The provider flushes once the entity is written
+                .configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+        setMapper(mapper);
+        LOGGER.info("Providing JSON with Jackson {}", mapper.version());
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.testresources;
+
+import com.github.mnybon.deployer.rest.Constants;
+import com.github.mnybon.deployer.testresources.service.StreamingService;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.StreamingOutput;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+/**
+ *
+ * @author mnn
+ */
+@Component(immediate = true, property = Constants.TARGET_SERVER + "=" + TestResourceStreaming.ADDRESS)
+public class TestResourceStreaming implements StreamingService {
+
+    public static final String ADDRESS = "http://0.0.0.0:9090/async";
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ScheduledExecutorService timer;
+
+    @Activate
+    public void activate() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @Deactivate
+    public void deactivate() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public StreamingOutput export(final long bytes) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = (byte) ('a' + i % 26);
+                }
+                long remaining = bytes;
+                while (remaining > 0) {
+                    int length = (int) Math.min(remaining, chunk.length);
+                    output.write(chunk, 0, length);
+                    remaining -= length;
+                }
+            }
+        };
+    }
+
+    @Override
+    public void poll(final long delayMillis, final AsyncResponse response) {
+        response.setTimeout(delayMillis + 30000, TimeUnit.MILLISECONDS);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                response.resume("polled after " + delayMillis + " ms");
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+}
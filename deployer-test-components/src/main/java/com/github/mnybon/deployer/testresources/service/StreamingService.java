@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.testresources.service;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ *
+ * @author mnn
+ */
+@Path("/streaming")
+public interface StreamingService {
+
+    /**
+     * Streams the given number of generated bytes without holding them in
+     * memory.
+     */
+    @GET
+    @Path("/export")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public StreamingOutput export(@QueryParam("bytes") long bytes);
+
+    /**
+     * Answers after the given delay without holding a request thread while
+     * waiting.
+     */
+    @GET
+    @Path("/poll")
+    @Produces(MediaType.TEXT_PLAIN)
+    public void poll(@QueryParam("delay") long delayMillis, @Suspended AsyncResponse response);
+
+}
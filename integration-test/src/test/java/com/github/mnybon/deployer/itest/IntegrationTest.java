@@ -15,8 +15,18 @@
  */
 package com.github.mnybon.deployer.itest;
 
+import com.github.mnybon.deployer.rest.service.RestServiceDeployment;
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
@@ -51,10 +61,26 @@ public class IntegrationTest {
     @Inject
     private ConfigurationAdmin configAdmin;
 
+    @Inject
+    private RestServiceDeployment deployment;
+
+    /**
+     * The address of the streaming test component.
+     */
+    static final String STREAMING_ADDRESS = "http://0.0.0.0:9090/async";
+    static final String STREAMING_URL = "http://localhost:9090/async/streaming";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(IntegrationTest.class);
 
     @Configuration
     public Option[] config() throws Exception {
+        return karafConfig();
+    }
+
+    /**
+     * @return the Karaf distribution with the deployer and its test components installed
+     */
+    static Option[] karafConfig() throws Exception {
         MavenArtifactUrlReference karafUrl = maven()
                 .groupId("org.apache.karaf")
                 .artifactId("apache-karaf")
@@ -89,10 +115,38 @@ public class IntegrationTest {
             features(karafStandardRepo, "scr", "webconsole"),
             features(cxfRepo, "cxf"),
             features(serviceDeployerRepo, "cxf_sei_service", "cxf_sei_service_test_components"),
-            replaceConfigurationFile("etc/org.ops4j.pax.logging.cfg", new File(this.getClass().getClassLoader().getResource("com/github/mnybon/deployer/itest/org.ops4j.pax.logging.cfg").toURI())),
-            replaceConfigurationFile("etc/org.ops4j.pax.url.mvn.cfg", new File(this.getClass().getClassLoader().getResource("com/github/mnybon/deployer/itest/org.ops4j.pax.url.mvn.cfg").toURI())),};
+            replaceConfigurationFile("etc/org.ops4j.pax.logging.cfg", new File(IntegrationTest.class.getClassLoader().getResource("com/github/mnybon/deployer/itest/org.ops4j.pax.logging.cfg").toURI())),
+            replaceConfigurationFile("etc/org.ops4j.pax.url.mvn.cfg", new File(IntegrationTest.class.getClassLoader().getResource("com/github/mnybon/deployer/itest/org.ops4j.pax.url.mvn.cfg").toURI())),};
     }
     
+    @Test
+    public void longPollsDoNotHoldRequestThreads() throws Exception {
+        deployment.getDeployment(STREAMING_ADDRESS).get(60, TimeUnit.SECONDS);
+        //More concurrent polls than the default Jetty pool has threads
+        int polls = 300;
+        ExecutorService clients = Executors.newFixedThreadPool(polls);
+        try {
+            List<Future<Integer>> responses = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < polls; i++) {
+                responses.add(clients.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        HttpURLConnection connection = (HttpURLConnection) new URL(STREAMING_URL + "/poll?delay=2000").openConnection();
+                        return connection.getResponseCode();
+                    }
+                }));
+            }
+            for (Future<Integer> response : responses) {
+                assertEquals(Integer.valueOf(200), response.get(60, TimeUnit.SECONDS));
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Polls were serialized on request threads, took " + millis + " ms", millis < 10000);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
     @Test
     public void dontStopTillYouGetEnough() throws Exception{
         System.in.read();
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 mnn.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.mnybon.deployer.itest;
+
+import com.github.mnybon.deployer.rest.service.RestServiceDeployment;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.OptionUtils;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+import static org.ops4j.pax.exam.CoreOptions.*;
+
+/**
+ * Streams a large generated response through the deployer. Too slow for the
+ * default build, so it only runs with the {@code large-payloads} profile. The
+ * size of the response is read from the {@value #STREAMING_BYTES} system
+ * property.
+ *
+ * @author mnn
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class StreamingIT {
+
+    static final String STREAMING_BYTES = "itest.streaming.bytes";
+    private static final long DEFAULT_STREAMING_BYTES = 512L * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingIT.class);
+
+    @Inject
+    private RestServiceDeployment deployment;
+
+    @Configuration
+    public Option[] config() throws Exception {
+        //The tests run inside the container, so the size is handed on to it
+        return OptionUtils.combine(IntegrationTest.karafConfig(),
+                systemProperty(STREAMING_BYTES).value(Long.toString(Long.getLong(STREAMING_BYTES, DEFAULT_STREAMING_BYTES))));
+    }
+
+    @Test
+    public void streamsLargeResponseWithFlatHeap() throws Exception {
+        deployment.getDeployment(IntegrationTest.STREAMING_ADDRESS).get(60, TimeUnit.SECONDS);
+        long bytes = Long.getLong(STREAMING_BYTES, DEFAULT_STREAMING_BYTES);
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+        long peak = 0;
+        long read = 0;
+        HttpURLConnection connection = (HttpURLConnection) new URL(IntegrationTest.STREAMING_URL + "/export?bytes=" + bytes).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            long nextSample = 0;
+            while ((count = in.read(buffer)) > 0) {
+                read += count;
+                if (read >= nextSample) {
+                    peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory() - baseline);
+                    nextSample += Math.max(bytes / 64, 64 * 1024);
+                }
+            }
+        }
+        LOGGER.info("Streamed {} bytes with a peak heap growth of {} MiB", read, peak / (1024 * 1024));
+        assertEquals(bytes, read);
+        //A buffered response grows the heap by at least its own size
+        assertTrue("Heap grew by " + peak + " bytes while streaming " + bytes + " bytes", peak < bytes / 2);
+    }
+
+}